@@ -0,0 +1,84 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * Says whether a String may have been added, or certainly hasn't, in a
+ * fixed number of bits, so "seen before?" checks that are mostly "no" can
+ * skip a slower lookup.  Sized for an expected number of Strings at about
+ * 1% false positives; past that the rate rises but a String added is never
+ * reported as not added.
+ */
+public class BloomFilter
+{
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int HASHES = 7;
+    private static final int MIN_BITS = 1 << 16;
+
+    private final long[] words;
+    private final long bits;
+
+    /**
+     * Constructor
+     *
+     * @param expectedEntries number of Strings expected to be added
+     */
+    public BloomFilter(int expectedEntries) {
+        long wanted = Math.max((long) expectedEntries * BITS_PER_ENTRY, MIN_BITS);
+        words = new long[(int) Math.min((wanted + 63) / 64, Integer.MAX_VALUE - 8)];
+        bits = 64L * words.length;
+    }
+
+    /**
+     * @param value a String, not null
+     */
+    public void add(String value) {
+        int h1 = SymbolTable.mix(value.hashCode());
+        int h2 = secondHash(value);
+        for (int i = 0; i < HASHES; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bits;
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @param value a String, not null
+     * @return false if the String was certainly never added
+     */
+    public boolean mightContain(String value) {
+        int h1 = SymbolTable.mix(value.hashCode());
+        int h2 = secondHash(value);
+        for (int i = 0; i < HASHES; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bits;
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return bytes held by the bits
+     */
+    public long tableBytes() {
+        return 8L * words.length;
+    }
+
+    // FNV-1a over the chars, odd so every probe differs
+    private static int secondHash(String value) {
+        int h = 0x811C9DC5;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x01000193;
+        }
+        return h | 1;
+    }
+}
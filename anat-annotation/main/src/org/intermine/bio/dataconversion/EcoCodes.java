@@ -0,0 +1,114 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The GO evidence code of each ECO class, ex: IDA for ECO:0000314, for
+ * reading GPAD files, which give evidence as ECO classes where GAF files
+ * give codes.  Holds the default ECO class of each code and the automatic
+ * assertion classes read as IEA; read() adds or replaces entries from a GO
+ * gaf-eco-mapping file.
+ */
+public class EcoCodes
+{
+    private static final String[][] DEFAULTS = {
+        {"ECO:0000269", "EXP"}, {"ECO:0000314", "IDA"}, {"ECO:0000353", "IPI"},
+        {"ECO:0000315", "IMP"}, {"ECO:0000316", "IGI"}, {"ECO:0000270", "IEP"},
+        {"ECO:0006056", "HTP"}, {"ECO:0007005", "HDA"}, {"ECO:0007001", "HMP"},
+        {"ECO:0007003", "HGI"}, {"ECO:0007007", "HEP"}, {"ECO:0000318", "IBA"},
+        {"ECO:0000319", "IBD"}, {"ECO:0000320", "IKR"}, {"ECO:0000321", "IRD"},
+        {"ECO:0000250", "ISS"}, {"ECO:0000266", "ISO"}, {"ECO:0000247", "ISA"},
+        {"ECO:0000255", "ISM"}, {"ECO:0000317", "IGC"}, {"ECO:0000245", "RCA"},
+        {"ECO:0000304", "TAS"}, {"ECO:0000303", "NAS"}, {"ECO:0000305", "IC"},
+        {"ECO:0000307", "ND"}, {"ECO:0000501", "IEA"},
+        // used in automatic assertion
+        {"ECO:0000256", "IEA"}, {"ECO:0000265", "IEA"}, {"ECO:0000322", "IEA"},
+        {"ECO:0000323", "IEA"}, {"ECO:0000363", "IEA"}, {"ECO:0007669", "IEA"},
+    };
+
+    private final Map<String, String> codes = new HashMap<String, String>();
+
+    /**
+     * Constructor, with the default entries.
+     */
+    public EcoCodes() {
+        for (String[] entry : DEFAULTS) {
+            codes.put(entry[0], entry[1]);
+        }
+    }
+
+    /**
+     * Reads a mapping file.  Lines are tab separated code, reference and
+     * ECO class, as in GO's gaf-eco-mapping.txt, or ECO class, code and
+     * reference; lines starting with '#' are ignored.  A class's code on a
+     * line whose reference is "Default" replaces any other, a class's code
+     * on another line only applies if there is no other.
+     *
+     * @param reader the file
+     * @return number of classes whose code was set
+     * @throws IOException if the file can't be read or has a line without
+     * an ECO class
+     */
+    public int read(Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        Set<String> read = new HashSet<String>();
+        Set<String> defaults = new HashSet<String>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t");
+            if (fields.length < 3) {
+                throw new IOException("Bad ECO mapping line: " + line);
+            }
+            String eco;
+            String code;
+            String reference;
+            if (fields[0].startsWith("ECO:")) {
+                eco = fields[0];
+                code = fields[1];
+                reference = fields[2];
+            } else if (fields[2].startsWith("ECO:")) {
+                code = fields[0];
+                reference = fields[1];
+                eco = fields[2];
+            } else {
+                throw new IOException("No ECO class in mapping line: " + line);
+            }
+            boolean isDefault = "Default".equals(reference);
+            if (isDefault || (!defaults.contains(eco) && !read.contains(eco))) {
+                codes.put(eco, code);
+            }
+            read.add(eco);
+            if (isDefault) {
+                defaults.add(eco);
+            }
+        }
+        return read.size();
+    }
+
+    /**
+     * @param eco an ECO class, ex: ECO:0000314
+     * @return its GO evidence code, null if it has none
+     */
+    public String getCode(String eco) {
+        return codes.get(eco);
+    }
+}
@@ -0,0 +1,282 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads tab separated lines, ex: a gene association file, into a reusable
+ * buffer and gives their columns as offsets into it, so a line costs no
+ * allocation until a column is asked for as a String.
+ *
+ * Lines end as for BufferedReader.readLine() and columns are as from
+ * line.split("\t", -1).  A column asked for as a String is the same String
+ * as last time if its text hasn't changed, so values repeated line after
+ * line, ex: the data source, evidence code or taxon, are made once.
+ */
+public class GafTokenizer
+{
+    private static final int INITIAL_BUFFER = 64 * 1024;
+    private static final int INITIAL_COLUMNS = 32;
+
+    private final Reader in;
+    private char[] buf = new char[INITIAL_BUFFER];
+    // unread text is buf[pos, limit)
+    private int pos = 0;
+    private int limit = 0;
+    private boolean eof = false;
+    // last line ended with \r, skip a \n that follows
+    private boolean skipLF = false;
+
+    // the current line is buf[lineStart, lineEnd)
+    private int lineStart = 0;
+    private int lineEnd = 0;
+    // tabs[i] is the offset in the line of the tab ending column i
+    private int[] tabs = new int[INITIAL_COLUMNS];
+    private int columns = 0;
+
+    // last String made of each column
+    private String[] last = new String[INITIAL_COLUMNS];
+    private String lastTaxonId = null;
+    private int lineNumber = 0;
+    // next() gives the current line again
+    private boolean repeat = false;
+
+    /**
+     * Constructor
+     *
+     * @param in lines to read, not buffered as this buffers itself
+     */
+    public GafTokenizer(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Moves to the next line.
+     *
+     * @return false at the end of the input
+     * @throws IOException if the input can't be read
+     */
+    public boolean next() throws IOException {
+        if (repeat) {
+            repeat = false;
+            return true;
+        }
+        columns = 0;
+        if (skipLF) {
+            if (pos == limit && !fill()) {
+                return false;
+            }
+            if (buf[pos] == '\n') {
+                pos++;
+            }
+            skipLF = false;
+        }
+        int tabCount = 0;
+        int i = pos;
+        while (true) {
+            if (i == limit) {
+                int offset = i - pos;
+                if (!fill()) {
+                    if (offset == 0) {
+                        return false;
+                    }
+                    // last line has no line end
+                    lineNumber++;
+                    lineStart = pos;
+                    lineEnd = limit;
+                    pos = limit;
+                    break;
+                }
+                i = pos + offset;
+                continue;
+            }
+            char c = buf[i];
+            if (c == '\n' || c == '\r') {
+                lineNumber++;
+                lineStart = pos;
+                lineEnd = i;
+                pos = i + 1;
+                skipLF = c == '\r';
+                break;
+            }
+            if (c == '\t') {
+                if (tabCount == tabs.length) {
+                    int[] grown = new int[tabs.length * 2];
+                    System.arraycopy(tabs, 0, grown, 0, tabs.length);
+                    tabs = grown;
+                }
+                tabs[tabCount++] = i - pos;
+            }
+            i++;
+        }
+        columns = tabCount + 1;
+        if (columns > last.length) {
+            String[] grown = new String[Math.max(columns, last.length * 2)];
+            System.arraycopy(last, 0, grown, 0, last.length);
+            last = grown;
+        }
+        return true;
+    }
+
+    /**
+     * Reads more input after the unread text, moving that to the start of
+     * the buffer or growing the buffer for a long line.
+     *
+     * @return false if there was no more input
+     */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        if (limit == buf.length) {
+            char[] grown = new char[buf.length * 2];
+            System.arraycopy(buf, 0, grown, 0, limit);
+            buf = grown;
+        }
+        int n = in.read(buf, limit, buf.length - limit);
+        while (n == 0) {
+            n = in.read(buf, limit, buf.length - limit);
+        }
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+
+    /**
+     * @return number of columns in the line, at least 1
+     */
+    public int columnCount() {
+        return columns;
+    }
+
+    /**
+     * @return length of the line, without its line end
+     */
+    public int lineLength() {
+        return lineEnd - lineStart;
+    }
+
+    /**
+     * @return true if the line starts with '!'
+     */
+    public boolean isComment() {
+        return lineEnd > lineStart && buf[lineStart] == '!';
+    }
+
+    /**
+     * Makes the next call to next() give the current line again, ex: after
+     * looking at a header to decide how to read the file.
+     */
+    public void unread() {
+        if (columns == 0) {
+            throw new IllegalStateException("No line to unread");
+        }
+        repeat = true;
+    }
+
+    /**
+     * @return number of the current line, from 1
+     */
+    public int lineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return the line as a String, ex: for an error message
+     */
+    public String line() {
+        return new String(buf, lineStart, lineEnd - lineStart);
+    }
+
+    private int start(int column) {
+        if (column < 0 || column >= columns) {
+            throw new IndexOutOfBoundsException("Column " + column + " of a line with "
+                    + columns + " columns");
+        }
+        return column == 0 ? lineStart : lineStart + tabs[column - 1] + 1;
+    }
+
+    private int end(int column) {
+        return column == columns - 1 ? lineEnd : lineStart + tabs[column];
+    }
+
+    /**
+     * @param column column, from 0
+     * @return the column's text, the String given last time if that is the
+     * same
+     */
+    public String column(int column) {
+        int from = start(column);
+        int length = end(column) - from;
+        if (length == 0) {
+            return "";
+        }
+        String previous = last[column];
+        if (previous != null && matches(previous, from, length)) {
+            return previous;
+        }
+        String value = new String(buf, from, length);
+        last[column] = value;
+        return value;
+    }
+
+    /**
+     * Reads the first taxon of a taxon column, ex: 7227 from "taxon:7227" or
+     * "taxon:7227|taxon:9606".
+     *
+     * @param column column, from 0
+     * @return the taxon id, the String given last time if that is the same
+     */
+    public String taxonId(int column) {
+        int from = start(column);
+        int to = end(column);
+        int colon = from;
+        while (colon < to && buf[colon] != ':') {
+            colon++;
+        }
+        if (colon + 1 >= to) {
+            throw new IllegalArgumentException("Invalid taxon id read: "
+                    + new String(buf, from, to - from));
+        }
+        int idEnd = colon + 1;
+        while (idEnd < to && buf[idEnd] != ':' && buf[idEnd] != '|') {
+            idEnd++;
+        }
+        int length = idEnd - colon - 1;
+        if (lastTaxonId != null && matches(lastTaxonId, colon + 1, length)) {
+            return lastTaxonId;
+        }
+        lastTaxonId = new String(buf, colon + 1, length);
+        return lastTaxonId;
+    }
+
+    private boolean matches(String value, int from, int length) {
+        if (value.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buf[from + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -10,19 +10,29 @@ package org.intermine.bio.dataconversion;
  *
  */
 
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -37,7 +47,8 @@ import org.intermine.xml.full.Item;
 import org.intermine.xml.full.ReferenceList;
 
 /**
- * DataConverter to parse a go annotation file into Items.
+ * DataConverter to parse a go annotation file into Items.  Reads GAF files,
+ * or GPAD 2.0 files with the GPI 2.0 files of their products.
  * *
  * @author Andrew Varley
  * @author Peter Mclaren - some additions to record the parents of a go term.
@@ -51,34 +62,116 @@ public class GoConverter extends BioFileConverter
     // configuration maps
     private Map<String, Config> configs = new HashMap<String, Config>();
     private static final Map<String, String> WITH_TYPES = new LinkedHashMap<String, String>();
+    private static final Pattern WITH_SEPARATORS = Pattern.compile("[; |,]");
 
     // maps retained across all files
-    protected Map<String, String> goTerms = new LinkedHashMap<String, String>();
     private Map<String, String> evidenceCodes = new LinkedHashMap<String, String>();
     private Map<String, String> dataSets = new LinkedHashMap<String, String>();
-    private Map<String, String> publications = new LinkedHashMap<String, String>();
     private Map<String, Item> organisms = new LinkedHashMap<String, Item>();
-    protected Map<String, String> productMap = new LinkedHashMap<String, String>();
-    private Set<String> dbRefs = new HashSet<String>();
+    // and those that grow with the files, kept in bounded heap
+    private static final int DICTIONARY_EXPECTED_ENTRIES = 1 << 20;
+    private int dictionaryHeapEntries = 0;
+    private String dictionaryDir = null;
+    protected StringDictionary goTerms;
+    private StringDictionary publications;
+    // product item identifiers by identifier, type and, for some, organism
+    protected StringDictionary productMap;
+    // DatabaseReference identifiers by cross reference, ex: FB:FBrf0055969
+    private StringDictionary dbRefs;
+    // what was made of repeated column values, ex: GO_REF references or with partners
+    private static final int DEFAULT_PARSE_CACHE_SIZE = 10000;
+    private LruCache<String, String> publicationsByReferences
+        = new LruCache<String, String>(DEFAULT_PARSE_CACHE_SIZE);
+    private LruCache<String, List<String>> withObjectsByText
+        = new LruCache<String, List<String>>(DEFAULT_PARSE_CACHE_SIZE);
+    // products of GPAD files, from gpi.file and GPI files among the input
+    private GpiEntities gpiEntities = new GpiEntities();
+    private String gpiFile = null;
+    private boolean gpiFileRead = false;
+    private boolean gpadFileRead = false;
+    private EcoCodes ecoCodes = new EcoCodes();
+    // GAF qualifier of each GPAD relation, others have none
+    private static final Map<String, String> RELATION_QUALIFIERS = new HashMap<String, String>();
+    // DB and ID of the last GPAD entity
+    private String gpadEntity = null;
+    private String gpadDataSource;
+    private String gpadLocalId;
     @SuppressWarnings("unused")
     private Map<String, String> databaseAbbreviations = new HashMap<String, String>();
 
     // maps renewed for each file
-    private Map<GoTermToGene, Set<Evidence>> goTermGeneToEvidence
-        = new LinkedHashMap<GoTermToGene, Set<Evidence>>();
+    // evidence by product, GO term, qualifier and with symbols, in the order first seen
+    private SymbolTable annotationSymbols = new SymbolTable();
+    private IntTupleMap<List<Evidence>> goTermGeneToEvidence = new IntTupleMap<List<Evidence>>();
+    // evidence of annotations with more than one code, by annotation entry and code symbol
+    private IntTupleMap<Evidence> evidenceByCode = new IntTupleMap<Evidence>();
+    // with sorted.input, stored annotations without with text by the same symbols, for the
+    // lines of a product that turns up again after its block
+    private IntTupleMap<Integer> storedAnnotations = new IntTupleMap<Integer>();
+    // GOEvidence of those annotations by annotation id, stored at the end of the file as the
+    // later lines may add to it
+    private Map<Integer, List<String>> evidenceCollectionsMap =
+        new LinkedHashMap<Integer, List<String>>();
     private Map<Integer, List<String>> productCollectionsMap;
     private Map<String, Integer> storedProductIds;
+    // productMap's entries used in this file, by accession, type and organism symbols
+    private SymbolTable productSymbols = new SymbolTable();
+    private IntTupleMap<String> fileProducts = new IntTupleMap<String>();
+    // GOEvidence stored with sorted.input whose with objects are made at the end of the file
+    private List<DeferredWith> deferredWith = new ArrayList<DeferredWith>();
+
+    // start and end in the references column of each cross reference on a line
+    private int[] xrefBounds = new int[16];
 
     // These should be altered for different ontologies:
     protected String termClassName = "GOTerm";
     protected String termCollectionName = "goAnnotation";
     protected String annotationClassName = "GOAnnotation";
     private String gaff = "2.0";
+    // store each product's evidence when the next product starts
+    private boolean sortedInput = false;
+    private int threads = 1;
+    // shards of the file being read in batches, for the held annotations gauge
+    private volatile Shard[] activeShards = null;
+    // publications of one evidence searched before they are indexed
+    private static final int INDEXED_PUBLICATIONS = 8;
+    // lines read at a time with more than one thread, fewer in tests
+    private static final int BATCH_LINES = 8192;
+    int batchLines = BATCH_LINES;
     private static final String DEFAULT_ANNOTATION_TYPE = "gene";
     private static final String DEFAULT_IDENTIFIER_FIELD = "primaryIdentifier";
     protected IdResolver rslv;
+    // what rslv gave for each (taxon, identifier), saved to resolver.cache.file if set
+    private IdResolverCache resolverCache = null;
+    // problems counted by taxon and reason, reported for each file
+    private static final int DIAGNOSTIC_EXAMPLES = 5;
+    private LoadDiagnostics diagnostics = new LoadDiagnostics(DIAGNOSTIC_EXAMPLES);
+    private String resolverCacheFile = null;
     private static Config defaultConfig = null;
 
+    private enum Format { GAF, GPAD, GPI }
+
+    // stages allocation is accounted to when allocation.report.interval is set
+    private enum Stage { READING, PARSE, RESOLVE, EVIDENCE, FLUSH }
+    private StageAllocations<Stage> allocations = null;
+
+    // input read so far, reported every progress.interval seconds
+    private LoadProgress progress = new LoadProgress(300 * 1000);
+    private boolean progressSized = false;
+
+    // set when metrics.file is set
+    private static final String METRICS_SOURCE = "go-annotation";
+    private String metricsFile = null;
+    private long metricsInterval = 60;
+    private LoadMetrics metrics = null;
+    private LoadMetrics.Counter linesMetric;
+    private LoadMetrics.Histogram parseSeconds;
+    private LoadMetrics.Histogram resolveSeconds;
+    private LoadMetrics.Histogram evidenceSeconds;
+    private LoadMetrics.Histogram flushSeconds;
+    private Map<String, LoadMetrics.Counter> storedMetrics
+        = new ConcurrentHashMap<String, LoadMetrics.Counter>();
+
     private static final Logger LOG = Logger.getLogger(GoConverter.class);
 
     /**
@@ -93,6 +186,21 @@ public class GoConverter extends BioFileConverter
         defaultConfig = new Config(DEFAULT_IDENTIFIER_FIELD, DEFAULT_IDENTIFIER_FIELD,
                 DEFAULT_ANNOTATION_TYPE);
         readConfig();
+        newDictionaries();
+    }
+
+    private void newDictionaries() {
+        File dir = null;
+        if (dictionaryHeapEntries > 0) {
+            dir = new File(dictionaryDir == null ? System.getProperty("java.io.tmpdir")
+                    : dictionaryDir);
+        }
+        goTerms = new StringDictionary(dictionaryHeapEntries, dir, DICTIONARY_EXPECTED_ENTRIES);
+        publications = new StringDictionary(dictionaryHeapEntries, dir,
+                DICTIONARY_EXPECTED_ENTRIES);
+        productMap = new StringDictionary(dictionaryHeapEntries, dir,
+                DICTIONARY_EXPECTED_ENTRIES);
+        dbRefs = new StringDictionary(dictionaryHeapEntries, dir, DICTIONARY_EXPECTED_ENTRIES);
     }
 
     /**
@@ -105,9 +213,403 @@ public class GoConverter extends BioFileConverter
     }
 
 
+    /**
+     * Accounts the bytes allocated while reading lines, parsing them,
+     * resolving products, building evidence and storing it, and logs them
+     * with the size of the maps kept between lines every this many seconds
+     * and at the end of each file.
+     *
+     * @param seconds report interval, 0 for no accounting
+     */
+    public void setAllocationReportInterval(String seconds) {
+        long interval = Long.parseLong(seconds.trim());
+        if (interval <= 0) {
+            allocations = null;
+            return;
+        }
+        allocations = new StageAllocations<Stage>(Stage.class, interval * 1000);
+        // per entry estimates: the tables plus, for evidence, Evidence
+        // objects and their lists and, for products, the identifier String
+        allocations.watch("goTermGeneToEvidence", new StageAllocations.Size() {
+            public long entries() {
+                return goTermGeneToEvidence.size();
+            }
+            public long estimatedBytes() {
+                return goTermGeneToEvidence.tableBytes() + evidenceByCode.tableBytes()
+                        + storedAnnotations.tableBytes() + 200L * goTermGeneToEvidence.size()
+                        + 100L * evidenceCollectionsMap.size();
+            }
+        });
+        // dictionaries count the keys on the heap, not those in their files
+        allocations.watch("productMap", new StageAllocations.Size() {
+            public long entries() {
+                return productMap.size() - productMap.overflowSize() + fileProducts.size();
+            }
+            public long estimatedBytes() {
+                return productMap.tableBytes() + fileProducts.tableBytes()
+                        + productSymbols.tableBytes() + 120L * entries();
+            }
+        });
+        // symbols are held once, ex: a product id on many lines
+        allocations.watch("symbols", new StageAllocations.Size() {
+            public long entries() {
+                return annotationSymbols.size();
+            }
+            public long estimatedBytes() {
+                return annotationSymbols.tableBytes() + 60L * entries();
+            }
+        });
+        allocations.watch("publications", new StageAllocations.Size() {
+            public long entries() {
+                return publications.size() - publications.overflowSize();
+            }
+            public long estimatedBytes() {
+                return publications.tableBytes() + 100L * entries();
+            }
+        });
+        allocations.watch("goTermsAndDbRefs", new StageAllocations.Size() {
+            public long entries() {
+                return goTerms.size() - goTerms.overflowSize() + dbRefs.size()
+                        - dbRefs.overflowSize();
+            }
+            public long estimatedBytes() {
+                return goTerms.tableBytes() + dbRefs.tableBytes() + 80L * entries();
+            }
+        });
+        allocations.watch("parseCaches", new StageAllocations.Size() {
+            public long entries() {
+                return publicationsByReferences.size() + withObjectsByText.size();
+            }
+            public long estimatedBytes() {
+                return 200L * entries();
+            }
+        });
+        allocations.watch("resolverCache", new StageAllocations.Size() {
+            public long entries() {
+                return resolverCache == null ? 0 : resolverCache.size();
+            }
+            public long estimatedBytes() {
+                return 150L * entries();
+            }
+        });
+    }
+
+    /**
+     * Set if the annotation files are grouped by product, as most providers'
+     * are.  Each product's annotations get their evidence stored as soon as
+     * the next product starts, so the evidence held is one product's rather
+     * than a whole file's, with only the evidence identifiers of annotations
+     * without with text kept to the end of the file.  If a product turns up again after its block a
+     * warning is logged and the rest of the file's evidence is held until its
+     * end, as without sorted.input.  The later lines join the product's stored
+     * annotations, as evidence of their own rather than merged with the stored
+     * evidence of the same code.
+     *
+     * @param sortedInput "true" if files are grouped by product
+     */
+    public void setSortedInput(String sortedInput) {
+        this.sortedInput = Boolean.parseBoolean(sortedInput.trim());
+    }
+
+    /**
+     * Converts each file on this many threads.  Lines are read in batches
+     * and each thread resolves the products of, and holds the evidence
+     * for, its share of the product identifiers, while items are created
+     * in the order the lines were read.  The items are those of a single
+     * thread apart from their identifiers.  sorted.input is ignored.
+     *
+     * @param threads number of threads, defaults to 1
+     */
+    public void setThreads(String threads) {
+        this.threads = Integer.parseInt(threads.trim());
+        if (this.threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, was: " + threads);
+        }
+    }
+
+    /**
+     * Remembers the publication made of this many distinct reference
+     * columns, and the with objects of this many with columns, so values
+     * repeated across lines, ex: GO_REF references, are only parsed once.
+     * The least recently used are forgotten first.
+     *
+     * @param size entries held by each cache, defaults to 10000, 0 for none
+     */
+    public void setParseCacheSize(String size) {
+        int entries = Integer.parseInt(size.trim());
+        if (entries < 0) {
+            throw new IllegalArgumentException("parse.cache.size must not be negative, was: "
+                    + size);
+        }
+        publicationsByReferences = new LruCache<String, String>(entries);
+        withObjectsByText = new LruCache<String, List<String>>(entries);
+    }
+
+    /**
+     * Holds at most this many entries of each dictionary kept across files,
+     * ex: the items made for publications, products and terms, on the heap
+     * and puts the rest in memory mapped files in dictionary.dir, so heap
+     * use stays flat however many organisms are loaded.
+     *
+     * @param entries entries of each dictionary on the heap, all if not set
+     */
+    public void setDictionaryHeapEntries(String entries) {
+        dictionaryHeapEntries = Integer.parseInt(entries.trim());
+        if (dictionaryHeapEntries < 1) {
+            throw new IllegalArgumentException("dictionary.heap.entries must be at least 1, was: "
+                    + entries);
+        }
+        newDictionaries();
+    }
+
+    /**
+     * @param dir directory for the dictionary files of
+     * dictionary.heap.entries, defaults to java.io.tmpdir
+     */
+    public void setDictionaryDir(String dir) {
+        dictionaryDir = dir;
+        newDictionaries();
+    }
+
+    /**
+     * Reads the products of GPAD files from this GPI 2.0 file before the
+     * first GPAD file.  GPI files among the files converted are read too,
+     * but must come before every GPAD file, which they won't if the files
+     * are named alike, ex: x.gpad sorts before x.gpi.  A GPAD file with no
+     * GPI entities read, or a GPI file after a GPAD file, fails the
+     * conversion rather than drop the GPAD lines of products not yet read.
+     *
+     * @param gpiFile path of the file
+     */
+    public void setGpiFile(String gpiFile) {
+        this.gpiFile = gpiFile;
+    }
+
+    /**
+     * Reads the evidence code of ECO classes in GPAD files from this file,
+     * in the format of GO's gaf-eco-mapping.txt, over the default ECO class
+     * of each code held without one.
+     *
+     * @param ecoMappingFile path of the file
+     */
+    public void setEcoMappingFile(String ecoMappingFile) {
+        try {
+            Reader in = new InputStreamReader(new FileInputStream(ecoMappingFile), "UTF-8");
+            try {
+                LOG.info("Read " + ecoCodes.read(in) + " ECO classes from " + ecoMappingFile);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Problem reading eco.mapping.file " + ecoMappingFile, e);
+        }
+    }
+
+    /**
+     * Keeps what the id resolver gave for each gene identifier in this file
+     * between runs.  Loads naming the same file, ex: GO and anatomy
+     * annotation, share their lookups.  A taxon's lookups are dropped when
+     * the resolver's data for it has changed.
+     *
+     * @param resolverCacheFile path of the file
+     */
+    public void setResolverCacheFile(String resolverCacheFile) {
+        this.resolverCacheFile = resolverCacheFile;
+    }
+
+    /**
+     * Emits Java Flight Recorder events for each line parsed, product
+     * resolved and batch of evidence stored, so slow lines show up in a
+     * recording.  Costs nothing unless set.
+     *
+     * @param jfrEvents "true" to emit events
+     */
+    public void setJfrEvents(String jfrEvents) {
+        if (Boolean.parseBoolean(jfrEvents.trim()) && !LoadEvents.enable()) {
+            LOG.warn("jfr.events set but this JVM has no Flight Recorder, no events");
+        }
+    }
+
+    /**
+     * Writes annotation lines read, items stored by class, gene resolver
+     * results and stage latencies in the Prometheus text format to this
+     * file, for node_exporter's textfile collector.  The file is rewritten
+     * every metrics.interval seconds and when the converter is closed.
+     *
+     * @param metricsFile path of the file
+     */
+    public void setMetricsFile(String metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    /**
+     * @param seconds seconds between writes of metrics.file, defaults to 60
+     */
+    public void setMetricsInterval(String seconds) {
+        metricsInterval = Long.parseLong(seconds.trim());
+        if (metricsInterval < 1) {
+            throw new IllegalArgumentException("metrics.interval must be at least 1, was: "
+                    + seconds);
+        }
+    }
+
+    /**
+     * Every this many seconds logs how much of the annotation files has been
+     * read, lines and lines per second since the last report, and an ETA at
+     * that rate.
+     *
+     * @param seconds seconds between reports, defaults to 300, 0 for none
+     */
+    public void setProgressInterval(String seconds) {
+        progress = new LoadProgress(Long.parseLong(seconds.trim()) * 1000);
+    }
+
+    /**
+     * Sizes the input as the files in the current file's directory, which
+     * are each handed to process() in turn.
+     */
+    private void sizeProgress() {
+        if (progressSized || getCurrentFile() == null) {
+            return;
+        }
+        File[] files = getCurrentFile().getParentFile().listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            if (file.isFile() && !file.isHidden()) {
+                progress.addTotalBytes(file.length());
+            }
+        }
+        progressSized = true;
+    }
+
+    private void openMetrics() {
+        if (metricsFile == null || metrics != null) {
+            return;
+        }
+        metrics = LoadMetrics.open(metricsFile, metricsInterval);
+        progress.watch(metrics, METRICS_SOURCE);
+        linesMetric = metrics.counter("intermine_load_records_total", "Records read",
+                "source", METRICS_SOURCE, "class", annotationClassName);
+        String help = "Time taken by each stage, per record or per flush";
+        parseSeconds = metrics.histogram("intermine_load_stage_seconds", help,
+                "source", METRICS_SOURCE, "stage", "parse");
+        resolveSeconds = metrics.histogram("intermine_load_stage_seconds", help,
+                "source", METRICS_SOURCE, "stage", "resolve");
+        evidenceSeconds = metrics.histogram("intermine_load_stage_seconds", help,
+                "source", METRICS_SOURCE, "stage", "evidence");
+        flushSeconds = metrics.histogram("intermine_load_stage_seconds", help,
+                "source", METRICS_SOURCE, "stage", "flush");
+        metrics.counter("intermine_load_resolver_cache_total", "Id resolver cache lookups",
+            new LoadMetrics.Value() {
+                public double get() {
+                    return resolverCache == null ? 0 : resolverCache.getHits();
+                }
+            }, "source", METRICS_SOURCE, "result", "hit");
+        metrics.counter("intermine_load_resolver_cache_total", "Id resolver cache lookups",
+            new LoadMetrics.Value() {
+                public double get() {
+                    return resolverCache == null ? 0 : resolverCache.getMisses();
+                }
+            }, "source", METRICS_SOURCE, "result", "miss");
+        metrics.gauge("intermine_load_held_annotations",
+            "GO annotations whose evidence is held until it is stored",
+            new LoadMetrics.Value() {
+                public double get() {
+                    long held = goTermGeneToEvidence.size();
+                    Shard[] shards = activeShards;
+                    if (shards != null) {
+                        for (Shard shard : shards) {
+                            held += shard.evidence.size();
+                        }
+                    }
+                    return held;
+                }
+            }, "source", METRICS_SOURCE);
+    }
+
+    private long metricsStart() {
+        return metrics == null ? 0 : System.nanoTime();
+    }
+
+    private void metricsEnd(LoadMetrics.Histogram histogram, long start) {
+        if (metrics != null) {
+            histogram.observeSince(start);
+        }
+    }
+
+    /**
+     * Counts the gene resolver's answer to a lookup.
+     *
+     * @param resolutions number of identifiers the resolver gave
+     */
+    private void countResolution(int resolutions) {
+        if (metrics != null) {
+            String result = resolutions == 1 ? "resolved"
+                    : (resolutions == 0 ? "unresolved" : "ambiguous");
+            metrics.counter("intermine_load_resolver_lookups_total", "Id resolver lookups",
+                    "source", METRICS_SOURCE, "result", result).inc();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Integer store(Item item) throws ObjectStoreException {
+        if (metrics != null) {
+            LoadMetrics.Counter stored = storedMetrics.get(item.getClassName());
+            if (stored == null) {
+                stored = metrics.counter("intermine_load_items_stored_total", "Items stored",
+                        "source", METRICS_SOURCE, "class", item.getClassName());
+                storedMetrics.put(item.getClassName(), stored);
+            }
+            stored.inc();
+        }
+        return super.store(item);
+    }
+
+    /**
+     * Saves the id resolver cache and writes the metrics file a last time.
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws Exception {
+        super.close();
+        LOG.info("Parse caches: references " + publicationsByReferences.getHits() + " hits, "
+                + publicationsByReferences.getMisses() + " misses; with "
+                + withObjectsByText.getHits() + " hits, " + withObjectsByText.getMisses()
+                + " misses");
+        if (resolverCache != null) {
+            LOG.info(resolverCache.report());
+            resolverCache.save();
+        }
+        if (metrics != null) {
+            metrics.close();
+            metrics = null;
+        }
+        goTerms.close();
+        publications.close();
+        productMap.close();
+        dbRefs.close();
+    }
+
+    private long allocStart() {
+        return allocations == null ? 0 : allocations.start();
+    }
+
+    private void allocEnd(Stage stage, long allocStart) {
+        if (allocations != null) {
+            allocations.end(stage, allocStart);
+        }
+    }
+
     static {
         WITH_TYPES.put("FB", "Gene");
         WITH_TYPES.put("UniProt", "Protein");
+
+        RELATION_QUALIFIERS.put("RO:0002326", "contributes_to");
+        RELATION_QUALIFIERS.put("contributes_to", "contributes_to");
+        RELATION_QUALIFIERS.put("RO:0002325", "colocalizes_with");
+        RELATION_QUALIFIERS.put("colocalizes_with", "colocalizes_with");
     }
 
     // read config file that has specific settings for each organism, key is taxon id
@@ -169,41 +671,73 @@ public class GoConverter extends BioFileConverter
         if (rslv == null) {
             rslv = IdResolverService.getIdResolverForMOD();
         }
+        if (rslv != null) {
+            resolverCache();
+        }
 
         initialiseMapsForFile();
-
-        BufferedReader br = new BufferedReader(reader);
-        String line = null;
-
-        // loop through entire file
-        while ((line = br.readLine()) != null) {
-            if (line.startsWith("!")) {
-                continue;
+        openMetrics();
+        sizeProgress();
+
+        // columns are read in place, Strings are only made of those kept
+        GafTokenizer line = new GafTokenizer(progress.count(reader));
+        Format format = readFormat(line);
+        if (format == Format.GPI) {
+            if (gpadFileRead) {
+                // lines of the GPAD files before were dropped if their entity is in this one
+                throw new IllegalArgumentException("GPI file "
+                        + (getCurrentFile() == null ? "" : getCurrentFile() + " ")
+                        + "comes after a GPAD file, set gpi.file to read products first");
             }
-            String[] array = line.split("\t", -1); // keep trailing empty Strings
-            if (array.length < 13) {
-                throw new IllegalArgumentException("Not enough elements (should be > 13 not "
-                        + array.length + ") in line: " + line);
+            readGpi(line);
+            return;
+        }
+        if (format == Format.GPAD) {
+            if (gpiFile != null && !gpiFileRead) {
+                readGpiFile();
             }
-
-            String taxonId = parseTaxonId(array[12]);
-            Config config = configs.get(taxonId);
-            if (config == null) {
-                config = defaultConfig;
-                LOG.warn("No entry for organism with taxonId = '"
-                        + taxonId + "' found in go-annotation config file.  Using default");
+            if (gpiEntities.size() == 0) {
+                throw new IllegalArgumentException("GPAD file "
+                        + (getCurrentFile() == null ? "" : getCurrentFile() + " ")
+                        + "has no GPI entities to be read against, set gpi.file or put the"
+                        + " GPI files before the GPAD files");
             }
+            gpadFileRead = true;
+            storeFile(processInBatches(line, true));
+            return;
+        }
+        if (threads > 1) {
+            storeFile(processInBatches(line, false));
+            return;
+        }
+        // with sorted.input, products whose evidence has been stored
+        boolean streaming = sortedInput;
+        BitSet storedBlocks = new BitSet();
+        int blockProduct = -1;
 
-            int readColumn = config.readColumn();
-            String productId = array[readColumn];
+        // loop through entire file
+        while (nextAnnotation(line)) {
+            Object parsedEvent = LoadEvents.beginRecordParsed();
+            long metricsStart = metricsStart();
+            long allocStart = allocStart();
+            checkColumns(line);
+            String taxonId = line.taxonId(12);
+            Config config = getConfig(taxonId);
 
-            String goId = array[4];
-            String qualifier = array[3];
-            String strEvidence = array[6];
-            String withText = array[7];
+            int readColumn = config.readColumn();
+            String productId = line.column(readColumn);
+            allocEnd(Stage.PARSE, allocStart);
+            LoadEvents.recordParsed(parsedEvent, annotationClassName, productId, line.lineLength(),
+                    line.lineNumber());
+            metricsEnd(parseSeconds, metricsStart);
+
+            String goId = line.column(4);
+            String qualifier = line.column(3);
+            String strEvidence = line.column(6);
+            String withText = line.column(7);
             String annotationExtension = null;
-            if (array.length >= 16) {
-                annotationExtension = array[15];
+            if (line.columnCount() >= 16) {
+                annotationExtension = line.column(15);
             }
             if (StringUtils.isNotEmpty(strEvidence)) {
                 storeEvidenceCode(strEvidence);
@@ -215,85 +749,624 @@ public class GoConverter extends BioFileConverter
             String type = config.annotationType;
             if ("1.0".equals(gaff)) {
                 // type of gene product
-                type = array[11];
+                type = line.column(11);
             }
 
-            // create unique key for go annotation
-            GoTermToGene key = new GoTermToGene(productId, goId, qualifier, withText);
+            // unique key for go annotation
+            int productSymbol = annotationSymbols.intern(productId);
+            int goSymbol = annotationSymbols.intern(goId);
+            int qualifierSymbol = annotationSymbols.intern(qualifier);
+            int withSymbol = annotationSymbols.intern(withText);
+
+            if (streaming && productSymbol != blockProduct) {
+                if (blockProduct >= 0) {
+                    flushEvidence();
+                    storedBlocks.set(blockProduct);
+                }
+                if (storedBlocks.get(productSymbol)) {
+                    LOG.warn("sorted.input is set but " + productId + " at line "
+                            + line.lineNumber()
+                            + (getCurrentFile() == null ? "" : " of " + getCurrentFile())
+                            + " follows other products, the rest of the file's evidence is"
+                            + " held until its end");
+                    streaming = false;
+                }
+                blockProduct = productSymbol;
+            }
 
-            String dataSourceCode = array[14]; // e.g. GDB, where uniprot collect the data from
-            String dataSource = array[0]; // e.g. UniProtKB, where the goa file comes from
+            String dataSourceCode = line.column(14); // e.g. GDB, where uniprot collect the data from
+            String dataSource = line.column(0); // e.g. UniProtKB, where the goa file comes from
+            Object resolvedEvent = LoadEvents.beginReferenceResolved();
+            metricsStart = metricsStart();
+            allocStart = allocStart();
             Item organism = newOrganism(taxonId);
             String productIdentifier = newProduct(productId, type, organism,
                     dataSource, dataSourceCode, true, null);
+            allocEnd(Stage.RESOLVE, allocStart);
+            LoadEvents.referenceResolved(resolvedEvent, type, productId);
+            metricsEnd(resolveSeconds, metricsStart);
+            metricsStart = metricsStart();
+            allocStart = allocStart();
 
             // null if resolver could not resolve an identifier
             if (productIdentifier != null) {
 
                 // null if no pub found
-                String pubRefId = newPublication(array[5]);
+                String pubRefId = getPublication(line.column(5));
 
                 // get evidence codes for this goterm|gene pair
-                Set<Evidence> allEvidenceForAnnotation = goTermGeneToEvidence.get(key);
+                int entry = goTermGeneToEvidence.find(productSymbol, goSymbol, qualifierSymbol,
+                        withSymbol);
+                List<Evidence> allEvidenceForAnnotation = entry < 0 ? null
+                        : goTermGeneToEvidence.value(entry);
+
+                Integer storedAnnotationId = null;
+                if (allEvidenceForAnnotation == null && sortedInput && !streaming
+                        && StringUtils.isEmpty(withText)) {
+                    // the annotation may have been stored with its product's block
+                    storedAnnotationId = storedAnnotations.get(productSymbol, goSymbol,
+                            qualifierSymbol, withSymbol);
+                }
 
-                // new evidence
-                if (allEvidenceForAnnotation == null || !StringUtils.isEmpty(withText)) {
+                if (storedAnnotationId != null) {
+                    // further evidence for a stored annotation
+                    Evidence evidence = new Evidence(strEvidence, pubRefId, withText, organism,
+                            dataSource, dataSourceCode);
+                    evidence.setStoredAnnotationId(storedAnnotationId);
+                    allEvidenceForAnnotation = new ArrayList<Evidence>(1);
+                    allEvidenceForAnnotation.add(evidence);
+                    goTermGeneToEvidence.put(productSymbol, goSymbol, qualifierSymbol, withSymbol,
+                            allEvidenceForAnnotation);
+                } else if (allEvidenceForAnnotation == null || !StringUtils.isEmpty(withText)) {
+                    // new evidence
                     String goTermIdentifier = newGoTerm(goId, dataSource, dataSourceCode);
                     Evidence evidence = new Evidence(strEvidence, pubRefId, withText, organism,
                             dataSource, dataSourceCode);
-                    allEvidenceForAnnotation = new LinkedHashSet<Evidence>();
+                    allEvidenceForAnnotation = new ArrayList<Evidence>(1);
                     allEvidenceForAnnotation.add(evidence);
-                    goTermGeneToEvidence.put(key, allEvidenceForAnnotation);
-                    Integer storedAnnotationId = createGoAnnotation(productIdentifier, type,
+                    goTermGeneToEvidence.put(productSymbol, goSymbol, qualifierSymbol, withSymbol,
+                            allEvidenceForAnnotation);
+                    storedAnnotationId = createGoAnnotation(productIdentifier, type,
                             goTermIdentifier, organism, qualifier, dataSource, dataSourceCode,
                             annotationExtension);
                     evidence.setStoredAnnotationId(storedAnnotationId);
+                    if (streaming && StringUtils.isEmpty(withText)) {
+                        storedAnnotations.put(productSymbol, goSymbol, qualifierSymbol,
+                                withSymbol, storedAnnotationId);
+                    }
                 } else {
-                    boolean seenEvidenceCode = false;
-                    Integer storedAnnotationId = null;
-
-                    for (Evidence evidence : allEvidenceForAnnotation) {
-                        String evidenceCode = evidence.getEvidenceCode();
-                        storedAnnotationId = evidence.storedAnnotationId;
+                    Evidence evidence = findEvidence(allEvidenceForAnnotation, entry,
+                            strEvidence, annotationSymbols, evidenceByCode);
+                    if (evidence != null) {
                         // already have evidence code, just add pub
-                        if (evidenceCode.equals(strEvidence)) {
-                            evidence.addPublicationRefId(pubRefId);
-                            seenEvidenceCode = true;
-                        }
-                    }
-                    if (!seenEvidenceCode) {
-                        Evidence evidence = new Evidence(strEvidence, pubRefId, withText, organism,
+                        evidence.addPublicationRefId(pubRefId);
+                    } else {
+                        evidence = new Evidence(strEvidence, pubRefId, withText, organism,
                                 dataSource, dataSourceCode);
-                        evidence.storedAnnotationId = storedAnnotationId;
-                        allEvidenceForAnnotation.add(evidence);
+                        evidence.storedAnnotationId =
+                            allEvidenceForAnnotation.get(0).storedAnnotationId;
+                        addEvidence(allEvidenceForAnnotation, entry, evidence, annotationSymbols,
+                                evidenceByCode);
                     }
                 }
             }
+            allocEnd(Stage.EVIDENCE, allocStart);
+            metricsEnd(evidenceSeconds, metricsStart);
+        }
+        storeFile(goTermGeneToEvidence.values());
+    }
+
+    /**
+     * Stores what is held for the file once it has all been read.
+     *
+     * @param annotations evidence of each annotation, in the order the
+     * annotations were read
+     */
+    private void storeFile(List<List<Evidence>> annotations) throws ObjectStoreException {
+        LOG.info(progress.report());
+        if (allocations != null) {
+            // maps renewed for each file peak here
+            LOG.info("Allocation by stage before storing evidence:\n" + allocations.report());
         }
+        long allocStart = allocStart();
+        long metricsStart = metricsStart();
         storeProductCollections();
-        storeEvidence();
+        storeDeferredWith();
+        storeEvidence(annotations, false);
+        storeEvidenceCollections();
+        metricsEnd(flushSeconds, metricsStart);
+        allocEnd(Stage.FLUSH, allocStart);
+        if (allocations != null) {
+            LOG.info("Allocation by stage after storing evidence:\n" + allocations.report());
+        }
+        if (!diagnostics.isEmpty()) {
+            LOG.warn(diagnostics.report("Lines with problems"
+                    + (getCurrentFile() == null ? "" : " in " + getCurrentFile()) + ":"));
+            diagnostics.clear();
+        }
+    }
+
+    /**
+     * Moves to the next annotation line, past comments, counting the lines
+     * read.
+     *
+     * @return false at the end of the file
+     */
+    private boolean nextAnnotation(GafTokenizer line) throws IOException {
+        while (true) {
+            long allocStart = allocStart();
+            boolean read = line.next();
+            allocEnd(Stage.READING, allocStart);
+            if (!read) {
+                return false;
+            }
+            if (linesMetric != null) {
+                linesMetric.inc();
+            }
+            if (allocations != null && allocations.isReportDue()) {
+                LOG.info("Allocation by stage so far:\n" + allocations.report());
+            }
+            if (!line.isComment()) {
+                break;
+            }
+        }
+        progress.addRecord();
+        if (progress.isReportDue()) {
+            LOG.info(progress.report());
+        }
+        return true;
+    }
+
+    /**
+     * Reads what a file is from its header, ex: "!gpad-version: 2.0",
+     * leaving the first line to be read again.
+     */
+    private static Format readFormat(GafTokenizer line) throws IOException {
+        if (!line.next()) {
+            return Format.GAF;
+        }
+        Format format = Format.GAF;
+        if (line.isComment()) {
+            String header = line.line();
+            if (header.startsWith("!gpad-version:")) {
+                format = Format.GPAD;
+            } else if (header.startsWith("!gpi-version:")) {
+                format = Format.GPI;
+            }
+            if (format != Format.GAF
+                    && !header.substring(header.indexOf(':') + 1).trim().startsWith("2")) {
+                throw new IllegalArgumentException("Only version 2 GPAD and GPI files can be "
+                        + "read, not: " + header);
+            }
+        }
+        line.unread();
+        return format;
+    }
+
+    /**
+     * Adds the entities of a GPI file to those GPAD lines are read against.
+     */
+    private void readGpi(GafTokenizer line) throws IOException {
+        int before = gpiEntities.size();
+        while (line.next()) {
+            if (line.isComment()) {
+                continue;
+            }
+            if (line.columnCount() < 6) {
+                throw new IllegalArgumentException("Not enough elements (should be >= 6 not "
+                        + line.columnCount() + ") in GPI line: " + line.line());
+            }
+            gpiEntities.add(line.column(0), line.column(1), line.taxonId(5));
+        }
+        LOG.info("Read " + (gpiEntities.size() - before) + " GPI entities"
+                + (getCurrentFile() == null ? "" : " from " + getCurrentFile()));
+    }
+
+    private void readGpiFile() throws IOException {
+        gpiFileRead = true;
+        Reader in = new InputStreamReader(new FileInputStream(gpiFile), "UTF-8");
+        try {
+            GafTokenizer line = new GafTokenizer(in);
+            if (readFormat(line) != Format.GPI) {
+                throw new IllegalArgumentException("gpi.file " + gpiFile
+                        + " has no !gpi-version header");
+            }
+            readGpi(line);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void checkColumns(GafTokenizer line) {
+        if (line.columnCount() < 13) {
+            throw new IllegalArgumentException("Not enough elements (should be > 13 not "
+                    + line.columnCount() + ") in line: " + line.line());
+        }
+    }
+
+    private Config getConfig(String taxonId) {
+        Config config = configs.get(taxonId);
+        if (config == null) {
+            config = defaultConfig;
+            diagnostics.count(taxonId, "no go-annotation config, default used", null);
+        }
+        return config;
+    }
+
+    /**
+     * Reads a file in batches, with more than one thread if set, as GPAD
+     * files always are.  Each batch of lines is
+     * handed out by product identifier, so each thread holds all the
+     * evidence of its products, and while the threads resolve products and
+     * work out what each line adds to the evidence, the next batch is read.
+     * Items are then created for the batch in line order by this thread, so
+     * items made by the first line that needs them, ex: products, terms and
+     * publications, are as one thread would make them.
+     *
+     * @return evidence of each annotation, in the order the annotations
+     * were read
+     */
+    private List<List<Evidence>> processInBatches(GafTokenizer line, boolean gpad)
+        throws ObjectStoreException, IOException {
+        if (sortedInput) {
+            LOG.warn("sorted.input is ignored when threads is more than 1 or reading GPAD");
+        }
+        Shard[] shards = new Shard[threads];
+        activeShards = shards;
+        for (int i = 0; i < threads; i++) {
+            shards[i] = new Shard();
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<GafLine> batch = readBatch(line, gpad);
+            while (!batch.isEmpty()) {
+                for (GafLine gafLine : batch) {
+                    shards[gafLine.shard].lines.add(gafLine);
+                }
+                List<Future<Void>> results = new ArrayList<Future<Void>>();
+                for (final Shard shard : shards) {
+                    results.add(pool.submit(new Callable<Void>() {
+                        public Void call() {
+                            shard.addLines();
+                            return null;
+                        }
+                    }));
+                }
+                List<GafLine> nextBatch = readBatch(line, gpad);
+                for (Future<Void> result : results) {
+                    waitFor(result);
+                }
+                createItems(batch);
+                batch = nextBatch;
+            }
+        } finally {
+            pool.shutdownNow();
+            activeShards = null;
+        }
+
+        // the shards' annotations, each in read order, merged by first line
+        List<List<Evidence>> annotations = new ArrayList<List<Evidence>>();
+        int[] next = new int[threads];
+        while (true) {
+            int from = -1;
+            for (int i = 0; i < threads; i++) {
+                if (next[i] < shards[i].evidence.size() && (from < 0
+                        || shards[i].firstLines[next[i]] < shards[from].firstLines[next[from]])) {
+                    from = i;
+                }
+            }
+            if (from < 0) {
+                break;
+            }
+            annotations.add(shards[from].evidence.value(next[from]++));
+        }
+        return annotations;
+    }
+
+    /**
+     * Waits for a shard, rethrowing whatever made it fail.
+     */
+    private static void waitFor(Future<?> result) {
+        try {
+            result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting for annotation threads", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Reads up to batchLines annotation lines, keeping the columns used.
+     *
+     * @return the lines, empty at the end of the file
+     */
+    private List<GafLine> readBatch(GafTokenizer line, boolean gpad) throws IOException {
+        List<GafLine> batch = new ArrayList<GafLine>(batchLines);
+        while (batch.size() < batchLines && nextAnnotation(line)) {
+            Object parsedEvent = LoadEvents.beginRecordParsed();
+            long metricsStart = metricsStart();
+            long allocStart = allocStart();
+            GafLine gafLine = gpad ? readGpadLine(line) : readGafLine(line);
+            allocEnd(Stage.PARSE, allocStart);
+            if (gafLine == null) {
+                continue;
+            }
+            gafLine.number = line.lineNumber();
+            gafLine.shard = (SymbolTable.mix(gafLine.productId.hashCode()) & Integer.MAX_VALUE)
+                    % threads;
+            batch.add(gafLine);
+            LoadEvents.recordParsed(parsedEvent, annotationClassName, gafLine.productId,
+                    line.lineLength(), gafLine.number);
+            metricsEnd(parseSeconds, metricsStart);
+        }
+        return batch;
+    }
+
+    private GafLine readGafLine(GafTokenizer line) {
+        checkColumns(line);
+        GafLine gafLine = new GafLine();
+        gafLine.taxonId = line.taxonId(12);
+        Config config = getConfig(gafLine.taxonId);
+        gafLine.productId = line.column(config.readColumn());
+        gafLine.goId = line.column(4);
+        gafLine.qualifier = line.column(3);
+        gafLine.references = line.column(5);
+        gafLine.evidenceCode = line.column(6);
+        gafLine.withText = line.column(7);
+        if (line.columnCount() >= 16) {
+            gafLine.annotationExtension = line.column(15);
+        }
+        if (StringUtils.isEmpty(gafLine.evidenceCode)) {
+            throw new IllegalArgumentException("Evidence is a required column but not "
+                    + "found for goterm " + gafLine.goId + " and productId "
+                    + gafLine.productId);
+        }
+        gafLine.type = "1.0".equals(gaff) ? line.column(11) : config.annotationType;
+        gafLine.dataSourceCode = line.column(14);
+        gafLine.dataSource = line.column(0);
+        return gafLine;
+    }
+
+    /**
+     * Reads a GPAD 2.0 line as the GAF 2.0 line it stands for.  The product
+     * and taxon are its entity's in the GPI files, the data source is the
+     * entity's DB, the qualifier is NOT if negated and contributes_to or
+     * colocalizes_with if the relation is, and the evidence code is that
+     * of the ECO class.
+     *
+     * @return the line, null if its entity or ECO class isn't known
+     */
+    private GafLine readGpadLine(GafTokenizer line) {
+        if (line.columnCount() < 10) {
+            throw new IllegalArgumentException("Not enough elements (should be >= 10 not "
+                    + line.columnCount() + ") in GPAD line: " + line.line());
+        }
+        String id = line.column(0);
+        int entity = gpiEntities.find(id);
+        if (entity < 0) {
+            diagnostics.count(null, "entity not in GPI, ignored", id);
+            return null;
+        }
+        GafLine gafLine = new GafLine();
+        gafLine.taxonId = gpiEntities.getTaxonId(entity);
+        String eco = line.column(5);
+        gafLine.evidenceCode = ecoCodes.getCode(eco);
+        if (gafLine.evidenceCode == null) {
+            diagnostics.count(gafLine.taxonId, "ECO class has no evidence code, ignored", eco);
+            return null;
+        }
+        // column() gives the same String while the entity repeats
+        if (id != gpadEntity) {
+            int colon = id.indexOf(':');
+            if (colon < 1) {
+                throw new IllegalArgumentException("Entity is not DB:ID in GPAD line: "
+                        + line.line());
+            }
+            gpadEntity = id;
+            gpadDataSource = id.substring(0, colon);
+            gpadLocalId = id.substring(colon + 1);
+        }
+        Config config = getConfig(gafLine.taxonId);
+        gafLine.productId = config.readColumn() == 2 ? gpiEntities.getSymbol(entity)
+                : gpadLocalId;
+        String qualifier = RELATION_QUALIFIERS.get(line.column(2));
+        if ("NOT".equals(line.column(1))) {
+            qualifier = qualifier == null ? "NOT" : "NOT|" + qualifier;
+        }
+        gafLine.qualifier = qualifier == null ? "" : qualifier;
+        gafLine.goId = line.column(3);
+        gafLine.references = line.column(4);
+        gafLine.withText = line.column(6);
+        if (line.columnCount() >= 11) {
+            gafLine.annotationExtension = line.column(10);
+        }
+        gafLine.type = config.annotationType;
+        gafLine.dataSourceCode = line.column(9);
+        gafLine.dataSource = gpadDataSource;
+        return gafLine;
+    }
+
+    /**
+     * Creates the items of lines the shards are done with, in line order.
+     */
+    private void createItems(List<GafLine> batch) throws ObjectStoreException {
+        for (GafLine gafLine : batch) {
+            long metricsStart = metricsStart();
+            long allocStart = allocStart();
+            storeEvidenceCode(gafLine.evidenceCode);
+            Item organism = newOrganism(gafLine.taxonId);
+            if (gafLine.product != null) {
+                String productIdentifier = newProduct(gafLine.product, organism,
+                        gafLine.dataSource, gafLine.dataSourceCode, true);
+                String pubRefId = getPublication(gafLine.references);
+                Evidence evidence = gafLine.evidence;
+                if (gafLine.adds == Adds.ANNOTATION) {
+                    String goTermIdentifier = newGoTerm(gafLine.goId, gafLine.dataSource,
+                            gafLine.dataSourceCode);
+                    evidence.organism = organism;
+                    evidence.addPublicationRefId(pubRefId);
+                    evidence.setStoredAnnotationId(createGoAnnotation(productIdentifier,
+                            gafLine.type, goTermIdentifier, organism, gafLine.qualifier,
+                            gafLine.dataSource, gafLine.dataSourceCode,
+                            gafLine.annotationExtension));
+                } else if (gafLine.adds == Adds.EVIDENCE) {
+                    evidence.organism = organism;
+                    evidence.addPublicationRefId(pubRefId);
+                    evidence.setStoredAnnotationId(gafLine.sibling.getStoredAnnotationId());
+                } else {
+                    evidence.addPublicationRefId(pubRefId);
+                }
+            }
+            allocEnd(Stage.EVIDENCE, allocStart);
+            metricsEnd(evidenceSeconds, metricsStart);
+        }
+    }
+
+    /**
+     * Stores the evidence held so far, ex: for the product just read, and
+     * forgets it.
+     */
+    private void flushEvidence() throws ObjectStoreException {
+        long allocStart = allocStart();
+        long metricsStart = metricsStart();
+        storeEvidence(goTermGeneToEvidence.values(), true);
+        goTermGeneToEvidence.clear();
+        evidenceByCode.clear();
+        metricsEnd(flushSeconds, metricsStart);
+        allocEnd(Stage.FLUSH, allocStart);
+    }
+
+    /**
+     * Finds the evidence an annotation has with a code.  Most annotations
+     * have one code, so codes are only indexed once there is a second.
+     *
+     * @param annotationEvidence evidence of the annotation
+     * @param entry the annotation's entry in its IntTupleMap
+     * @return the evidence, null if the annotation has none with the code
+     */
+    protected static Evidence findEvidence(List<Evidence> annotationEvidence, int entry,
+            String evidenceCode, SymbolTable symbols, IntTupleMap<Evidence> byCode) {
+        if (annotationEvidence.size() == 1) {
+            Evidence only = annotationEvidence.get(0);
+            return only.getEvidenceCode().equals(evidenceCode) ? only : null;
+        }
+        return byCode.get(entry, symbols.intern(evidenceCode), 0, 0);
+    }
+
+    /**
+     * Adds evidence with a new code to an annotation, indexing its codes.
+     */
+    protected static void addEvidence(List<Evidence> annotationEvidence, int entry,
+            Evidence evidence, SymbolTable symbols, IntTupleMap<Evidence> byCode) {
+        if (annotationEvidence.size() == 1) {
+            Evidence first = annotationEvidence.get(0);
+            byCode.put(entry, symbols.intern(first.getEvidenceCode()), 0, 0, first);
+        }
+        annotationEvidence.add(evidence);
+        byCode.put(entry, symbols.intern(evidence.getEvidenceCode()), 0, 0, evidence);
+    }
+
+    /**
+     * @return true if withText has an identifier createWithObjects() may
+     * make a product of
+     */
+    private static boolean mayHaveWithObjects(String withText) {
+        for (String prefix : WITH_TYPES.keySet()) {
+            if (withText.contains(prefix + ":")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates the with objects of evidence already stored, in the order it
+     * was stored, and adds them to it.
+     */
+    private void storeDeferredWith() throws ObjectStoreException {
+        for (DeferredWith evidence : deferredWith) {
+            List<String> with = createWithObjects(evidence.withText, evidence.organism,
+                    evidence.dataSource, evidence.dataSourceCode);
+            if (!with.isEmpty()) {
+                store(new ReferenceList("with", with), evidence.storedEvidenceId);
+            }
+        }
+        deferredWith.clear();
+    }
+
+    /**
+     * @return the cache in front of rslv, made again if rslv has been replaced
+     */
+    private IdResolverCache resolverCache() {
+        IdResolverCache cache = resolverCache;
+        if (cache == null || cache.getResolver() != rslv) {
+            try {
+                cache = new IdResolverCache(rslv,
+                        resolverCacheFile == null ? null : new File(resolverCacheFile));
+            } catch (IOException e) {
+                throw new RuntimeException("Problem reading resolver.cache.file "
+                        + resolverCacheFile, e);
+            }
+            resolverCache = cache;
+        }
+        return cache;
     }
 
     /**
      * Reset maps that don't need to retain their contents between files.
      */
     protected void initialiseMapsForFile() {
-        goTermGeneToEvidence = new LinkedHashMap<GoTermToGene, Set<Evidence>>();
+        annotationSymbols = new SymbolTable();
+        goTermGeneToEvidence = new IntTupleMap<List<Evidence>>();
+        evidenceByCode = new IntTupleMap<Evidence>();
+        storedAnnotations = new IntTupleMap<Integer>();
+        evidenceCollectionsMap = new LinkedHashMap<Integer, List<String>>();
         productCollectionsMap = new LinkedHashMap<Integer, List<String>>();
         storedProductIds = new HashMap<String, Integer>();
+        productSymbols = new SymbolTable();
+        fileProducts = new IntTupleMap<String>();
+        deferredWith = new ArrayList<DeferredWith>();
     }
 
     private void storeProductCollections() throws ObjectStoreException {
+        Object event = LoadEvents.beginBatchStored();
         for (Map.Entry<Integer, List<String>> entry : productCollectionsMap.entrySet()) {
             Integer storedProductId = entry.getKey();
             List<String> annotationIds = entry.getValue();
             ReferenceList goAnnotation = new ReferenceList(termCollectionName, annotationIds);
             store(goAnnotation, storedProductId);
         }
+        // products are of several classes
+        LoadEvents.batchStored(event, null, productCollectionsMap.size());
+    }
+
+    private void storeEvidenceCollections() throws ObjectStoreException {
+        for (Map.Entry<Integer, List<String>> entry : evidenceCollectionsMap.entrySet()) {
+            store(new ReferenceList("evidence", entry.getValue()), entry.getKey());
+        }
     }
 
-    private void storeEvidence() throws ObjectStoreException {
-        for (Set<Evidence> annotationEvidence : goTermGeneToEvidence.values()) {
+    /**
+     * @param annotations evidence of each annotation, in the order the
+     * annotations were read
+     * @param deferWith true to leave creating with objects, which may also
+     * be products annotated later in the file, until the end of the file, and
+     * the evidence collections of annotations without with text, which a
+     * product turning up again may add to
+     */
+    private void storeEvidence(List<List<Evidence>> annotations, boolean deferWith)
+        throws ObjectStoreException {
+        Object event = LoadEvents.beginBatchStored();
+        int stored = 0;
+        for (List<Evidence> annotationEvidence : annotations) {
             List<String> evidenceRefIds = new ArrayList<String>();
             Integer goAnnotationRefId = null;
             for (Evidence evidence : annotationEvidence) {
@@ -305,24 +1378,42 @@ public class GoConverter extends BioFileConverter
                 }
 
                 // with objects
+                boolean deferred = false;
                 if (!StringUtils.isEmpty(evidence.withText)) {
                     goevidence.setAttribute("withText", evidence.withText);
-                    List<String> with = createWithObjects(evidence.withText, evidence.organism,
-                            evidence.dataSource, evidence.dataSourceCode);
-                    if (!with.isEmpty()) {
-                        goevidence.addCollection(new ReferenceList("with", with));
+                    if (deferWith) {
+                        deferred = mayHaveWithObjects(evidence.withText);
+                    } else {
+                        List<String> with = createWithObjects(evidence.withText,
+                                evidence.organism, evidence.dataSource, evidence.dataSourceCode);
+                        if (!with.isEmpty()) {
+                            goevidence.addCollection(new ReferenceList("with", with));
+                        }
                     }
                 }
 
-                store(goevidence);
+                Integer storedEvidenceId = store(goevidence);
+                if (deferred) {
+                    deferredWith.add(new DeferredWith(storedEvidenceId, evidence));
+                }
+                stored++;
                 evidenceRefIds.add(goevidence.getIdentifier());
                 goAnnotationRefId = evidence.getStoredAnnotationId();
             }
 
-            ReferenceList refIds = new ReferenceList("evidence",
-                    new ArrayList<String>(evidenceRefIds));
-            store(refIds, goAnnotationRefId);
+            List<String> heldRefIds = evidenceCollectionsMap.get(goAnnotationRefId);
+            if (heldRefIds != null) {
+                // a stored annotation's product turned up again
+                heldRefIds.addAll(evidenceRefIds);
+            } else if (deferWith && StringUtils.isEmpty(annotationEvidence.get(0).withText)) {
+                evidenceCollectionsMap.put(goAnnotationRefId, evidenceRefIds);
+            } else {
+                ReferenceList refIds = new ReferenceList("evidence",
+                        new ArrayList<String>(evidenceRefIds));
+                store(refIds, goAnnotationRefId);
+            }
         }
+        LoadEvents.batchStored(event, "GOEvidence", stored);
     }
 
     private Integer createGoAnnotation(String productIdentifier, String productType,
@@ -370,10 +1461,23 @@ public class GoConverter extends BioFileConverter
      */
     protected List<String> createWithObjects(String withText, Item organism,
             String dataSource, String dataSourceCode) throws ObjectStoreException {
+        // once made, the same products are found for the same organism
+        String key = organism.getIdentifier() + "\t" + withText;
+        List<String> withProductList = withObjectsByText.lookup(key);
+        if (withProductList == null) {
+            withProductList = Collections.unmodifiableList(parseWithObjects(withText, organism,
+                    dataSource, dataSourceCode));
+            withObjectsByText.put(key, withProductList);
+        }
+        return withProductList;
+    }
+
+    private List<String> parseWithObjects(String withText, Item organism,
+            String dataSource, String dataSourceCode) throws ObjectStoreException {
 
         List<String> withProductList = new ArrayList<String>();
         try {
-            String[] elements = withText.split("[; |,]");
+            String[] elements = WITH_SEPARATORS.split(withText);
             for (int i = 0; i < elements.length; i++) {
                 String entry = elements[i].trim();
                 // rely on the format being type:identifier
@@ -406,7 +1510,8 @@ public class GoConverter extends BioFileConverter
                             withProductList.add(productIdentifier);
                         }
                     } else {
-                        LOG.debug("createWithObjects skipping a withType prefix:" + prefix);
+                        diagnostics.count(organism.getAttribute("taxonId").getValue(),
+                                "with prefix not loaded", prefix);
                     }
                 }
             }
@@ -420,13 +1525,29 @@ public class GoConverter extends BioFileConverter
     private String newProduct(String identifier, String type, Item organism,
             String dataSource, String dataSourceCode, boolean createOrganism,
             String field) throws ObjectStoreException {
+        String taxonId = organism == null ? null : organism.getAttribute("taxonId").getValue();
+        Product product = resolveProduct(identifier, type, taxonId, field);
+        if (product == null) {
+            return null;
+        }
+        return newProduct(product, organism, dataSource, dataSourceCode, createOrganism);
+    }
+
+    /**
+     * Works out the class, identifier field and identifier of a product,
+     * asking the id resolver for genes.  Creates nothing, so can be called
+     * from any thread.
+     *
+     * @return the product, null if the resolver could not resolve a gene
+     */
+    private Product resolveProduct(String identifier, String type, String taxonId,
+            String field) {
         String idField = field;
         String accession = identifier;
         String clsName = null;
         // find gene attribute first to see if organism should be part of key
         if ("gene".equalsIgnoreCase(type)) {
             clsName = "Gene";
-            String taxonId = organism.getAttribute("taxonId").getValue();
             if (idField == null) {
                 Config config = configs.get(taxonId);
                 if (config == null) {
@@ -443,15 +1564,16 @@ public class GoConverter extends BioFileConverter
                 if ("10116".equals(taxonId)) { // RGD doesn't have prefix in its annotation data
                     accession = "RGD:" + accession;
                 }
-                int resCount = rslv.countResolutions(taxonId, accession);
+                IdResolverCache.Resolution resolution = resolverCache().resolve(taxonId, accession);
+                int resCount = resolution.getCount();
+                countResolution(resCount);
 
                 if (resCount != 1) {
-                    LOG.info("RESOLVER: failed to resolve gene to one identifier, "
-                            + "ignoring gene: " + accession + " count: " + resCount + " ID: "
-                            + rslv.resolveId(taxonId, accession));
+                    diagnostics.count(taxonId, resCount == 0 ? "gene not resolved, ignored"
+                            : "gene resolved to several, ignored", accession);
                     return null;
                 }
-                accession = rslv.resolveId(taxonId, accession).iterator().next();
+                accession = resolution.getId();
             }
         } else if ("protein".equalsIgnoreCase(type)) {
             // TODO use values in config
@@ -470,24 +1592,52 @@ public class GoConverter extends BioFileConverter
                 throw new IllegalArgumentException("Unrecognised annotation type '" + type + "'");
             }
         }
+        return new Product(clsName, idField, accession, type);
+    }
 
+    /**
+     * Gets the product created for a resolved product, creating it the
+     * first time.
+     */
+    private String newProduct(Product resolved, Item organism, String dataSource,
+            String dataSourceCode, boolean createOrganism) throws ObjectStoreException {
+        String idField = resolved.idField;
+        String accession = resolved.accession;
+        String type = resolved.type;
         boolean includeOrganism;
         if ("primaryIdentifier".equals(idField) || "protein".equals(type)) {
             includeOrganism = false;
         } else {
             includeOrganism = createOrganism;
         }
-        String key = makeProductKey(accession, type, organism, includeOrganism);
+        checkProductKey(accession, type, organism);
+        int accessionSymbol = productSymbols.intern(accession);
+        int typeSymbol = productSymbols.intern(type);
+        // 0 if organism isn't part of the key
+        int organismSymbol = includeOrganism
+                ? productSymbols.intern(organism.getIdentifier()) + 1 : 0;
 
         //Have we already seen this product somewhere before?
         // if so, return the product rather than creating a new one...
-        if (productMap.containsKey(key)) {
-            return productMap.get(key);
+        String productIdentifier = fileProducts.get(accessionSymbol, typeSymbol, organismSymbol,
+                0);
+        if (productIdentifier != null) {
+            return productIdentifier;
+        }
+        // a product of an earlier file, types differing in case only are the same
+        String key = accession + "\t" + type.toLowerCase();
+        if (includeOrganism) {
+            key += "\t" + organism.getIdentifier();
+        }
+        productIdentifier = productMap.get(key);
+        if (productIdentifier != null) {
+            fileProducts.put(accessionSymbol, typeSymbol, organismSymbol, 0, productIdentifier);
+            return productIdentifier;
         }
 
         // if a Dmel gene we need to use FlyBaseIdResolver to find a current id
 
-        Item product = createItem(clsName);
+        Item product = createItem(resolved.clsName);
         if (organism != null && createOrganism) {
             product.setReference("organism", organism.getIdentifier());
         }
@@ -499,11 +1649,11 @@ public class GoConverter extends BioFileConverter
         Integer storedProductId = store(product);
         storedProductIds.put(product.getIdentifier(), storedProductId);
         productMap.put(key, product.getIdentifier());
+        fileProducts.put(accessionSymbol, typeSymbol, organismSymbol, 0, product.getIdentifier());
         return product.getIdentifier();
     }
 
-    private String makeProductKey(String identifier, String type, Item organism,
-            boolean createOrganism) {
+    private void checkProductKey(String identifier, String type, Item organism) {
         if (type == null) {
             throw new IllegalArgumentException("No type provided when creating " + organism
                     + ": " + identifier);
@@ -511,9 +1661,6 @@ public class GoConverter extends BioFileConverter
             throw new IllegalArgumentException("No identifier provided when creating "
                     + organism + ": " + type);
         }
-
-        return identifier + type.toLowerCase() + ((createOrganism)
-                ? organism.getIdentifier() : "");
     }
 
 //    private String resolveTerm(String identifier) {
@@ -604,14 +1751,48 @@ public class GoConverter extends BioFileConverter
         return dataSetIdentifier;
     }
 
-    private String newPublication(String codes) throws ObjectStoreException {
+    /**
+     * Gets the publication of a references column, remembering it for the
+     * next line with the same references.  Once a column has been read its
+     * publication and cross references exist, so reading it again would
+     * make nothing.
+     *
+     * @return the publication, null if there is no PMID
+     */
+    private String getPublication(String references) throws ObjectStoreException {
+        String pubRefId = publicationsByReferences.lookup(references);
+        if (pubRefId == null && !publicationsByReferences.containsKey(references)) {
+            pubRefId = newPublication(references);
+            publicationsByReferences.put(references, pubRefId);
+        }
+        return pubRefId;
+    }
+
+    /**
+     * Makes the publication of a references column.  Only the PMID and, for
+     * a new publication, the other references are cut out of the column.
+     */
+    private String newPublication(String references) throws ObjectStoreException {
         String pubRefId = null;
-        String[] array = codes.split("[|]");
-        Set<String> xrefs = new HashSet<String>();
         Item item = null;
-        for (int i = 0; i < array.length; i++) {
-            if (array[i].startsWith("PMID:")) {
-                String pubMedId = array[i].substring(5);
+        int length = references.length();
+        int xrefCount = 0;
+        // references are split on '|' as by String.split(), so trailing empty ones are dropped
+        int end = length;
+        while (end > 0 && references.charAt(end - 1) == '|') {
+            end--;
+        }
+        if (end == 0 && length > 0) {
+            return null;
+        }
+        int from = 0;
+        while (from <= end) {
+            int to = from;
+            while (to < end && references.charAt(to) != '|') {
+                to++;
+            }
+            if (references.startsWith("PMID:", from)) {
+                String pubMedId = references.substring(from + 5, to);
                 if (StringUtil.allDigits(pubMedId)) {
                     pubRefId = publications.get(pubMedId);
                     if (pubRefId == null) {
@@ -623,13 +1804,25 @@ public class GoConverter extends BioFileConverter
                     }
                 }
             } else {
-                xrefs.add(array[i]);
+                if (xrefCount + 1 >= xrefBounds.length) {
+                    int[] grown = new int[xrefBounds.length * 2];
+                    System.arraycopy(xrefBounds, 0, grown, 0, xrefBounds.length);
+                    xrefBounds = grown;
+                }
+                xrefBounds[xrefCount++] = from;
+                xrefBounds[xrefCount++] = to;
             }
+            from = to + 1;
         }
         ReferenceList refIds = new ReferenceList("crossReferences");
 
-        // PMID may be first or last so we can't process xrefs until we've looked at all IDs
-        if (StringUtils.isNotEmpty(pubRefId)) {
+        // PMID may be first or last so we can't process xrefs until we've looked at all IDs.
+        // Only a new publication gets them, so none are made for one made before
+        if (item != null && StringUtils.isNotEmpty(pubRefId) && xrefCount > 0) {
+            Set<String> xrefs = new HashSet<String>();
+            for (int i = 0; i < xrefCount; i += 2) {
+                xrefs.add(references.substring(xrefBounds[i], xrefBounds[i + 1]));
+            }
             for (String xref : xrefs) {
                 refIds.addRefId(createDbReference(xref));
             }
@@ -641,32 +1834,38 @@ public class GoConverter extends BioFileConverter
         return pubRefId;
     }
 
-    private String createDbReference(String value)
+    /**
+     * @return the DatabaseReference of a cross reference, ex: FB:FBrf0055969,
+     * made the first time it is seen
+     */
+    private String createDbReference(String xref)
         throws ObjectStoreException {
-        if (StringUtils.isEmpty(value)) {
+        if (StringUtils.isEmpty(xref)) {
             return null;
         }
+        String dbRefIdentifier = dbRefs.get(xref);
+        if (dbRefIdentifier != null) {
+            return dbRefIdentifier;
+        }
+        String value = xref;
         String dataSource = null;
-        if (!dbRefs.contains(value)) {
-            Item item = createItem("DatabaseReference");
-            // FB:FBrf0055969
-            if (value.contains(":")) {
-                String[] bits = value.split(":");
-                if (bits.length == 2) {
-                    String db = bits[0];
-                    dataSource = getDataSourceCodeName(db);
-                    value = bits[1];
-                }
-            }
-            item.setAttribute("identifier", value);
-            if (StringUtils.isNotEmpty(dataSource)) {
-                item.setReference("source", getDataSource(dataSource));
+        Item item = createItem("DatabaseReference");
+        // FB:FBrf0055969
+        if (value.contains(":")) {
+            String[] bits = value.split(":");
+            if (bits.length == 2) {
+                String db = bits[0];
+                dataSource = getDataSourceCodeName(db);
+                value = bits[1];
             }
-            dbRefs.add(value);
-            store(item);
-            return item.getIdentifier();
         }
-        return null;
+        item.setAttribute("identifier", value);
+        if (StringUtils.isNotEmpty(dataSource)) {
+            item.setReference("source", getDataSource(dataSource));
+        }
+        dbRefs.put(xref, item.getIdentifier());
+        store(item);
+        return item.getIdentifier();
     }
 
     private Item newOrganism(String taxonId) throws ObjectStoreException {
@@ -680,20 +1879,137 @@ public class GoConverter extends BioFileConverter
         return item;
     }
 
-    private String parseTaxonId(String input) {
-        if ("taxon:".equals(input)) {
-            throw new IllegalArgumentException("Invalid taxon id read: " + input);
+    /**
+     * A product as resolved, before it is created.
+     */
+    private static final class Product
+    {
+        private final String clsName;
+        private final String idField;
+        private final String accession;
+        private final String type;
+
+        Product(String clsName, String idField, String accession, String type) {
+            this.clsName = clsName;
+            this.idField = idField;
+            this.accession = accession;
+            this.type = type;
         }
-        String taxonId = input.split(":")[1];
-        if (taxonId.contains("|")) {
-            taxonId = taxonId.split("\\|")[0];
+    }
+
+    // what a line read with more than one thread adds to the evidence
+    private enum Adds { ANNOTATION, EVIDENCE, PUBLICATION }
+
+    /**
+     * The columns of a line read in batches, or of the GAF line a GPAD line
+     * stands for, and, once its shard has added it, what it adds.
+     */
+    private static final class GafLine
+    {
+        private int number;
+        private int shard;
+        private String taxonId;
+        private String productId;
+        private String goId;
+        private String qualifier;
+        private String references;
+        private String evidenceCode;
+        private String withText;
+        private String annotationExtension = null;
+        private String type;
+        private String dataSource;
+        private String dataSourceCode;
+
+        // null if the product didn't resolve
+        private Product product = null;
+        private Adds adds = null;
+        private Evidence evidence = null;
+        // for Adds.EVIDENCE, evidence of the same annotation
+        private Evidence sibling = null;
+    }
+
+    /**
+     * The evidence of the products whose lines a thread is given.  A line's
+     * evidence is made without its organism and publication, which are
+     * items, and those are added when its items are created.
+     */
+    private class Shard
+    {
+        private final List<GafLine> lines = new ArrayList<GafLine>();
+        private final SymbolTable symbols = new SymbolTable();
+        private final IntTupleMap<List<Evidence>> evidence = new IntTupleMap<List<Evidence>>();
+        private final IntTupleMap<Evidence> evidenceByCode = new IntTupleMap<Evidence>();
+        // line each annotation was first read from, by entry
+        private int[] firstLines = new int[1024];
+
+        /**
+         * Adds the lines given since last time.
+         */
+        void addLines() {
+            for (GafLine gafLine : lines) {
+                add(gafLine);
+            }
+            lines.clear();
+        }
+
+        private void add(GafLine gafLine) {
+            Object resolvedEvent = LoadEvents.beginReferenceResolved();
+            long metricsStart = metricsStart();
+            gafLine.product = resolveProduct(gafLine.productId, gafLine.type, gafLine.taxonId,
+                    null);
+            LoadEvents.referenceResolved(resolvedEvent, gafLine.type, gafLine.productId);
+            metricsEnd(resolveSeconds, metricsStart);
+            if (gafLine.product == null) {
+                return;
+            }
+
+            int productSymbol = symbols.intern(gafLine.productId);
+            int goSymbol = symbols.intern(gafLine.goId);
+            int qualifierSymbol = symbols.intern(gafLine.qualifier);
+            int withSymbol = symbols.intern(gafLine.withText);
+            int entry = evidence.find(productSymbol, goSymbol, qualifierSymbol, withSymbol);
+            List<Evidence> allEvidenceForAnnotation = entry < 0 ? null : evidence.value(entry);
+            if (allEvidenceForAnnotation == null || !StringUtils.isEmpty(gafLine.withText)) {
+                gafLine.evidence = new Evidence(gafLine.evidenceCode, null, gafLine.withText,
+                        null, gafLine.dataSource, gafLine.dataSourceCode);
+                gafLine.adds = Adds.ANNOTATION;
+                allEvidenceForAnnotation = new ArrayList<Evidence>(1);
+                allEvidenceForAnnotation.add(gafLine.evidence);
+                int size = evidence.size();
+                entry = evidence.put(productSymbol, goSymbol, qualifierSymbol, withSymbol,
+                        allEvidenceForAnnotation);
+                if (entry == size) {
+                    if (entry == firstLines.length) {
+                        int[] grown = new int[firstLines.length * 2];
+                        System.arraycopy(firstLines, 0, grown, 0, entry);
+                        firstLines = grown;
+                    }
+                    firstLines[entry] = gafLine.number;
+                }
+                return;
+            }
+            Evidence held = findEvidence(allEvidenceForAnnotation, entry, gafLine.evidenceCode,
+                    symbols, evidenceByCode);
+            if (held != null) {
+                // already have evidence code, just add pub
+                gafLine.evidence = held;
+                gafLine.adds = Adds.PUBLICATION;
+                return;
+            }
+            gafLine.evidence = new Evidence(gafLine.evidenceCode, null, gafLine.withText, null,
+                    gafLine.dataSource, gafLine.dataSourceCode);
+            gafLine.adds = Adds.EVIDENCE;
+            gafLine.sibling = allEvidenceForAnnotation.get(0);
+            addEvidence(allEvidenceForAnnotation, entry, gafLine.evidence, symbols,
+                    evidenceByCode);
         }
-        return taxonId;
     }
 
-    private class Evidence
+    protected class Evidence
     {
-        private List<String> publicationRefIds = new ArrayList<String>();
+        private List<String> publicationRefIds = new ArrayList<String>(1);
+        // publicationRefIds, once there are too many to search
+        private Set<String> publicationIndex = null;
         private String evidenceCode = null;
         private Integer storedAnnotationId = null;
         private String withText = null;
@@ -714,10 +2030,24 @@ public class GoConverter extends BioFileConverter
             addPublicationRefId(publicationRefId);
         }
 
+        /**
+         * Adds a publication unless it has been added already.
+         */
         protected void addPublicationRefId(String publicationRefId) {
-            if (publicationRefId != null) {
-                publicationRefIds.add(publicationRefId);
+            if (publicationRefId == null) {
+                return;
+            }
+            if (publicationIndex != null) {
+                if (!publicationIndex.add(publicationRefId)) {
+                    return;
+                }
+            } else if (publicationRefIds.contains(publicationRefId)) {
+                return;
+            } else if (publicationRefIds.size() == INDEXED_PUBLICATIONS) {
+                publicationIndex = new HashSet<String>(publicationRefIds);
+                publicationIndex.add(publicationRefId);
             }
+            publicationRefIds.add(publicationRefId);
         }
 
         protected List<String> getPublications() {
@@ -767,72 +2097,22 @@ public class GoConverter extends BioFileConverter
 
 
     /**
-     * Identify a GoTerm/geneProduct pair with qualifier
-     * used to also use evidence code
+     * What is needed to add with objects to stored evidence.
      */
-    private class GoTermToGene
+    private static class DeferredWith
     {
-        private String productId;
-        private String goId;
-        private String qualifier;
-        private String withText;
-
-        /**
-         * Constructor
-         *
-         * @param productId gene/protein identifier
-         * @param goId      GO term id
-         * @param qualifier qualifier
-         */
-        GoTermToGene(String productId, String goId, String qualifier, String withText) {
-            this.productId = productId;
-            this.goId = goId;
-            this.qualifier = qualifier;
-            this.withText = withText;
-        }
-
-        /**
-         * {@inheritDoc}
-         */
-        @Override
-        public boolean equals(Object o) {
-            if (o instanceof GoTermToGene) {
-                GoTermToGene go = (GoTermToGene) o;
-                return productId.equals(go.productId)
-                        && goId.equals(go.goId)
-                        && qualifier.equals(go.qualifier)
-                        && withText.equals(go.withText);
-            }
-            return false;
-        }
-
-        /**
-         * {@inheritDoc}
-         */
-        @Override
-        public int hashCode() {
-            return ((3 * productId.hashCode())
-                    + (5 * goId.hashCode())
-                    + (7 * qualifier.hashCode())
-                    + (11 * withText.hashCode()));
-        }
-
-        /**
-         * {@inheritDoc}
-         */
-        @Override
-        public String toString() {
-            StringBuffer toStringBuff = new StringBuffer();
-
-            toStringBuff.append("GoTermToGene - productId:");
-            toStringBuff.append(productId);
-            toStringBuff.append(" goId:");
-            toStringBuff.append(goId);
-            toStringBuff.append(" qualifier:");
-            toStringBuff.append(qualifier);
-            toStringBuff.append(" withText:");
-            toStringBuff.append(withText);
-            return toStringBuff.toString();
+        private final Integer storedEvidenceId;
+        private final String withText;
+        private final Item organism;
+        private final String dataSource;
+        private final String dataSourceCode;
+
+        DeferredWith(Integer storedEvidenceId, Evidence evidence) {
+            this.storedEvidenceId = storedEvidenceId;
+            this.withText = evidence.withText;
+            this.organism = evidence.organism;
+            this.dataSource = evidence.dataSource;
+            this.dataSourceCode = evidence.dataSourceCode;
         }
     }
 
@@ -0,0 +1,86 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The entities of GPI files, ex: genes and proteins, by their DB:ID, with
+ * what GPAD lines need of them to be read as GAF lines: the symbol and the
+ * taxon.  Identifiers are held in a SymbolTable with the symbols and taxa
+ * in arrays, and each taxon String is held once, so a large GPI file costs
+ * little more than its identifiers and symbols.  Not thread safe to add to.
+ */
+public class GpiEntities
+{
+    private final SymbolTable ids = new SymbolTable();
+    private String[] symbols = new String[1024];
+    private String[] taxonIds = new String[1024];
+    private final Map<String, String> taxa = new HashMap<String, String>();
+
+    /**
+     * Adds an entity, replacing what was held for it.
+     *
+     * @param id DB:ID of the entity, ex: WB:WBGene00000001
+     * @param symbol its symbol
+     * @param taxonId its taxon, ex: 6239
+     */
+    public void add(String id, String symbol, String taxonId) {
+        int entity = ids.intern(id);
+        if (entity == symbols.length) {
+            String[] grown = new String[symbols.length * 2];
+            System.arraycopy(symbols, 0, grown, 0, symbols.length);
+            symbols = grown;
+            grown = new String[taxonIds.length * 2];
+            System.arraycopy(taxonIds, 0, grown, 0, taxonIds.length);
+            taxonIds = grown;
+        }
+        String taxon = taxa.get(taxonId);
+        if (taxon == null) {
+            taxon = taxonId;
+            taxa.put(taxon, taxon);
+        }
+        symbols[entity] = symbol;
+        taxonIds[entity] = taxon;
+    }
+
+    /**
+     * @param id DB:ID of an entity
+     * @return the entity, -1 if it isn't held
+     */
+    public int find(String id) {
+        return ids.lookup(id);
+    }
+
+    /**
+     * @param entity an entity from find()
+     * @return its symbol
+     */
+    public String getSymbol(int entity) {
+        return symbols[entity];
+    }
+
+    /**
+     * @param entity an entity from find()
+     * @return its taxon
+     */
+    public String getTaxonId(int entity) {
+        return taxonIds[entity];
+    }
+
+    /**
+     * @return number of entities held
+     */
+    public int size() {
+        return ids.size();
+    }
+}
@@ -0,0 +1,372 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.collections.keyvalue.MultiKey;
+import org.apache.log4j.Logger;
+
+/**
+ * Remembers what an IdResolver said about each (taxon, identifier), whether
+ * it resolved to one identifier, to none or to several, so an identifier
+ * repeated on many annotation lines is only looked up once.
+ *
+ * Entries are held per taxon, keyed by the identifier alone, so a lookup
+ * makes no key.  Given a file, entries are read from it when the cache is
+ * made and written back, merged with what is already there, by save().
+ * Loads that name the same file, ex: GO and anatomy annotation, share their
+ * lookups.  Each taxon's entries are saved with a fingerprint of the
+ * resolver's data for the taxon and are dropped when read back if it has
+ * changed since, see fingerprint().  Threads may share a cache.
+ */
+public class IdResolverCache
+{
+    private static final Logger LOG = Logger.getLogger(IdResolverCache.class);
+
+    private final IdResolver resolver;
+    private final File file;
+    private final ConcurrentMap<String, Map<String, Resolution>> taxa
+        = new ConcurrentHashMap<String, Map<String, Resolution>>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private long loaded = 0;
+    private long discarded = 0;
+
+    /**
+     * What the resolver gave for an identifier.
+     */
+    public static final class Resolution
+    {
+        private final int count;
+        private final String id;
+        private final Set<String> ids;
+
+        Resolution(int count, Set<String> ids) {
+            this.count = count;
+            if (count == 1 && ids != null && !ids.isEmpty()) {
+                // the common case keeps just the identifier
+                this.id = ids.iterator().next();
+                this.ids = null;
+            } else {
+                this.id = null;
+                this.ids = ids;
+            }
+        }
+
+        /**
+         * @return number of identifiers resolved to, 1 if resolved
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return the identifier resolved to, null unless the count is 1
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return every identifier resolved to, as given by the resolver
+         */
+        public Set<String> getIds() {
+            if (id != null) {
+                Set<String> one = new LinkedHashSet<String>();
+                one.add(id);
+                return one;
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param resolver resolver to ask on a miss
+     * @param file file to read and save entries to, null to keep them in memory only
+     * @throws IOException if the file exists but can't be read
+     */
+    public IdResolverCache(IdResolver resolver, File file) throws IOException {
+        this.resolver = resolver;
+        this.file = file;
+        if (file != null && file.exists()) {
+            loaded = read(file);
+            LOG.info("Read " + loaded + " id resolutions from " + file);
+            if (discarded > 0) {
+                LOG.info("Discarded " + discarded + " id resolutions from " + file
+                        + ", the resolver's data has changed since they were saved");
+            }
+        }
+    }
+
+    /**
+     * @return the resolver this is in front of
+     */
+    public IdResolver getResolver() {
+        return resolver;
+    }
+
+    /**
+     * Gets what the resolver gives for an identifier, asking it the first
+     * time.
+     *
+     * @param taxonId taxon of the identifier
+     * @param identifier identifier to resolve
+     * @return the resolution
+     */
+    public Resolution resolve(String taxonId, String identifier) {
+        Map<String, Resolution> entries = entries(taxonId);
+        Resolution resolution = entries.get(identifier);
+        if (resolution != null) {
+            hits.increment();
+            return resolution;
+        }
+        misses.increment();
+        int count = resolver.countResolutions(taxonId, identifier);
+        resolution = new Resolution(count, resolver.resolveId(taxonId, identifier));
+        entries.put(identifier, resolution);
+        return resolution;
+    }
+
+    private Map<String, Resolution> entries(String taxonId) {
+        Map<String, Resolution> entries = taxa.get(taxonId);
+        if (entries == null) {
+            entries = new ConcurrentHashMap<String, Resolution>();
+            Map<String, Resolution> raced = taxa.putIfAbsent(taxonId, entries);
+            if (raced != null) {
+                entries = raced;
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return lookups answered from the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return lookups passed to the resolver
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of identifiers held
+     */
+    public long size() {
+        long size = 0;
+        for (Map<String, Resolution> entries : taxa.values()) {
+            size += entries.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return lookups, hit rate and what is held, on one line
+     */
+    public String report() {
+        long resolved = 0;
+        long unresolved = 0;
+        long ambiguous = 0;
+        for (Map<String, Resolution> entries : taxa.values()) {
+            for (Resolution resolution : entries.values()) {
+                if (resolution.count == 1) {
+                    resolved++;
+                } else if (resolution.count == 0) {
+                    unresolved++;
+                } else {
+                    ambiguous++;
+                }
+            }
+        }
+        long lookups = getHits() + getMisses();
+        return String.format("Id resolver cache: %,d lookups, %.1f%% hits, %,d identifiers "
+                + "(%,d resolved, %,d unresolved, %,d ambiguous, %,d read from file)", lookups,
+                lookups == 0 ? 0.0 : 100.0 * getHits() / lookups, resolved + unresolved + ambiguous,
+                resolved, unresolved, ambiguous, loaded);
+    }
+
+    /**
+     * Writes every entry to the file, keeping those already in it that this
+     * doesn't hold.  Does nothing if there is no file.
+     *
+     * @throws IOException if the file can't be written
+     */
+    public void save() throws IOException {
+        if (file == null) {
+            return;
+        }
+        synchronized (IdResolverCache.class) {
+            // another load may have saved since this one read the file
+            if (file.exists()) {
+                read(file);
+            }
+            // unique, so loads in other JVMs saving at the same time don't collide
+            File tmp = File.createTempFile("." + file.getName() + ".", ".tmp",
+                    file.getAbsoluteFile().getParentFile());
+            long written = 0;
+            boolean moved = false;
+            Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp),
+                    "UTF-8"));
+            try {
+                for (Map.Entry<String, Map<String, Resolution>> taxon : taxa.entrySet()) {
+                    out.write("#\t" + taxon.getKey() + "\t" + fingerprint(taxon.getKey()) + "\n");
+                    for (Map.Entry<String, Resolution> entry : taxon.getValue().entrySet()) {
+                        Resolution resolution = entry.getValue();
+                        out.write(taxon.getKey());
+                        out.write('\t');
+                        out.write(entry.getKey());
+                        out.write('\t');
+                        out.write(String.valueOf(resolution.count));
+                        Set<String> ids = resolution.getIds();
+                        if (ids != null) {
+                            for (String id : ids) {
+                                out.write('\t');
+                                out.write(id);
+                            }
+                        }
+                        out.write('\n');
+                        written++;
+                    }
+                }
+                out.close();
+                try {
+                    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                moved = true;
+            } finally {
+                if (!moved) {
+                    out.close();
+                    tmp.delete();
+                }
+            }
+            LOG.info("Wrote " + written + " id resolutions to " + file);
+        }
+    }
+
+    /**
+     * Describes the resolver's data for a taxon: the size and time of the
+     * idresolver.cache file it was read from, if any, and the number of
+     * identifiers and synonyms it has for each class.  Rebuilding the
+     * resolver from newer data changes at least one of these.
+     *
+     * @param taxonId taxon to describe
+     * @return the fingerprint, without tabs or line breaks
+     */
+    private String fingerprint(String taxonId) {
+        StringBuilder sb = new StringBuilder();
+        URL cached = IdResolverCache.class.getClassLoader().getResource(
+                IdResolverFactory.idResolverCachedFileName);
+        if (cached != null && "file".equals(cached.getProtocol())) {
+            File cacheFile = new File(cached.getFile());
+            sb.append(IdResolverFactory.idResolverCachedFileName).append('=')
+                .append(cacheFile.length()).append('@').append(cacheFile.lastModified());
+        }
+        // by class, the maps are keyed by taxon and class
+        Map<String, String> counts = new TreeMap<String, String>();
+        for (Map.Entry<MultiKey, Map<String, Set<String>>> ids : resolver.orgIdMaps.entrySet()) {
+            if (taxonId.equals(ids.getKey().getKey(0))) {
+                Map<String, Set<String>> synonyms = resolver.orgSynMaps.get(ids.getKey());
+                counts.put(String.valueOf(ids.getKey().getKey(1)), ids.getValue().size() + "/"
+                        + (synonyms == null ? 0 : synonyms.size()));
+            }
+        }
+        for (Map.Entry<String, String> count : counts.entrySet()) {
+            sb.append(sb.length() == 0 ? "" : " ").append(count.getKey()).append('=')
+                .append(count.getValue());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Adds the entries of a file that aren't held already.  Each taxon's
+     * lines follow a "#", taxon and fingerprint line and are skipped if the
+     * fingerprint is not the resolver's now.  Lines are taxon, identifier,
+     * count and the identifiers resolved to, tab separated.
+     *
+     * @return number of entries added
+     */
+    private long read(File from) throws IOException {
+        long added = 0;
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(from),
+                "UTF-8"));
+        try {
+            String line;
+            String taxonId = null;
+            boolean current = false;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length < 3) {
+                    throw new IOException("Bad line in " + from + ": " + line);
+                }
+                if ("#".equals(fields[0])) {
+                    taxonId = fields[1];
+                    current = fields[2].equals(fingerprint(taxonId));
+                    continue;
+                }
+                if (!current || !fields[0].equals(taxonId)) {
+                    discarded++; // saved from other data, or before fingerprints were
+                    continue;
+                }
+                Map<String, Resolution> entries = entries(fields[0]);
+                if (entries.containsKey(fields[1])) {
+                    continue;
+                }
+                int count;
+                try {
+                    count = Integer.parseInt(fields[2]);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad count in " + from + ": " + line);
+                }
+                Set<String> ids = null;
+                if (fields.length > 3) {
+                    ids = new LinkedHashSet<String>();
+                    for (int i = 3; i < fields.length; i++) {
+                        ids.add(fields[i]);
+                    }
+                }
+                entries.put(fields[1], new Resolution(count, ids));
+                added++;
+            }
+        } finally {
+            in.close();
+        }
+        return added;
+    }
+}
@@ -0,0 +1,179 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A map from keys of up to four ints, ex: SymbolTable ids, to values, held
+ * in arrays with no key or entry objects.  Keys of fewer ints pass 0 for the
+ * rest.  Entries are numbered from 0 in the order they were added and can be
+ * read back in that order with value(i), as a LinkedHashMap would give them.
+ * Entries are only removed all at once.
+ *
+ * @param <V> type of the values
+ */
+public class IntTupleMap<V>
+{
+    private static final int WIDTH = 4;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // WIDTH ints per entry
+    private int[] keys = new int[INITIAL_CAPACITY * WIDTH];
+    private Object[] values = new Object[INITIAL_CAPACITY];
+    // entry + 1 per slot, 0 if empty; length is a power of two
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+    private int size = 0;
+
+    /**
+     * @return entry number of the key, -1 if not held
+     */
+    public int find(int k0, int k1, int k2, int k3) {
+        int mask = slots.length - 1;
+        int slot = hash(k0, k1, k2, k3) & mask;
+        while (slots[slot] != 0) {
+            int entry = slots[slot] - 1;
+            if (matches(entry, k0, k1, k2, k3)) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return value of the key, null if not held
+     */
+    public V get(int k0, int k1, int k2, int k3) {
+        int entry = find(k0, k1, k2, k3);
+        return entry < 0 ? null : value(entry);
+    }
+
+    /**
+     * Sets the value of a key, adding it after the others if it is new.
+     *
+     * @return entry number of the key
+     */
+    public int put(int k0, int k1, int k2, int k3, V value) {
+        int mask = slots.length - 1;
+        int slot = hash(k0, k1, k2, k3) & mask;
+        while (slots[slot] != 0) {
+            int entry = slots[slot] - 1;
+            if (matches(entry, k0, k1, k2, k3)) {
+                values[entry] = value;
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == values.length) {
+            grow();
+            return put(k0, k1, k2, k3, value);
+        }
+        int entry = size++;
+        int base = entry * WIDTH;
+        keys[base] = k0;
+        keys[base + 1] = k1;
+        keys[base + 2] = k2;
+        keys[base + 3] = k3;
+        values[entry] = value;
+        slots[slot] = entry + 1;
+        return entry;
+    }
+
+    /**
+     * @param entry entry number, from 0 to size() - 1
+     * @return its value
+     */
+    @SuppressWarnings("unchecked")
+    public V value(int entry) {
+        if (entry < 0 || entry >= size) {
+            throw new IndexOutOfBoundsException("No entry " + entry + ", " + size + " held");
+        }
+        return (V) values[entry];
+    }
+
+    /**
+     * @return the values in entry order, as a view that follows changes
+     */
+    public List<V> values() {
+        return new AbstractList<V>() {
+            @Override
+            public V get(int entry) {
+                return value(entry);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Removes every entry, keeping the tables at their size.
+     */
+    public void clear() {
+        for (int entry = 0; entry < size; entry++) {
+            values[entry] = null;
+        }
+        Arrays.fill(slots, 0);
+        size = 0;
+    }
+
+    /**
+     * @return number of keys held
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return estimated bytes held by the tables, not the values
+     */
+    public long tableBytes() {
+        return 4L * (keys.length + values.length + slots.length);
+    }
+
+    private boolean matches(int entry, int k0, int k1, int k2, int k3) {
+        int base = entry * WIDTH;
+        return keys[base] == k0 && keys[base + 1] == k1 && keys[base + 2] == k2
+                && keys[base + 3] == k3;
+    }
+
+    private void grow() {
+        int[] newKeys = new int[keys.length * 2];
+        System.arraycopy(keys, 0, newKeys, 0, size * WIDTH);
+        keys = newKeys;
+        Object[] newValues = new Object[values.length * 2];
+        System.arraycopy(values, 0, newValues, 0, size);
+        values = newValues;
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int entry = 0; entry < size; entry++) {
+            int base = entry * WIDTH;
+            int slot = hash(keys[base], keys[base + 1], keys[base + 2], keys[base + 3]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = entry + 1;
+        }
+    }
+
+    private static int hash(int k0, int k1, int k2, int k3) {
+        int h = k0;
+        h = h * 31 + k1;
+        h = h * 31 + k2;
+        h = h * 31 + k3;
+        return SymbolTable.mix(h);
+    }
+}
@@ -0,0 +1,163 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts problems met while loading, ex: genes the id resolver couldn't
+ * resolve, by taxon and reason, with the first few identifiers of each as
+ * examples, so a file gives one table rather than a log line per line.
+ * Threads may share one.
+ */
+public class LoadDiagnostics
+{
+    private final int examples;
+    private final ConcurrentMap<Key, Problem> problems = new ConcurrentHashMap<Key, Problem>();
+
+    /**
+     * Constructor
+     *
+     * @param examples most example identifiers kept for each taxon and reason
+     */
+    public LoadDiagnostics(int examples) {
+        this.examples = examples;
+    }
+
+    /**
+     * Counts a problem.
+     *
+     * @param taxonId taxon of the line, may be null
+     * @param reason what went wrong, ex: "unresolved gene"
+     * @param identifier identifier it went wrong for, may be null
+     */
+    public void count(String taxonId, String reason, String identifier) {
+        Key key = new Key(taxonId == null ? "" : taxonId, reason);
+        Problem problem = problems.get(key);
+        if (problem == null) {
+            problem = new Problem();
+            Problem raced = problems.putIfAbsent(key, problem);
+            if (raced != null) {
+                problem = raced;
+            }
+        }
+        problem.count.increment();
+        if (identifier != null) {
+            synchronized (problem) {
+                if (problem.examples.size() < examples && !problem.examples.contains(identifier)) {
+                    problem.examples.add(identifier);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param taxonId a taxon, "" for none
+     * @param reason a reason
+     * @return times counted
+     */
+    public long getCount(String taxonId, String reason) {
+        Problem problem = problems.get(new Key(taxonId, reason));
+        return problem == null ? 0 : problem.count.sum();
+    }
+
+    /**
+     * @return true if nothing has been counted
+     */
+    public boolean isEmpty() {
+        return problems.isEmpty();
+    }
+
+    /**
+     * Forgets what has been counted, ex: at the end of a file.
+     */
+    public void clear() {
+        problems.clear();
+    }
+
+    /**
+     * @param title first line of the table, ex: naming the file
+     * @return a row per taxon and reason, in taxon then reason order
+     */
+    public String report(String title) {
+        Map<Key, Problem> sorted = new TreeMap<Key, Problem>(problems);
+        StringBuilder sb = new StringBuilder(title);
+        sb.append(String.format("%n%-10s %-40s %12s  %s", "taxon", "reason", "count",
+                "examples"));
+        for (Map.Entry<Key, Problem> entry : sorted.entrySet()) {
+            Problem problem = entry.getValue();
+            List<String> shown;
+            synchronized (problem) {
+                shown = new ArrayList<String>(problem.examples);
+            }
+            sb.append(String.format("%n%-10s %-40s %,12d", entry.getKey().taxonId,
+                    entry.getKey().reason, problem.count.sum()));
+            if (!shown.isEmpty()) {
+                sb.append("  ").append(join(shown));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String join(List<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    private static final class Key implements Comparable<Key>
+    {
+        private final String taxonId;
+        private final String reason;
+
+        Key(String taxonId, String reason) {
+            this.taxonId = taxonId;
+            this.reason = reason;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return taxonId.equals(other.taxonId) && reason.equals(other.reason);
+        }
+
+        @Override
+        public int hashCode() {
+            return taxonId.hashCode() * 31 + reason.hashCode();
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int byTaxon = taxonId.compareTo(other.taxonId);
+            return byTaxon != 0 ? byTaxon : reason.compareTo(other.reason);
+        }
+    }
+
+    private static final class Problem
+    {
+        private final LongAdder count = new LongAdder();
+        private final List<String> examples = new ArrayList<String>();
+    }
+}
@@ -0,0 +1,78 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A map holding at most a given number of entries, dropping the least
+ * recently used when another is added, ex: to remember what was made of
+ * column values that repeat across lines without holding every value.
+ * Not thread safe.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ */
+public class LruCache<K, V> extends LinkedHashMap<K, V>
+{
+    private static final long serialVersionUID = 1L;
+
+    private final int maxEntries;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Constructor
+     *
+     * @param maxEntries most entries held, 0 to hold none
+     */
+    public LruCache(int maxEntries) {
+        super(16, 0.75f, true);
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Gets the value of a key, counting a hit if it is held.  A null value
+     * may be held, so use containsKey() after a null.
+     *
+     * @param key the key
+     * @return its value, null if not held
+     */
+    public V lookup(K key) {
+        V value = get(key);
+        if (value != null || containsKey(key)) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return value;
+    }
+
+    /**
+     * @return lookups that found their key
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return lookups that didn't find their key
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > maxEntries;
+    }
+}
@@ -0,0 +1,262 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A map from String keys to String values, null allowed, held in memory
+ * mapped temporary files rather than on the heap, so what it holds costs
+ * page cache that the OS can write out rather than heap.
+ *
+ * Records are appended to a data file mapped in chunks and found through
+ * an open addressing index of record offsets in a second mapped file,
+ * remade twice the size when half full.  A record is the key's hash, the
+ * key and value lengths, -1 for a null value, then the key and value as
+ * UTF-8.  Replacing a value appends a new record.  Not thread safe.  The
+ * files are deleted by close().
+ */
+public class MappedStringTable implements Closeable
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int CHUNK_BYTES = 64 * 1024 * 1024;
+    private static final int HEADER_BYTES = 12;
+    private static final int INITIAL_SLOTS = 1 << 16;
+
+    private final File dir;
+    private final File dataFile;
+    private final RandomAccessFile data;
+    private final List<MappedByteBuffer> chunks = new ArrayList<MappedByteBuffer>();
+    // offset of the next record
+    private long end = 0;
+
+    private File indexFile = null;
+    private RandomAccessFile index = null;
+    // record offset + 1 per slot, 0 if empty; slots is a power of two
+    private MappedByteBuffer slotBuffer = null;
+    private int slots = 0;
+    private int size = 0;
+
+    /**
+     * Constructor
+     *
+     * @param dir directory for the files
+     * @throws IOException if the files can't be made
+     */
+    public MappedStringTable(File dir) throws IOException {
+        this.dir = dir;
+        dataFile = File.createTempFile("dictionary", ".data", dir);
+        data = new RandomAccessFile(dataFile, "rw");
+        mapIndex(INITIAL_SLOTS);
+    }
+
+    /**
+     * @param key a key, not null
+     * @return true if the key is held
+     */
+    public boolean containsKey(String key) {
+        return find(key.getBytes(UTF8), key.hashCode()) >= 0;
+    }
+
+    /**
+     * @param key a key, not null
+     * @return its value, null if it is null or the key isn't held
+     */
+    public String get(String key) {
+        long offset = find(key.getBytes(UTF8), key.hashCode());
+        if (offset < 0) {
+            return null;
+        }
+        MappedByteBuffer chunk = chunk(offset);
+        int at = position(offset);
+        int keyLength = chunk.getInt(at + 4);
+        int valueLength = chunk.getInt(at + 8);
+        if (valueLength < 0) {
+            return null;
+        }
+        byte[] value = new byte[valueLength];
+        int from = at + HEADER_BYTES + keyLength;
+        for (int i = 0; i < valueLength; i++) {
+            value[i] = chunk.get(from + i);
+        }
+        return new String(value, UTF8);
+    }
+
+    /**
+     * Sets the value of a key.
+     *
+     * @param key a key, not null
+     * @param value its value, may be null
+     * @throws IOException if the data file can't be grown
+     */
+    public void put(String key, String value) throws IOException {
+        byte[] keyBytes = key.getBytes(UTF8);
+        byte[] valueBytes = value == null ? null : value.getBytes(UTF8);
+        int hash = key.hashCode();
+        int length = HEADER_BYTES + keyBytes.length + (valueBytes == null ? 0 : valueBytes.length);
+        if (length > CHUNK_BYTES) {
+            throw new IllegalArgumentException("Entry of " + length + " bytes is too long: "
+                    + key);
+        }
+        if (position(end) + length > CHUNK_BYTES) {
+            // records don't cross chunks
+            end = (end / CHUNK_BYTES + 1) * CHUNK_BYTES;
+        }
+        long offset = end;
+        MappedByteBuffer chunk = chunk(offset);
+        int at = position(offset);
+        chunk.putInt(at, hash);
+        chunk.putInt(at + 4, keyBytes.length);
+        chunk.putInt(at + 8, valueBytes == null ? -1 : valueBytes.length);
+        for (int i = 0; i < keyBytes.length; i++) {
+            chunk.put(at + HEADER_BYTES + i, keyBytes[i]);
+        }
+        if (valueBytes != null) {
+            int from = at + HEADER_BYTES + keyBytes.length;
+            for (int i = 0; i < valueBytes.length; i++) {
+                chunk.put(from + i, valueBytes[i]);
+            }
+        }
+        end += length;
+
+        int slot = slot(keyBytes, hash);
+        if (slotBuffer.getLong(slot * 8) == 0) {
+            size++;
+        }
+        slotBuffer.putLong(slot * 8, offset + 1);
+        if (size * 2 > slots) {
+            remapIndex();
+        }
+    }
+
+    /**
+     * @return number of keys held
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return bytes of the files
+     */
+    public long fileBytes() {
+        return end + 8L * slots;
+    }
+
+    /**
+     * Closes and deletes the files.
+     *
+     * @throws IOException if they can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        chunks.clear();
+        slotBuffer = null;
+        try {
+            data.close();
+            index.close();
+        } finally {
+            dataFile.delete();
+            indexFile.delete();
+        }
+    }
+
+    private long find(byte[] key, int hash) {
+        long value = slotBuffer.getLong(slot(key, hash) * 8);
+        return value - 1;
+    }
+
+    /**
+     * @return the slot of the key, or the empty slot it would go in
+     */
+    private int slot(byte[] key, int hash) {
+        int mask = slots - 1;
+        int slot = SymbolTable.mix(hash) & mask;
+        while (true) {
+            long value = slotBuffer.getLong(slot * 8);
+            if (value == 0 || matches(value - 1, key, hash)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean matches(long offset, byte[] key, int hash) {
+        MappedByteBuffer chunk = chunk(offset);
+        int at = position(offset);
+        if (chunk.getInt(at) != hash || chunk.getInt(at + 4) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (chunk.get(at + HEADER_BYTES + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private MappedByteBuffer chunk(long offset) {
+        int i = (int) (offset / CHUNK_BYTES);
+        while (chunks.size() <= i) {
+            try {
+                chunks.add(data.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                        (long) chunks.size() * CHUNK_BYTES, CHUNK_BYTES));
+            } catch (IOException e) {
+                throw new RuntimeException("Can't map " + dataFile, e);
+            }
+        }
+        return chunks.get(i);
+    }
+
+    private static int position(long offset) {
+        return (int) (offset % CHUNK_BYTES);
+    }
+
+    private void mapIndex(int slotCount) throws IOException {
+        indexFile = File.createTempFile("dictionary", ".index", dir);
+        index = new RandomAccessFile(indexFile, "rw");
+        // a new mapping of a new file reads as zeros
+        slotBuffer = index.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 8L * slotCount);
+        slots = slotCount;
+    }
+
+    private void remapIndex() throws IOException {
+        if (slots >= Integer.MAX_VALUE / 16) {
+            throw new IllegalStateException("Too many entries in " + dataFile);
+        }
+        MappedByteBuffer oldSlots = slotBuffer;
+        int oldCount = slots;
+        RandomAccessFile oldIndex = index;
+        File oldFile = indexFile;
+        mapIndex(oldCount * 2);
+        int mask = slots - 1;
+        for (int i = 0; i < oldCount; i++) {
+            long value = oldSlots.getLong(i * 8);
+            if (value != 0) {
+                int slot = SymbolTable.mix(chunk(value - 1).getInt(position(value - 1))) & mask;
+                while (slotBuffer.getLong(slot * 8) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slotBuffer.putLong(slot * 8, value);
+            }
+        }
+        oldIndex.close();
+        oldFile.delete();
+    }
+}
@@ -0,0 +1,159 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A map from String keys to String values, or a set of Strings, for what a
+ * converter remembers across files, ex: the item made for each publication.
+ *
+ * The first heapEntries keys are held on the heap in a SymbolTable with
+ * their values in an array.  Given a directory, keys after those go to a
+ * MappedStringTable there, so heap use stays flat however many are added;
+ * without one, the heap tier takes every key.  A BloomFilter over all keys
+ * answers most lookups of keys never added without probing either tier.
+ * Not thread safe.
+ */
+public class StringDictionary implements Closeable
+{
+    private final int heapEntries;
+    private final File overflowDir;
+    private final SymbolTable keys = new SymbolTable();
+    private String[] values = new String[1024];
+    private final BloomFilter added;
+    private MappedStringTable overflow = null;
+
+    /**
+     * Constructor
+     *
+     * @param heapEntries most keys held on the heap if there is an overflow
+     * directory
+     * @param overflowDir directory for the keys past heapEntries, null to
+     * hold every key on the heap
+     * @param expectedEntries keys expected, to size the Bloom filter
+     */
+    public StringDictionary(int heapEntries, File overflowDir, int expectedEntries) {
+        this.heapEntries = overflowDir == null ? Integer.MAX_VALUE : heapEntries;
+        this.overflowDir = overflowDir;
+        added = new BloomFilter(expectedEntries);
+    }
+
+    /**
+     * @param key a key, not null
+     * @return its value, null if it is null or the key isn't held
+     */
+    public String get(String key) {
+        if (!added.mightContain(key)) {
+            return null;
+        }
+        int id = keys.lookup(key);
+        if (id >= 0) {
+            return values[id];
+        }
+        return overflow == null ? null : overflow.get(key);
+    }
+
+    /**
+     * @param key a key, not null
+     * @return true if the key is held
+     */
+    public boolean containsKey(String key) {
+        if (!added.mightContain(key)) {
+            return false;
+        }
+        return keys.lookup(key) >= 0 || (overflow != null && overflow.containsKey(key));
+    }
+
+    /**
+     * Sets the value of a key.
+     *
+     * @param key a key, not null
+     * @param value its value, may be null
+     */
+    public void put(String key, String value) {
+        int id = keys.lookup(key);
+        if (id >= 0) {
+            values[id] = value;
+            return;
+        }
+        try {
+            // the heap tier is full before there is an overflow
+            if (keys.size() < heapEntries) {
+                id = keys.intern(key);
+                if (id == values.length) {
+                    String[] grown = new String[values.length * 2];
+                    System.arraycopy(values, 0, grown, 0, values.length);
+                    values = grown;
+                }
+                values[id] = value;
+            } else {
+                if (overflow == null) {
+                    overflow = new MappedStringTable(overflowDir);
+                }
+                overflow.put(key, value);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Can't add to dictionary in " + overflowDir, e);
+        }
+        added.add(key);
+    }
+
+    /**
+     * Adds a key with no value, for a dictionary used as a set.
+     *
+     * @param key a key, not null
+     * @return true if the key wasn't held
+     */
+    public boolean add(String key) {
+        if (containsKey(key)) {
+            return false;
+        }
+        put(key, null);
+        return true;
+    }
+
+    /**
+     * @return number of keys held
+     */
+    public int size() {
+        return keys.size() + (overflow == null ? 0 : overflow.size());
+    }
+
+    /**
+     * @return number of keys held in the overflow files
+     */
+    public int overflowSize() {
+        return overflow == null ? 0 : overflow.size();
+    }
+
+    /**
+     * @return estimated bytes held on the heap, not counting the Strings
+     */
+    public long tableBytes() {
+        return keys.tableBytes() + 4L * values.length + added.tableBytes();
+    }
+
+    /**
+     * Deletes the overflow files, if any.
+     *
+     * @throws IOException if they can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (overflow != null) {
+            overflow.close();
+            overflow = null;
+        }
+    }
+}
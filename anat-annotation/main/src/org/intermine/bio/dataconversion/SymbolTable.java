@@ -0,0 +1,123 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * Gives each distinct String an int, from 0 in the order first seen, and
+ * holds one copy of it, so keys made of several Strings can be held as ints.
+ * Open addressing over arrays, with no entry objects.
+ */
+public class SymbolTable
+{
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private String[] symbols = new String[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    // symbol + 1 per slot, 0 if empty; length is a power of two
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+    private int size = 0;
+
+    /**
+     * @param symbol a String, not null
+     * @return its int, given now if this hasn't seen it
+     */
+    public int intern(String symbol) {
+        int hash = symbol.hashCode();
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && symbols[id].equals(symbol)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == symbols.length) {
+            grow();
+            return intern(symbol);
+        }
+        int id = size++;
+        symbols[id] = symbol;
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+        return id;
+    }
+
+    /**
+     * @param symbol a String
+     * @return its int, -1 if this hasn't seen it
+     */
+    public int lookup(String symbol) {
+        int hash = symbol.hashCode();
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && symbols[id].equals(symbol)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @param id an int given by intern()
+     * @return the String it was given for
+     */
+    public String get(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("No symbol " + id + ", " + size + " held");
+        }
+        return symbols[id];
+    }
+
+    /**
+     * @return number of Strings held
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return estimated bytes held by the tables, not the Strings
+     */
+    public long tableBytes() {
+        return 4L * (symbols.length + hashes.length + slots.length);
+    }
+
+    private void grow() {
+        String[] newSymbols = new String[symbols.length * 2];
+        System.arraycopy(symbols, 0, newSymbols, 0, size);
+        symbols = newSymbols;
+        int[] newHashes = new int[hashes.length * 2];
+        System.arraycopy(hashes, 0, newHashes, 0, size);
+        hashes = newHashes;
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+    /**
+     * Spreads String hashes, whose low bits are poor for similar
+     * identifiers, ex: WBGene00000001, WBGene00000002.
+     */
+    static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -10,6 +10,7 @@ package org.intermine.bio.postprocess;
  *
  */
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -17,6 +18,8 @@ import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.intermine.bio.dataconversion.LoadEvents;
+import org.intermine.bio.dataconversion.LoadMetrics;
 import org.intermine.bio.util.Constants;
 import org.intermine.model.bio.GOAnnotation;
 import org.intermine.model.bio.GOEvidence;
@@ -62,11 +65,42 @@ public class GoPostprocess extends PostProcessor
 
 
     /**
-     * Copy all GO annotations from the Protein objects to the corresponding Gene(s)
+     * Copy all GO annotations from the Protein objects to the corresponding Gene(s).  With
+     * -Dintermine.jfr.events=true an annotation merged event is emitted for each gene, with
+     * -Dintermine.metrics.file=path genes, annotations and time per gene are written there
+     * for node_exporter's textfile collector.
      * @throws ObjectStoreException if anything goes wrong
      */
     @Override
     public void postProcess() throws ObjectStoreException {
+        LoadMetrics metrics = LoadMetrics.openFromSystemProperty(60);
+        try {
+            copyAnnotations(metrics);
+        } finally {
+            if (metrics != null) {
+                try {
+                    metrics.close();
+                } catch (IOException e) {
+                    LOG.warn("Failed to write metrics: " + e);
+                }
+            }
+        }
+    }
+
+    private void copyAnnotations(LoadMetrics metrics) throws ObjectStoreException {
+        LoadMetrics.Counter genesMetric = null;
+        LoadMetrics.Counter annotationsMetric = null;
+        LoadMetrics.Histogram geneSeconds = null;
+        if (metrics != null) {
+            genesMetric = metrics.counter("intermine_load_items_stored_total", "Items stored",
+                    "source", "go-postprocess", "class", "Gene");
+            annotationsMetric = metrics.counter("intermine_load_items_stored_total",
+                    "Items stored", "source", "go-postprocess", "class", "GOAnnotation");
+            geneSeconds = metrics.histogram("intermine_load_stage_seconds",
+                    "Time taken by each stage, per record or per flush",
+                    "source", "go-postprocess", "stage", "merge");
+        }
+        long geneStart = System.nanoTime();
 
         long startTime = System.currentTimeMillis();
 
@@ -77,6 +111,8 @@ public class GoPostprocess extends PostProcessor
         int count = 0;
         Gene lastGene = null;
         Map<OntologyTerm, GOAnnotation> annotations = new HashMap<OntologyTerm, GOAnnotation>();
+        // covers a gene's rows, merging and storing
+        Object mergedEvent = LoadEvents.beginAnnotationMerged();
 
         while (resIter.hasNext()) {
             ResultsRow<?> rr = (ResultsRow<?>) resIter.next();
@@ -92,6 +128,15 @@ public class GoPostprocess extends PostProcessor
                 LOG.debug("store gene " + lastGene.getSecondaryIdentifier() + " with "
                         + lastGene.getGoAnnotation().size() + " GO.");
                 osw.store(lastGene);
+                LoadEvents.annotationMerged(mergedEvent, "Gene", lastGene.getSecondaryIdentifier(),
+                        annotations.size());
+                mergedEvent = LoadEvents.beginAnnotationMerged();
+                if (metrics != null) {
+                    genesMetric.inc();
+                    annotationsMetric.add(annotations.size());
+                    geneSeconds.observeSince(geneStart);
+                    geneStart = System.nanoTime();
+                }
 
                 lastGene = thisGene;
                 annotations = new HashMap<OntologyTerm, GOAnnotation>();
@@ -125,6 +170,13 @@ public class GoPostprocess extends PostProcessor
             LOG.debug("store gene " + lastGene.getSecondaryIdentifier() + " with "
                     + lastGene.getGoAnnotation().size() + " GO.");
             osw.store(lastGene);
+            LoadEvents.annotationMerged(mergedEvent, "Gene", lastGene.getSecondaryIdentifier(),
+                    annotations.size());
+            if (metrics != null) {
+                genesMetric.inc();
+                annotationsMetric.add(annotations.size());
+                geneSeconds.observeSince(geneStart);
+            }
         }
 
         LOG.info("Created " + count + " new GOAnnotation objects for Genes"
@@ -0,0 +1,53 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+public class EcoCodesTest extends TestCase
+{
+    public EcoCodesTest(String arg) {
+        super(arg);
+    }
+
+    public void testDefaults() throws Exception {
+        EcoCodes codes = new EcoCodes();
+        assertEquals("IDA", codes.getCode("ECO:0000314"));
+        assertEquals("IEA", codes.getCode("ECO:0000501"));
+        assertEquals("IEA", codes.getCode("ECO:0000256"));
+        assertNull(codes.getCode("ECO:0000000"));
+    }
+
+    public void testRead() throws Exception {
+        EcoCodes codes = new EcoCodes();
+        String file = "# GO Evidence Code\tReference\tECO ID\n"
+            + "IMP\tDefault\tECO:0000314\n"
+            + "IEA\tGO_REF:0000002\tECO:0000001\n"
+            + "ISS\tGO_REF:0000024\tECO:0000001\n"
+            + "ECO:0000002\tIPI\tDefault\n";
+        assertEquals(3, codes.read(new StringReader(file)));
+        assertEquals("IMP", codes.getCode("ECO:0000314"));
+        // the first non-default line of a class applies
+        assertEquals("IEA", codes.getCode("ECO:0000001"));
+        assertEquals("IPI", codes.getCode("ECO:0000002"));
+        assertEquals("IMP", codes.getCode("ECO:0000315"));
+
+        try {
+            codes.read(new StringReader("IDA\tDefault\tnone\n"));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+public class GafTokenizerTest extends TestCase
+{
+    public GafTokenizerTest(String arg) {
+        super(arg);
+    }
+
+    public void testSameAsSplit() throws Exception {
+        StringBuilder sb = new StringBuilder("!gaf-version: 2.0\r\n\r\n");
+        for (int i = 0; i < 3000; i++) {
+            sb.append("FB\tFBgn" + i + "\tsym\t\tGO:000" + (i % 7) + "\tPMID:" + i
+                    + "|FB:FBrf1\tIDA\t\tP\t\t\tgene\ttaxon:7227\t20100101\tFB\t\t");
+            sb.append(i % 3 == 0 ? "\r\n" : (i % 3 == 1 ? "\n" : "\r"));
+        }
+        sb.append("last\tline");
+        String text = sb.toString();
+
+        BufferedReader expected = new BufferedReader(new StringReader(text));
+        GafTokenizer line = new GafTokenizer(new OneCharReader(new StringReader(text)));
+        String expectedLine;
+        while ((expectedLine = expected.readLine()) != null) {
+            assertTrue(line.next());
+            String[] columns = expectedLine.split("\t", -1);
+            assertEquals(expectedLine, line.line());
+            assertEquals(expectedLine.length(), line.lineLength());
+            assertEquals(expectedLine.startsWith("!"), line.isComment());
+            assertEquals(columns.length, line.columnCount());
+            for (int i = 0; i < columns.length; i++) {
+                assertEquals(columns[i], line.column(i));
+            }
+        }
+        assertFalse(line.next());
+    }
+
+    public void testRepeatedColumnReused() throws Exception {
+        GafTokenizer line = new GafTokenizer(new StringReader("FB\tGO:1\nFB\tGO:2\n"));
+        assertTrue(line.next());
+        String dataSource = line.column(0);
+        assertTrue(line.next());
+        assertSame(dataSource, line.column(0));
+        assertEquals("GO:2", line.column(1));
+        assertEquals(2, line.lineNumber());
+    }
+
+    public void testUnread() throws Exception {
+        GafTokenizer line = new GafTokenizer(new StringReader("!gpad-version: 2.0\nWB:1\tGO:1\n"));
+        assertTrue(line.next());
+        line.unread();
+        assertTrue(line.next());
+        assertEquals("!gpad-version: 2.0", line.line());
+        assertEquals(1, line.lineNumber());
+        assertTrue(line.next());
+        assertEquals("GO:1", line.column(1));
+        assertFalse(line.next());
+        try {
+            line.unread();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testTaxonId() throws Exception {
+        GafTokenizer line = new GafTokenizer(new StringReader(
+                "taxon:7227\ntaxon:7227|taxon:9606\ntaxon:\n"));
+        assertTrue(line.next());
+        String taxonId = line.taxonId(0);
+        assertEquals("7227", taxonId);
+        assertTrue(line.next());
+        assertSame(taxonId, line.taxonId(0));
+        assertTrue(line.next());
+        try {
+            line.taxonId(0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Gives one char at a time, so every line crosses a buffer fill.
+     */
+    private static class OneCharReader extends FilterReader
+    {
+        OneCharReader(Reader in) {
+            super(in);
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            return super.read(buffer, offset, Math.min(length, 1));
+        }
+    }
+}
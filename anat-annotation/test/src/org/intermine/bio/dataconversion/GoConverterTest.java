@@ -10,20 +10,30 @@ package org.intermine.bio.dataconversion;
  *
  */
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.apache.commons.lang.StringUtils;
 import org.intermine.dataconversion.ItemsTestCase;
 import org.intermine.dataconversion.MockItemWriter;
 import org.intermine.metadata.Model;
+import org.intermine.xml.full.Attribute;
 import org.intermine.xml.full.Item;
 import org.intermine.xml.full.ItemFactory;
+import org.intermine.xml.full.Reference;
+import org.intermine.xml.full.ReferenceList;
 
 
 public class GoConverterTest extends ItemsTestCase
@@ -44,21 +54,93 @@ public class GoConverterTest extends ItemsTestCase
             getClass().getClassLoader().getResourceAsStream("go-tiny.obo"));
         writeTempFile(goOboFile, goOboReader);
         writer = new MockItemWriter(new LinkedHashMap<String, org.intermine.model.fulldata.Item>());
-        converter = new GoConverter(writer, model);
-        converter.setGaff("2.0");
+        converter = newConverter(writer);
+    }
+
+    private GoConverter newConverter(MockItemWriter itemWriter) throws Exception {
+        GoConverter goConverter = new GoConverter(itemWriter, model);
+        goConverter.setGaff("2.0");
+
+        goConverter.rslv = IdResolverService.getMockIdResolver("Gene");
+        goConverter.rslv.addResolverEntry("7227", "FBgn0004168", Collections.singleton("FBgn0020002"));
+        goConverter.rslv.addResolverEntry("7227", "FBgn0015567", Collections.singleton("FBgn0015567"));
+        goConverter.rslv.addResolverEntry("7227", "FBgn0026430", Collections.singleton("FBgn0026430"));
+        goConverter.rslv.addResolverEntry("7227", "FBgn0001612", Collections.singleton("FBgn0001612"));
+
+        goConverter.rslv = IdResolverService.getMockIdResolver("Go");
+        goConverter.rslv.addResolverEntry("0", "GO:1234567", Collections.singleton("GO:9999999"));
+        goConverter.rslv.addResolverEntry("0", "GO:0000011:", Collections.singleton("GO:0000011"));
+        goConverter.rslv.addResolverEntry("0", "GO:0000004", Collections.singleton("GO:0000004"));
+        goConverter.rslv.addResolverEntry("0", "GO:0000005", Collections.singleton("GO:0000005"));
+        goConverter.rslv.addResolverEntry("0", "GO:0000001", Collections.singleton("GO:0000001"));
+        return goConverter;
+    }
 
-        converter.rslv = IdResolverService.getMockIdResolver("Gene");
-        converter.rslv.addResolverEntry("7227", "FBgn0004168", Collections.singleton("FBgn0020002"));
-        converter.rslv.addResolverEntry("7227", "FBgn0015567", Collections.singleton("FBgn0015567"));
-        converter.rslv.addResolverEntry("7227", "FBgn0026430", Collections.singleton("FBgn0026430"));
-        converter.rslv.addResolverEntry("7227", "FBgn0001612", Collections.singleton("FBgn0001612"));
+    private String readResource(String name) throws Exception {
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                getClass().getClassLoader().getResourceAsStream(name)));
+        StringBuilder text = new StringBuilder();
+        String line;
+        while ((line = in.readLine()) != null) {
+            text.append(line).append('\n');
+        }
+        in.close();
+        return text.toString();
+    }
 
-        converter.rslv = IdResolverService.getMockIdResolver("Go");
-        converter.rslv.addResolverEntry("0", "GO:1234567", Collections.singleton("GO:9999999"));
-        converter.rslv.addResolverEntry("0", "GO:0000011:", Collections.singleton("GO:0000011"));
-        converter.rslv.addResolverEntry("0", "GO:0000004", Collections.singleton("GO:0000004"));
-        converter.rslv.addResolverEntry("0", "GO:0000005", Collections.singleton("GO:0000005"));
-        converter.rslv.addResolverEntry("0", "GO:0000001", Collections.singleton("GO:0000001"));
+    private GoConverter newConverter() throws Exception {
+        return newConverter(
+                new MockItemWriter(new LinkedHashMap<String, org.intermine.model.fulldata.Item>()));
+    }
+
+    private List<String> convert(GoConverter goConverter, String gaf) throws Exception {
+        goConverter.process(new StringReader(gaf));
+        goConverter.close();
+        return describe(((MockItemWriter) goConverter.getItemWriter()).getItems());
+    }
+
+    /**
+     * Describes items by their class, attributes, references and collections,
+     * with the items referred to by their class and attributes, so that items
+     * made in a different order, with other identifiers, compare equal.
+     */
+    private static List<String> describe(Set<Item> items) {
+        Map<String, Item> byIdentifier = new HashMap<String, Item>();
+        for (Item item : items) {
+            byIdentifier.put(item.getIdentifier(), item);
+        }
+        List<String> described = new ArrayList<String>();
+        for (Item item : items) {
+            List<String> fields = new ArrayList<String>();
+            for (Reference reference : item.getReferences()) {
+                fields.add(reference.getName() + "->"
+                        + summary(byIdentifier.get(reference.getRefId())));
+            }
+            for (ReferenceList collection : item.getCollections()) {
+                List<String> refs = new ArrayList<String>();
+                for (String refId : collection.getRefIds()) {
+                    refs.add(summary(byIdentifier.get(refId)));
+                }
+                Collections.sort(refs);
+                fields.add(collection.getName() + "=" + refs);
+            }
+            Collections.sort(fields);
+            described.add(summary(item) + fields);
+        }
+        Collections.sort(described);
+        return described;
+    }
+
+    private static String summary(Item item) {
+        if (item == null) {
+            return null;
+        }
+        List<String> attributes = new ArrayList<String>();
+        for (Attribute attribute : item.getAttributes()) {
+            attributes.add(attribute.getName() + "=" + attribute.getValue());
+        }
+        Collections.sort(attributes);
+        return item.getClassName() + attributes;
     }
 
     private void writeTempFile(File outFile, Reader srcFileReader) throws Exception {
@@ -87,6 +169,241 @@ public class GoConverterTest extends ItemsTestCase
         assertEquals(readItemSet("GoConverterOboTest_tgt.xml"), writer.getItems());
     }
 
+    public void testProcessThreads() throws Exception {
+        converter.setThreads("4");
+        Reader reader = new InputStreamReader(
+                getClass().getClassLoader().getResourceAsStream("synbio_test"));
+        converter.process(reader);
+        converter.close();
+
+        assertEquals(readItemSet("GoConverterOboTest_tgt.xml"), writer.getItems());
+    }
+
+    public void testProcessThreadsBatches() throws Exception {
+        // batches of 4 lines, with an annotation's lines in several batches:
+        // codes and PMIDs added to it in later batches, PMIDs repeated, and
+        // with text naming products of other lines
+        GoConverter threaded = newConverter();
+        threaded.setThreads("4");
+        threaded.batchLines = 4;
+        String gaf = readResource("synbio_batches_test");
+        assertEquals(convert(newConverter(), gaf), convert(threaded, gaf));
+    }
+
+    public void testEvidenceCodesAndPublications() throws Exception {
+        // C0H3Q1's annotation has one code, C0H3Q4's two and C0H3P8's three,
+        // with PMIDs repeated and IDA given more than are searched unindexed
+        StringBuilder gaf = new StringBuilder("!gaf-version: 2.0\n");
+        gaf.append(gafLine("C0H3Q1", "IDA", 1)).append(gafLine("C0H3Q1", "IDA", 1));
+        gaf.append(gafLine("C0H3Q4", "IDA", 1)).append(gafLine("C0H3Q4", "IMP", 2));
+        gaf.append(gafLine("C0H3Q4", "IDA", 2)).append(gafLine("C0H3Q4", "IMP", 2));
+        gaf.append(gafLine("C0H3P8", "IDA", 1)).append(gafLine("C0H3P8", "IMP", 2));
+        gaf.append(gafLine("C0H3P8", "ISS", 3)).append(gafLine("C0H3P8", "IMP", 2));
+        for (int pubMedId = 4; pubMedId <= 12; pubMedId++) {
+            gaf.append(gafLine("C0H3P8", "IDA", pubMedId));
+        }
+        gaf.append(gafLine("C0H3P8", "IDA", 1)).append(gafLine("C0H3P8", "IDA", 9));
+        gaf.append(gafLine("C0H3P8", "ISS", 3));
+
+        List<String> expected = new ArrayList<String>();
+        expected.add(evidence("IDA", 1));
+        expected.add(evidence("IDA", 1, 2));
+        expected.add(evidence("IMP", 2));
+        expected.add(evidence("IDA", 1, 4, 5, 6, 7, 8, 9, 10, 11, 12));
+        expected.add(evidence("IMP", 2));
+        expected.add(evidence("ISS", 3));
+        Collections.sort(expected);
+
+        GoConverter threaded = newConverter();
+        threaded.setThreads("4");
+        threaded.batchLines = 4;
+        for (GoConverter goConverter : new GoConverter[] {newConverter(), threaded}) {
+            List<String> evidence = new ArrayList<String>();
+            int annotations = 0;
+            for (String item : convert(goConverter, gaf.toString())) {
+                if (item.startsWith("GOEvidence[]")) {
+                    evidence.add(item);
+                } else if (item.startsWith("GOAnnotation")) {
+                    annotations++;
+                }
+            }
+            assertEquals(expected, evidence);
+            assertEquals(3, annotations);
+        }
+    }
+
+    public void testFindAndAddEvidence() throws Exception {
+        SymbolTable symbols = new SymbolTable();
+        IntTupleMap<GoConverter.Evidence> byCode = new IntTupleMap<GoConverter.Evidence>();
+        List<GoConverter.Evidence> annotation = new ArrayList<GoConverter.Evidence>();
+        GoConverter.Evidence ida = converter.new Evidence("IDA", "1_1", null, null, null, null);
+        annotation.add(ida);
+
+        // one code isn't indexed
+        assertSame(ida, GoConverter.findEvidence(annotation, 0, "IDA", symbols, byCode));
+        assertNull(GoConverter.findEvidence(annotation, 0, "IMP", symbols, byCode));
+        assertEquals(0, byCode.size());
+
+        // a second indexes both
+        GoConverter.Evidence imp = converter.new Evidence("IMP", "1_2", null, null, null, null);
+        GoConverter.addEvidence(annotation, 0, imp, symbols, byCode);
+        assertEquals(2, annotation.size());
+        assertEquals(2, byCode.size());
+        assertSame(ida, GoConverter.findEvidence(annotation, 0, "IDA", symbols, byCode));
+        assertSame(imp, GoConverter.findEvidence(annotation, 0, "IMP", symbols, byCode));
+        assertNull(GoConverter.findEvidence(annotation, 0, "ISS", symbols, byCode));
+
+        GoConverter.Evidence iss = converter.new Evidence("ISS", null, null, null, null, null);
+        GoConverter.addEvidence(annotation, 0, iss, symbols, byCode);
+        assertEquals(3, annotation.size());
+        assertEquals(3, byCode.size());
+        assertSame(ida, GoConverter.findEvidence(annotation, 0, "IDA", symbols, byCode));
+        assertSame(imp, GoConverter.findEvidence(annotation, 0, "IMP", symbols, byCode));
+        assertSame(iss, GoConverter.findEvidence(annotation, 0, "ISS", symbols, byCode));
+
+        // codes are indexed by annotation entry
+        assertNull(GoConverter.findEvidence(annotation, 1, "IDA", symbols, byCode));
+    }
+
+    public void testAddPublicationRefId() throws Exception {
+        GoConverter.Evidence evidence =
+            converter.new Evidence("IDA", "1_1", null, null, null, null);
+        evidence.addPublicationRefId("1_1");
+        evidence.addPublicationRefId(null);
+        assertEquals(Collections.singletonList("1_1"), evidence.getPublications());
+
+        // the ninth is past those searched unindexed
+        List<String> expected = new ArrayList<String>();
+        for (int i = 1; i <= 9; i++) {
+            expected.add("1_" + i);
+            evidence.addPublicationRefId("1_" + i);
+        }
+        assertEquals(expected, evidence.getPublications());
+        for (int i = 1; i <= 9; i++) {
+            evidence.addPublicationRefId("1_" + i);
+        }
+        evidence.addPublicationRefId("1_10");
+        expected.add("1_10");
+        assertEquals(expected, evidence.getPublications());
+    }
+
+    private static String gafLine(String product, String code, int pubMedId) {
+        return "UniProtKB\t" + product + "\t\t\tGO:0016020\tPMID:" + pubMedId + "\t" + code
+            + "\t\tC\t\t\tprotein\ttaxon:224308\t20130914\tUniProt\t\t\n";
+    }
+
+    /**
+     * @return how describe() gives GOEvidence without with text
+     */
+    private static String evidence(String code, int... pubMedIds) {
+        List<String> publications = new ArrayList<String>();
+        for (int pubMedId : pubMedIds) {
+            publications.add("Publication[pubMedId=" + pubMedId + "]");
+        }
+        Collections.sort(publications);
+        return "GOEvidence[][code->GOEvidenceCode[code=" + code + "], publications="
+            + publications + "]";
+    }
+
+    public void testProcessSortedInput() throws Exception {
+        converter.setSortedInput("true");
+        Reader reader = new InputStreamReader(
+                getClass().getClassLoader().getResourceAsStream("synbio_test"));
+        converter.process(reader);
+        converter.close();
+
+        assertEquals(readItemSet("GoConverterOboTest_tgt.xml"), writer.getItems());
+    }
+
+    public void testSortedInputFallsBackWhenUnsorted() throws Exception {
+        // without with text, which makes an annotation of every line, the first
+        // annotation moved to the end, after the other products, then another
+        // code for the second, which is stored by then
+        String first = null;
+        String second = null;
+        StringBuilder unsorted = new StringBuilder();
+        for (String line : readResource("synbio_test").split("\n")) {
+            if (!line.startsWith("!")) {
+                String[] columns = line.split("\t", -1);
+                columns[7] = "";
+                line = StringUtils.join(columns, '\t');
+                if (first == null) {
+                    first = line;
+                    continue;
+                } else if (second == null) {
+                    second = line;
+                }
+            }
+            unsorted.append(line).append('\n');
+        }
+        unsorted.append(first).append('\n');
+        unsorted.append(second.replace("GO_REF:0000037\tIEA", "PMID:21536917\tIDA")).append('\n');
+
+        // C0H3P8's second annotation has both codes, not a second annotation
+        GoConverter sortedInput = newConverter();
+        sortedInput.setSortedInput("true");
+        List<String> expected = convert(newConverter(), unsorted.toString());
+        assertEquals(expected, convert(sortedInput, unsorted.toString()));
+        int annotations = 0;
+        for (String item : expected) {
+            if (item.startsWith("GOAnnotation")) {
+                annotations++;
+            }
+        }
+        assertEquals(7, annotations);
+    }
+
+    public void testSortedInputWithObjects() throws Exception {
+        // with products of other lines, before and after, and from FlyBase
+        String gaf = readResource("synbio_with_test");
+        GoConverter sortedInput = newConverter();
+        sortedInput.setSortedInput("true");
+        List<String> expected = convert(newConverter(), gaf);
+        assertEquals(expected, convert(sortedInput, gaf));
+        boolean laterProduct = false;
+        for (String item : expected) {
+            if (item.startsWith("GOEvidence[withText=UniProt:C0H3Q4|UniProt:P35224]")) {
+                laterProduct = item.contains("with=[Protein[primaryAccession=C0H3Q4]");
+            }
+        }
+        assertTrue(expected.toString(), laterProduct);
+    }
+
+    public void testProcessGpad() throws Exception {
+        // the GPI file's entities first, then their GPAD annotations
+        converter.process(new InputStreamReader(
+                getClass().getClassLoader().getResourceAsStream("synbio_test.gpi")));
+        converter.process(new InputStreamReader(
+                getClass().getClassLoader().getResourceAsStream("synbio_test.gpad")));
+        converter.close();
+
+        assertEquals(readItemSet("GoConverterOboTest_tgt.xml"), writer.getItems());
+    }
+
+    public void testGpadBeforeGpiFails() throws Exception {
+        try {
+            converter.process(new InputStreamReader(
+                    getClass().getClassLoader().getResourceAsStream("synbio_test.gpad")));
+            fail("no GPI entities were read");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("gpi.file"));
+        }
+    }
+
+    public void testGpiAfterGpadFails() throws Exception {
+        converter.process(new InputStreamReader(
+                getClass().getClassLoader().getResourceAsStream("synbio_test.gpi")));
+        converter.process(new InputStreamReader(
+                getClass().getClassLoader().getResourceAsStream("synbio_test.gpad")));
+        try {
+            converter.process(new InputStreamReader(
+                    getClass().getClassLoader().getResourceAsStream("synbio_test.gpi")));
+            fail("the GPAD file before may have had lines of its entities");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("gpi.file"));
+        }
+    }
+
     public void testCreateWithObjects() throws Exception {
         ItemFactory tgtItemFactory = new ItemFactory(Model.getInstanceByName("genomic"));
         Item organism = tgtItemFactory.makeItem("3_1", "Organism", "");
@@ -0,0 +1,38 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+public class GpiEntitiesTest extends TestCase
+{
+    public GpiEntitiesTest(String arg) {
+        super(arg);
+    }
+
+    public void testAddAndFind() throws Exception {
+        GpiEntities entities = new GpiEntities();
+        for (int i = 0; i < 3000; i++) {
+            entities.add("WB:WBGene" + i, "gene-" + i, new String(i % 2 == 0 ? "6239" : "6238"));
+        }
+        entities.add("WB:WBGene7", "renamed", "6239");
+        assertEquals(3000, entities.size());
+        assertEquals(-1, entities.find("WB:WBGene3000"));
+
+        int entity = entities.find("WB:WBGene2999");
+        assertEquals("gene-2999", entities.getSymbol(entity));
+        assertEquals("6238", entities.getTaxonId(entity));
+        assertEquals("renamed", entities.getSymbol(entities.find("WB:WBGene7")));
+        // each taxon is held once
+        assertSame(entities.getTaxonId(entities.find("WB:WBGene0")),
+                entities.getTaxonId(entities.find("WB:WBGene2")));
+    }
+}
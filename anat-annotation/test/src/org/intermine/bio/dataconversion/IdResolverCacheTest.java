@@ -0,0 +1,112 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+public class IdResolverCacheTest extends TestCase
+{
+    private IdResolver resolver;
+
+    public IdResolverCacheTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        resolver = IdResolverService.getMockIdResolver("Gene");
+        resolver.addResolverEntry("7227", "FBgn0000001", Collections.singleton("CG1234"));
+    }
+
+    public void testHitsAndMisses() throws Exception {
+        IdResolverCache cache = new IdResolverCache(resolver, null);
+        IdResolverCache.Resolution resolution = cache.resolve("7227", "CG1234");
+        assertEquals(1, resolution.getCount());
+        assertEquals("FBgn0000001", resolution.getId());
+        assertSame(resolution, cache.resolve("7227", "CG1234"));
+
+        IdResolverCache.Resolution unresolved = cache.resolve("7227", "FBgn0000099");
+        assertEquals(0, unresolved.getCount());
+        assertNull(unresolved.getId());
+        assertSame(unresolved, cache.resolve("7227", "FBgn0000099"));
+
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.size());
+    }
+
+    public void testSaved() throws Exception {
+        File file = File.createTempFile("IdResolverCacheTest", ".tsv");
+        file.delete();
+        try {
+            IdResolverCache cache = new IdResolverCache(resolver, file);
+            cache.resolve("7227", "CG1234");
+            cache.resolve("7227", "FBgn0000099");
+            cache.save();
+
+            IdResolverCache read = new IdResolverCache(resolver, file);
+            assertEquals(2, read.size());
+            assertEquals("FBgn0000001", read.resolve("7227", "CG1234").getId());
+            assertEquals(0, read.resolve("7227", "FBgn0000099").getCount());
+            assertEquals(0, read.getMisses());
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testDiscardedWhenResolverChanges() throws Exception {
+        File dir = File.createTempFile("IdResolverCacheTest", "");
+        dir.delete();
+        dir.mkdir();
+        File file = new File(dir, "resolutions.tsv");
+        resolver.addResolverEntry("6239", "WBGene00000001", Collections.singleton("aap-1"));
+        try {
+            IdResolverCache cache = new IdResolverCache(resolver, file);
+            cache.resolve("7227", "CG1234");
+            cache.resolve("7227", "CG5678");
+            cache.resolve("6239", "aap-1");
+            cache.save();
+            assertEquals(1, dir.listFiles().length); // no temporary file left
+
+            // Rebuilt with another fly gene, the fly resolutions may be wrong
+            resolver.addResolverEntry("7227", "FBgn0000002", Collections.singleton("CG5678"));
+            IdResolverCache read = new IdResolverCache(resolver, file);
+            assertEquals(1, read.size());
+            assertEquals("WBGene00000001", read.resolve("6239", "aap-1").getId());
+            assertEquals("FBgn0000002", read.resolve("7227", "CG5678").getId());
+            assertEquals(1, read.getMisses());
+
+            read.save();
+            assertEquals(2, new IdResolverCache(resolver, file).size());
+        } finally {
+            file.delete();
+            dir.delete();
+        }
+    }
+
+    public void testFileWithoutFingerprintsIsDiscarded() throws Exception {
+        File file = File.createTempFile("IdResolverCacheTest", ".tsv");
+        try {
+            Writer out = new FileWriter(file);
+            out.write("7227\tCG1234\t1\tFBgn0000099\n");
+            out.close();
+            IdResolverCache read = new IdResolverCache(resolver, file);
+            assertEquals(0, read.size());
+            assertEquals("FBgn0000001", read.resolve("7227", "CG1234").getId());
+        } finally {
+            file.delete();
+        }
+    }
+}
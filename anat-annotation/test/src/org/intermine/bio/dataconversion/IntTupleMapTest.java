@@ -0,0 +1,36 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+public class IntTupleMapTest extends TestCase
+{
+    public IntTupleMapTest(String arg) {
+        super(arg);
+    }
+
+    public void testInsertionOrder() throws Exception {
+        IntTupleMap<String> map = new IntTupleMap<String>();
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i, map.put(i, i % 7, 0, 0, "v" + i));
+        }
+        // replacing a value keeps its place
+        assertEquals(10, map.put(10, 3, 0, 0, "replaced"));
+        assertEquals(5000, map.size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i == 10 ? "replaced" : "v" + i, map.value(i));
+            assertEquals(i, map.find(i, i % 7, 0, 0));
+        }
+        assertNull(map.get(1, 2, 0, 0));
+        assertEquals(-1, map.find(0, 0, 0, 1));
+    }
+}
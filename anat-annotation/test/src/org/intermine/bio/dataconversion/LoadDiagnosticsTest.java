@@ -0,0 +1,45 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+public class LoadDiagnosticsTest extends TestCase
+{
+    public LoadDiagnosticsTest(String arg) {
+        super(arg);
+    }
+
+    public void testCountAndReport() throws Exception {
+        LoadDiagnostics diagnostics = new LoadDiagnostics(2);
+        assertTrue(diagnostics.isEmpty());
+        diagnostics.count("6239", "gene not resolved", "WBGene1");
+        diagnostics.count("6239", "gene not resolved", "WBGene1");
+        diagnostics.count("6239", "gene not resolved", "WBGene2");
+        diagnostics.count("6239", "gene not resolved", "WBGene3");
+        diagnostics.count("7227", "no config", null);
+
+        assertEquals(4, diagnostics.getCount("6239", "gene not resolved"));
+        assertEquals(1, diagnostics.getCount("7227", "no config"));
+        assertEquals(0, diagnostics.getCount("7227", "gene not resolved"));
+
+        String[] lines = diagnostics.report("a.gaf:").split("\\r?\\n");
+        assertEquals(4, lines.length);
+        assertEquals("a.gaf:", lines[0]);
+        assertTrue(lines[2], lines[2].startsWith("6239"));
+        assertTrue(lines[2], lines[2].endsWith("4  WBGene1, WBGene2"));
+        assertTrue(lines[3], lines[3].startsWith("7227"));
+        assertTrue(lines[3], lines[3].endsWith(" 1"));
+
+        diagnostics.clear();
+        assertTrue(diagnostics.isEmpty());
+    }
+}
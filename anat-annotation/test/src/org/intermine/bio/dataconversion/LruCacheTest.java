@@ -0,0 +1,43 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+public class LruCacheTest extends TestCase
+{
+    public LruCacheTest(String arg) {
+        super(arg);
+    }
+
+    public void testLeastRecentlyUsedDropped() throws Exception {
+        LruCache<String, String> cache = new LruCache<String, String>(2);
+        cache.put("a", "1");
+        cache.put("b", null);
+        assertEquals("1", cache.lookup("a"));
+        cache.put("c", "3");
+        assertTrue(cache.containsKey("a"));
+        assertFalse(cache.containsKey("b"));
+        assertEquals(2, cache.size());
+
+        assertNull(cache.lookup("b"));
+        cache.put("b", null);
+        assertNull(cache.lookup("b"));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    public void testNoneHeld() throws Exception {
+        LruCache<String, String> cache = new LruCache<String, String>(0);
+        cache.put("a", "1");
+        assertEquals(0, cache.size());
+    }
+}
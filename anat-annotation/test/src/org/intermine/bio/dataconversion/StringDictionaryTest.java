@@ -0,0 +1,73 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+public class StringDictionaryTest extends TestCase
+{
+    private File dir;
+
+    public StringDictionaryTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        dir = File.createTempFile("StringDictionaryTest", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    public void tearDown() throws Exception {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    public void testOverflow() throws Exception {
+        StringDictionary dictionary = new StringDictionary(100, dir, 1000);
+        // enough for the overflow index to be remade
+        int count = 50000;
+        for (int i = 0; i < count; i++) {
+            dictionary.put("PMID:" + i, i % 7 == 0 ? null : "6_" + i);
+        }
+        assertEquals(count, dictionary.size());
+        assertEquals(count - 100, dictionary.overflowSize());
+        for (int i = 0; i < count; i++) {
+            assertTrue(dictionary.containsKey("PMID:" + i));
+            assertEquals(i % 7 == 0 ? null : "6_" + i, dictionary.get("PMID:" + i));
+        }
+        assertFalse(dictionary.containsKey("PMID:" + count));
+        assertNull(dictionary.get("PMID:" + count));
+
+        dictionary.put("PMID:5", "replaced");
+        dictionary.put("PMID:40000", "replaced\u00e9");
+        assertEquals("replaced", dictionary.get("PMID:5"));
+        assertEquals("replaced\u00e9", dictionary.get("PMID:40000"));
+        assertEquals(count, dictionary.size());
+
+        dictionary.close();
+        assertEquals(0, dir.listFiles().length);
+    }
+
+    public void testSet() throws Exception {
+        StringDictionary dictionary = new StringDictionary(1, null, 10);
+        assertTrue(dictionary.add("WBPaper1"));
+        assertTrue(dictionary.add("WBPaper2"));
+        assertFalse(dictionary.add("WBPaper1"));
+        assertEquals(2, dictionary.size());
+        assertEquals(0, dictionary.overflowSize());
+        dictionary.close();
+    }
+}
@@ -0,0 +1,34 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+public class SymbolTableTest extends TestCase
+{
+    public SymbolTableTest(String arg) {
+        super(arg);
+    }
+
+    public void testIntern() throws Exception {
+        SymbolTable symbols = new SymbolTable();
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i, symbols.intern("WBGene" + i));
+        }
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i, symbols.intern("WBGene" + i));
+            assertEquals(i, symbols.lookup("WBGene" + i));
+            assertEquals("WBGene" + i, symbols.get(i));
+        }
+        assertEquals(-1, symbols.lookup("FBgn1"));
+        assertEquals(5000, symbols.size());
+    }
+}
@@ -0,0 +1,171 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2011 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.apache.log4j.Logger;
+
+/**
+ * Java Flight Recorder events for the stages of a load, so a recording
+ * shows which records and stages cost the most:
+ *
+ * record parsed, mapping evaluated, reference resolved, batch stored and
+ * annotation merged.
+ *
+ * Off unless enable() is called, by a converter's "jfr.events" property,
+ * or the JVM is started with -Dintermine.jfr.events=true (for code with no
+ * properties of its own, ex: postprocessors).  While off
+ * every method returns straight away and the JFR classes are never
+ * loaded, so JVMs without JFR are fine.  Events are written only while a
+ * recording is running, ex: -XX:StartFlightRecording.
+ *
+ * Timing a stage:
+ *
+ * Object event = LoadEvents.beginRecordParsed();
+ * ... parse ...
+ * LoadEvents.recordParsed(event, className, pID, bytes, line);
+ */
+public final class LoadEvents {
+
+	private static final Logger LOG = Logger.getLogger(LoadEvents.class);
+
+	private static boolean enabled = false;
+
+	static {
+		if (Boolean.getBoolean("intermine.jfr.events")) {
+			enable();
+		}
+	}
+
+	private LoadEvents() {
+		// static methods only
+	}
+
+	/**
+	 * Turns events on, if this JVM has JFR.
+	 * @return true if events are on
+	 */
+	public static synchronized boolean enable() {
+		if (!enabled) {
+			try {
+				LoadJfrEvents.register();
+				enabled = true;
+			} catch (LinkageError e) {
+				LOG.warn("Java Flight Recorder not available, no load events: " + e);
+			}
+		}
+		return enabled;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return event to pass to recordParsed(), null if events are off
+	 */
+	public static Object beginRecordParsed() {
+		return enabled ? LoadJfrEvents.beginRecordParsed() : null;
+	}
+
+	/**
+	 * A record or line read and parsed.
+	 * @param event from beginRecordParsed()
+	 * @param className Class the record loads
+	 * @param pID Record's identifier, null if not known yet
+	 * @param bytes Length of the record, -1 if not known
+	 * @param line Line the record ends at, -1 if not known
+	 */
+	public static void recordParsed(Object event, String className, String pID, int bytes,
+			int line) {
+		if (event != null) {
+			LoadJfrEvents.commitRecordParsed(event, className, pID, bytes, line);
+		}
+	}
+
+	/**
+	 * @return event to pass to mappingEvaluated(), null if events are off
+	 */
+	public static Object beginMappingEvaluated() {
+		return enabled ? LoadJfrEvents.beginMappingEvaluated() : null;
+	}
+
+	/**
+	 * A parsed record mapped onto its item.
+	 * @param event from beginMappingEvaluated()
+	 * @param className Class the record loads
+	 * @param pID Record's key, null if it has none
+	 * @param line Line the record ends at, -1 if not known
+	 */
+	public static void mappingEvaluated(Object event, String className, String pID, int line) {
+		if (event != null) {
+			LoadJfrEvents.commitMappingEvaluated(event, className, pID, line);
+		}
+	}
+
+	/**
+	 * @return event to pass to referenceResolved(), null if events are off
+	 */
+	public static Object beginReferenceResolved() {
+		return enabled ? LoadJfrEvents.beginReferenceResolved() : null;
+	}
+
+	/**
+	 * A reference looked up, or its stand-in created.
+	 * @param event from beginReferenceResolved()
+	 * @param className Class referred to
+	 * @param pID Key referred to
+	 */
+	public static void referenceResolved(Object event, String className, String pID) {
+		if (event != null) {
+			LoadJfrEvents.commitReferenceResolved(event, className, pID);
+		}
+	}
+
+	/**
+	 * @return event to pass to batchStored(), null if events are off
+	 */
+	public static Object beginBatchStored() {
+		return enabled ? LoadJfrEvents.beginBatchStored() : null;
+	}
+
+	/**
+	 * Items handed to the ItemWriter together.
+	 * @param event from beginBatchStored()
+	 * @param className Class stored, null if mixed
+	 * @param items Number of items
+	 */
+	public static void batchStored(Object event, String className, int items) {
+		if (event != null) {
+			LoadJfrEvents.commitBatchStored(event, className, items);
+		}
+	}
+
+	/**
+	 * @return event to pass to annotationMerged(), null if events are off
+	 */
+	public static Object beginAnnotationMerged() {
+		return enabled ? LoadJfrEvents.beginAnnotationMerged() : null;
+	}
+
+	/**
+	 * Annotations merged onto an object and stored.
+	 * @param event from beginAnnotationMerged()
+	 * @param className Class annotated
+	 * @param pID Object annotated
+	 * @param annotations Annotations it ended up with
+	 */
+	public static void annotationMerged(Object event, String className, String pID,
+			int annotations) {
+		if (event != null) {
+			LoadJfrEvents.commitAnnotationMerged(event, className, pID, annotations);
+		}
+	}
+}
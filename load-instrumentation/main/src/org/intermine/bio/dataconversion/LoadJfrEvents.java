@@ -0,0 +1,181 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2011 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The JFR event types behind LoadEvents.  Only loaded once events are
+ * enabled, so nothing here may be referred to from LoadEvents except in
+ * code that runs while they are.
+ */
+final class LoadJfrEvents {
+
+	private LoadJfrEvents() {
+		// static methods only
+	}
+
+	/**
+	 * Registers the event types, failing with a LinkageError if this JVM
+	 * has no JFR.
+	 */
+	static void register() {
+		FlightRecorder.register(RecordParsed.class);
+		FlightRecorder.register(MappingEvaluated.class);
+		FlightRecorder.register(ReferenceResolved.class);
+		FlightRecorder.register(BatchStored.class);
+		FlightRecorder.register(AnnotationMerged.class);
+	}
+
+	private static <E extends Event> E begin(E event) {
+		event.begin();
+		return event;
+	}
+
+	static Object beginRecordParsed() {
+		return begin(new RecordParsed());
+	}
+
+	static void commitRecordParsed(Object e, String className, String pID, int bytes,
+			int line) {
+		RecordParsed event = (RecordParsed) e;
+		if (event.shouldCommit()) {
+			event.className = className;
+			event.pID = pID;
+			event.bytes = bytes;
+			event.line = line;
+			event.commit();
+		}
+	}
+
+	static Object beginMappingEvaluated() {
+		return begin(new MappingEvaluated());
+	}
+
+	static void commitMappingEvaluated(Object e, String className, String pID, int line) {
+		MappingEvaluated event = (MappingEvaluated) e;
+		if (event.shouldCommit()) {
+			event.className = className;
+			event.pID = pID;
+			event.line = line;
+			event.commit();
+		}
+	}
+
+	static Object beginReferenceResolved() {
+		return begin(new ReferenceResolved());
+	}
+
+	static void commitReferenceResolved(Object e, String className, String pID) {
+		ReferenceResolved event = (ReferenceResolved) e;
+		if (event.shouldCommit()) {
+			event.className = className;
+			event.pID = pID;
+			event.commit();
+		}
+	}
+
+	static Object beginBatchStored() {
+		return begin(new BatchStored());
+	}
+
+	static void commitBatchStored(Object e, String className, int items) {
+		BatchStored event = (BatchStored) e;
+		if (event.shouldCommit()) {
+			event.className = className;
+			event.items = items;
+			event.commit();
+		}
+	}
+
+	static Object beginAnnotationMerged() {
+		return begin(new AnnotationMerged());
+	}
+
+	static void commitAnnotationMerged(Object e, String className, String pID,
+			int annotations) {
+		AnnotationMerged event = (AnnotationMerged) e;
+		if (event.shouldCommit()) {
+			event.className = className;
+			event.pID = pID;
+			event.annotations = annotations;
+			event.commit();
+		}
+	}
+
+	@Name("org.intermine.RecordParsed")
+	@Label("Record Parsed")
+	@Category({"InterMine", "Load"})
+	@Description("A source record read and parsed")
+	static class RecordParsed extends Event {
+		@Label("Class")
+		String className;
+		@Label("Identifier")
+		String pID;
+		@Label("Bytes")
+		int bytes;
+		@Label("Line")
+		int line;
+	}
+
+	@Name("org.intermine.MappingEvaluated")
+	@Label("Mapping Evaluated")
+	@Category({"InterMine", "Load"})
+	@Description("A parsed record mapped onto its item")
+	static class MappingEvaluated extends Event {
+		@Label("Class")
+		String className;
+		@Label("Identifier")
+		String pID;
+		@Label("Line")
+		int line;
+	}
+
+	@Name("org.intermine.ReferenceResolved")
+	@Label("Reference Resolved")
+	@Category({"InterMine", "Load"})
+	@Description("A referenced item looked up or created")
+	static class ReferenceResolved extends Event {
+		@Label("Class")
+		String className;
+		@Label("Identifier")
+		String pID;
+	}
+
+	@Name("org.intermine.BatchStored")
+	@Label("Batch Stored")
+	@Category({"InterMine", "Load"})
+	@Description("Items handed to the item writer together")
+	static class BatchStored extends Event {
+		@Label("Class")
+		String className;
+		@Label("Items")
+		int items;
+	}
+
+	@Name("org.intermine.AnnotationMerged")
+	@Label("Annotation Merged")
+	@Category({"InterMine", "Load"})
+	@Description("Annotations merged onto an object and stored")
+	static class AnnotationMerged extends Event {
+		@Label("Class")
+		String className;
+		@Label("Identifier")
+		String pID;
+		@Label("Annotations")
+		int annotations;
+	}
+}
@@ -0,0 +1,398 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2011 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Counters, gauges and histograms for a load, written every interval in the
+ * Prometheus text format to a file for node_exporter's textfile collector,
+ * so unattended builds can be charted without opening a port.
+ *
+ * One registry per file, shared by every converter and postprocessor in the
+ * JVM that names it:
+ *
+ * LoadMetrics metrics = LoadMetrics.open("/var/lib/node_exporter/wormmine.prom", 60);
+ * metrics.counter("intermine_load_records_total", "Records read",
+ *     "source", "wormbase-acedb", "class", "Gene").inc();
+ * ...
+ * metrics.close();
+ *
+ * Labels are name, value pairs.  The file is rewritten whole and renamed
+ * into place, so the collector never sees half of it, and written once more
+ * when the last user closes the registry.
+ */
+public class LoadMetrics {
+
+	private static final Logger LOG = Logger.getLogger(LoadMetrics.class);
+
+	/**
+	 * System property naming a metrics file, for code with no properties of
+	 * its own, ex: postprocessors.
+	 */
+	public static final String FILE_PROPERTY = "intermine.metrics.file";
+
+	/** Upper bounds in seconds of the default latency buckets */
+	public static final double[] LATENCY_BUCKETS = {
+		0.0001, 0.0005, 0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10, 60};
+
+	private static final Map<String, LoadMetrics> OPEN = new HashMap<String, LoadMetrics>();
+
+	private final File file;
+	private final Map<String, Family> families = new TreeMap<String, Family>();
+	private final ScheduledExecutorService writer;
+	private int users = 0;
+
+	/**
+	 * A value read when the file is written, ex: the size of a map.
+	 */
+	public interface Value {
+		double get();
+	}
+
+	/**
+	 * A count that only goes up.
+	 */
+	public static class Counter {
+		private final LongAdder count = new LongAdder();
+
+		public void inc() {
+			count.increment();
+		}
+
+		public void add(long n) {
+			count.add(n);
+		}
+
+		public long get() {
+			return count.sum();
+		}
+	}
+
+	/**
+	 * Counts of observations by bucket, ex: stage latencies.
+	 */
+	public static class Histogram {
+		private final double[] bounds;
+		private final AtomicLongArray buckets;
+		private final LongAdder sumNanos = new LongAdder();
+
+		Histogram(double[] bounds) {
+			this.bounds = bounds;
+			this.buckets = new AtomicLongArray(bounds.length + 1);
+		}
+
+		/**
+		 * Adds the time since start, as returned by System.nanoTime().
+		 */
+		public void observeSince(long start) {
+			observeNanos(System.nanoTime() - start);
+		}
+
+		public void observeNanos(long nanos) {
+			double seconds = nanos / 1e9;
+			int i = 0;
+			while (i < bounds.length && seconds > bounds[i]) {
+				i++;
+			}
+			buckets.incrementAndGet(i);
+			sumNanos.add(nanos);
+		}
+
+		public long getCount() {
+			long count = 0;
+			for (int i = 0; i < buckets.length(); i++) {
+				count += buckets.get(i);
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Every series of one metric name.
+	 */
+	private static class Family {
+		final String type;
+		final String help;
+		final Map<String, Object> series = new ConcurrentHashMap<String, Object>();
+
+		Family(String type, String help) {
+			this.type = type;
+			this.help = help;
+		}
+	}
+
+	private LoadMetrics(File file, long intervalSeconds) {
+		this.file = file;
+		writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "load-metrics");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		writer.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					write();
+				} catch (Exception e) {
+					// keep going, the next write may work
+					LOG.warn("Failed to write metrics to " + LoadMetrics.this.file + ": " + e);
+				}
+			}
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Gets the registry writing to path, starting it if no one has it open.
+	 * Each open() needs a close().
+	 * @param path File to write
+	 * @param intervalSeconds Seconds between writes, if this starts it
+	 */
+	public static synchronized LoadMetrics open(String path, long intervalSeconds) {
+		File file = new File(path).getAbsoluteFile();
+		LoadMetrics metrics = OPEN.get(file.getPath());
+		if (metrics == null) {
+			metrics = new LoadMetrics(file, intervalSeconds);
+			OPEN.put(file.getPath(), metrics);
+		}
+		metrics.users++;
+		return metrics;
+	}
+
+	/**
+	 * @return the registry named by -Dintermine.metrics.file, null if unset
+	 */
+	public static LoadMetrics openFromSystemProperty(long intervalSeconds) {
+		String path = System.getProperty(FILE_PROPERTY);
+		if (path == null || path.trim().length() == 0) {
+			return null;
+		}
+		return open(path.trim(), intervalSeconds);
+	}
+
+	/**
+	 * Writes the file and, for the last user, stops writing it.
+	 * @throws IOException if the file can't be written
+	 */
+	public void close() throws IOException {
+		boolean last;
+		synchronized (LoadMetrics.class) {
+			last = --users == 0;
+			if (last) {
+				OPEN.remove(file.getPath());
+			}
+		}
+		if (last) {
+			writer.shutdownNow();
+		}
+		write();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @param labels name, value pairs
+	 * @return the counter, created at 0 the first time
+	 */
+	public Counter counter(String name, String help, String... labels) {
+		Family family = family(name, "counter", help);
+		String key = labelString(labels);
+		Object counter = family.series.get(key);
+		if (counter == null) {
+			synchronized (family) {
+				counter = family.series.get(key);
+				if (counter == null) {
+					counter = new Counter();
+					family.series.put(key, counter);
+				}
+			}
+		}
+		return (Counter) counter;
+	}
+
+	/**
+	 * Adds a counter whose count is kept elsewhere, ex: by an index.
+	 * @param labels name, value pairs
+	 */
+	public void counter(String name, String help, Value value, String... labels) {
+		family(name, "counter", help).series.put(labelString(labels), value);
+	}
+
+	/**
+	 * Adds a gauge, read each time the file is written.
+	 * @param labels name, value pairs
+	 */
+	public void gauge(String name, String help, Value value, String... labels) {
+		family(name, "gauge", help).series.put(labelString(labels), value);
+	}
+
+	/**
+	 * @param labels name, value pairs
+	 * @return the histogram, with LATENCY_BUCKETS, created empty the first
+	 * time
+	 */
+	public Histogram histogram(String name, String help, String... labels) {
+		Family family = family(name, "histogram", help);
+		String key = labelString(labels);
+		Object histogram = family.series.get(key);
+		if (histogram == null) {
+			synchronized (family) {
+				histogram = family.series.get(key);
+				if (histogram == null) {
+					histogram = new Histogram(LATENCY_BUCKETS);
+					family.series.put(key, histogram);
+				}
+			}
+		}
+		return (Histogram) histogram;
+	}
+
+	private synchronized Family family(String name, String type, String help) {
+		Family family = families.get(name);
+		if (family == null) {
+			family = new Family(type, help);
+			families.put(name, family);
+		} else if (!family.type.equals(type)) {
+			throw new IllegalArgumentException(name + " is a " + family.type + ", not a "
+					+ type);
+		}
+		return family;
+	}
+
+	/**
+	 * @return {name="value",...} with values escaped, "" if no labels
+	 */
+	static String labelString(String... labels) {
+		if (labels.length % 2 != 0) {
+			throw new IllegalArgumentException("Labels must be name, value pairs");
+		}
+		if (labels.length == 0) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < labels.length; i += 2) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append(labels[i]).append("=\"");
+			String value = labels[i + 1] == null ? "" : labels[i + 1];
+			for (int j = 0; j < value.length(); j++) {
+				char c = value.charAt(j);
+				if (c == '\\' || c == '"') {
+					sb.append('\\').append(c);
+				} else if (c == '\n') {
+					sb.append("\\n");
+				} else {
+					sb.append(c);
+				}
+			}
+			sb.append('"');
+		}
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * @return labels with one more pair added, ex: le="0.1"
+	 */
+	private static String withLabel(String labels, String name, String value) {
+		String pair = name + "=\"" + value + "\"";
+		if (labels.length() == 0) {
+			return "{" + pair + "}";
+		}
+		return labels.substring(0, labels.length() - 1) + "," + pair + "}";
+	}
+
+	private static String number(double value) {
+		if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+			return String.valueOf((long) value);
+		}
+		return String.valueOf(value);
+	}
+
+	/**
+	 * Writes every metric to the file now, through a temporary file
+	 * renamed into place.
+	 * @throws IOException if the file can't be written
+	 */
+	public synchronized void write() throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		Writer out = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+		try {
+			for (Map.Entry<String, Family> entry : families.entrySet()) {
+				String name = entry.getKey();
+				Family family = entry.getValue();
+				out.write("# HELP " + name + " " + family.help + "\n");
+				out.write("# TYPE " + name + " " + family.type + "\n");
+				for (Map.Entry<String, Object> series : new TreeMap<String, Object>(
+						family.series).entrySet()) {
+					String labels = series.getKey();
+					Object metric = series.getValue();
+					if (metric instanceof Counter) {
+						out.write(name + labels + " " + ((Counter) metric).get() + "\n");
+					} else if (metric instanceof Value) {
+						out.write(name + labels + " " + number(((Value) metric).get()) + "\n");
+					} else {
+						Histogram histogram = (Histogram) metric;
+						long cumulative = 0;
+						for (int i = 0; i <= histogram.bounds.length; i++) {
+							cumulative += histogram.buckets.get(i);
+							String le = "+Inf";
+							if (i < histogram.bounds.length) {
+								le = BigDecimal.valueOf(histogram.bounds[i]).stripTrailingZeros()
+										.toPlainString();
+							}
+							out.write(name + "_bucket" + withLabel(labels, "le", le) + " "
+									+ cumulative + "\n");
+						}
+						out.write(name + "_sum" + labels + " "
+								+ (histogram.sumNanos.sum() / 1e9) + "\n");
+						out.write(name + "_count" + labels + " " + cumulative + "\n");
+					}
+				}
+			}
+			out.write("# HELP intermine_load_metrics_written_seconds When this file was written\n");
+			out.write("# TYPE intermine_load_metrics_written_seconds gauge\n");
+			out.write("intermine_load_metrics_written_seconds "
+					+ (System.currentTimeMillis() / 1000) + "\n");
+		} finally {
+			out.close();
+		}
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2011 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * How far a converter has got through its input files, measured by what
+ * has been read from them, so a long load can report percent done, its
+ * recent rate and an ETA:
+ *
+ * Reader counted = progress.count(reader);
+ * ... per record: progress.addRecord();
+ * if (progress.isReportDue()) log(progress.report());
+ *
+ * Input is counted in chars read from the converter's Reader, beneath any
+ * buffering, and compared with the files' size in bytes.  For ASCII input,
+ * such as AceDB XML and GAF, the two are the same; multi-byte characters
+ * make the percentage a little low.  Readers on several threads may share
+ * one LoadProgress.
+ */
+public class LoadProgress {
+
+	private final long intervalMillis;
+	private final long startMillis = System.currentTimeMillis();
+	private final AtomicLong nextReport;
+	private final AtomicLong totalBytes = new AtomicLong();
+	private final AtomicLong bytesRead = new AtomicLong();
+	private final AtomicLong lastReadMillis = new AtomicLong();
+	private final LongAdder records = new LongAdder();
+
+	// at the last report
+	private long reportMillis = startMillis;
+	private long reportBytes = 0;
+	private long reportRecords = 0;
+
+	/**
+	 * @param intervalMillis how often isReportDue() returns true, 0 for never
+	 */
+	public LoadProgress(long intervalMillis) {
+		this.intervalMillis = intervalMillis;
+		this.nextReport = new AtomicLong(startMillis + intervalMillis);
+	}
+
+	/**
+	 * Adds to the size of the input.
+	 */
+	public void addTotalBytes(long bytes) {
+		totalBytes.addAndGet(bytes);
+	}
+
+	/**
+	 * Adds the size of files to the size of the input.
+	 */
+	public void addTotalBytes(Iterable<File> files) {
+		for (File file : files) {
+			addTotalBytes(file.length());
+		}
+	}
+
+	/**
+	 * @return reader counting what is read through it as input read
+	 */
+	public Reader count(Reader in) {
+		return new CountingReader(in);
+	}
+
+	public void addRecord() {
+		records.increment();
+	}
+
+	public long getTotalBytes() {
+		return totalBytes.get();
+	}
+
+	public long getBytesRead() {
+		return bytesRead.get();
+	}
+
+	public long getRecords() {
+		return records.sum();
+	}
+
+	/**
+	 * @return when input was last read, 0 if it hasn't been
+	 */
+	public long getLastReadMillis() {
+		return lastReadMillis.get();
+	}
+
+	/**
+	 * @return fraction of the input read, 0 to 1, -1 if the size of the
+	 * input isn't known
+	 */
+	public double getFraction() {
+		long total = totalBytes.get();
+		if (total <= 0) {
+			return -1;
+		}
+		return Math.min(1.0, (double) bytesRead.get() / total);
+	}
+
+	/**
+	 * @return seconds left at the average rate so far, -1 if not known
+	 */
+	public double getEtaSeconds() {
+		long bytes = bytesRead.get();
+		long millis = System.currentTimeMillis() - startMillis;
+		long total = totalBytes.get();
+		if (total <= 0 || bytes <= 0 || millis <= 0) {
+			return -1;
+		}
+		return Math.max(0, total - bytes) * (millis / 1000.0) / bytes;
+	}
+
+	/**
+	 * @return true at most once per interval, for whichever thread asks
+	 * first
+	 */
+	public boolean isReportDue() {
+		if (intervalMillis <= 0) {
+			return false;
+		}
+		long due = nextReport.get();
+		long now = System.currentTimeMillis();
+		return now >= due && nextReport.compareAndSet(due, now + intervalMillis);
+	}
+
+	/**
+	 * @return percent read, records and rate since the last report and the
+	 * ETA at that rate, on one line
+	 */
+	public synchronized String report() {
+		long now = System.currentTimeMillis();
+		long bytes = bytesRead.get();
+		long recordCount = records.sum();
+		long windowMillis = Math.max(1, now - reportMillis);
+		double recordRate = (recordCount - reportRecords) * 1000.0 / windowMillis;
+		double byteRate = (bytes - reportBytes) * 1000.0 / windowMillis;
+
+		StringBuilder sb = new StringBuilder("Progress: ");
+		double fraction = getFraction();
+		if (fraction < 0) {
+			sb.append(String.format("%,d MB read", bytes / (1024 * 1024)));
+		} else {
+			sb.append(String.format("%.1f%% (%,d of %,d MB)", 100 * fraction,
+					bytes / (1024 * 1024), totalBytes.get() / (1024 * 1024)));
+		}
+		sb.append(String.format(", %,d records, %,.0f records/s over the last %ds",
+				recordCount, recordRate, windowMillis / 1000));
+		sb.append(", elapsed ").append(duration((now - startMillis) / 1000));
+		if (byteRate <= 0) {
+			sb.append(", nothing read since the last report");
+		} else if (fraction >= 0) {
+			// the recent rate applied to what's left
+			long left = Math.max(0, totalBytes.get() - bytes);
+			sb.append(", ETA ").append(duration((long) (left / byteRate)));
+		}
+
+		reportMillis = now;
+		reportBytes = bytes;
+		reportRecords = recordCount;
+		return sb.toString();
+	}
+
+	/**
+	 * @return ex: "1:02:03"
+	 */
+	static String duration(long seconds) {
+		return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+	}
+
+	/**
+	 * Adds the input read, its size, progress, ETA and when input was last
+	 * read to metrics.  A load whose last read time stops moving is hung,
+	 * not slow.
+	 */
+	public void watch(LoadMetrics metrics, String source) {
+		metrics.counter("intermine_load_input_read_bytes_total", "Input read so far",
+				new LoadMetrics.Value() {
+			public double get() {
+				return getBytesRead();
+			}
+		}, "source", source);
+		metrics.gauge("intermine_load_input_bytes", "Size of the input",
+				new LoadMetrics.Value() {
+			public double get() {
+				return getTotalBytes();
+			}
+		}, "source", source);
+		metrics.gauge("intermine_load_progress_ratio", "Fraction of the input read, -1 if unknown",
+				new LoadMetrics.Value() {
+			public double get() {
+				return getFraction();
+			}
+		}, "source", source);
+		metrics.gauge("intermine_load_eta_seconds",
+				"Seconds left at the average rate so far, -1 if unknown",
+				new LoadMetrics.Value() {
+			public double get() {
+				return Math.round(getEtaSeconds());
+			}
+		}, "source", source);
+		metrics.gauge("intermine_load_input_last_read_seconds", "When input was last read",
+				new LoadMetrics.Value() {
+			public double get() {
+				return getLastReadMillis() / 1000;
+			}
+		}, "source", source);
+	}
+
+	/**
+	 * Counts chars as they are read from the underlying reader.
+	 */
+	private class CountingReader extends FilterReader {
+		CountingReader(Reader in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int c = super.read();
+			if (c >= 0) {
+				counted(1);
+			}
+			return c;
+		}
+
+		@Override
+		public int read(char[] buffer, int offset, int length) throws IOException {
+			int n = super.read(buffer, offset, length);
+			if (n > 0) {
+				counted(n);
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			counted(skipped);
+			return skipped;
+		}
+
+		private void counted(long n) {
+			bytesRead.addAndGet(n);
+			lastReadMillis.set(System.currentTimeMillis());
+		}
+	}
+}
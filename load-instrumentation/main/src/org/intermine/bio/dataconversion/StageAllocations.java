@@ -0,0 +1,160 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2011 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bytes allocated by each stage of a converter, from the JVM's per-thread
+ * allocation counters, along with estimates of the size of the structures
+ * the converter holds between records.  Used to tell which stage allocates
+ * and which structure grows with the input when sizing a JVM for a load.
+ *
+ * A stage is timed with
+ *
+ * long start = allocations.start();
+ * ... work ...
+ * allocations.end(Stage.PARSE, start);
+ *
+ * on the thread doing the work, so stages may run on several threads at
+ * once.  Stages must not nest.  If the JVM can't count allocation per
+ * thread only the sizes are reported.
+ *
+ * @param <S> the converter's stages
+ */
+public class StageAllocations<S extends Enum<S>> {
+
+	private static final long MB = 1024 * 1024;
+
+	private final S[] stages;
+	private final AtomicLongArray bytes;
+	private final AtomicLongArray calls;
+	private final Map<String, Size> sizes = new LinkedHashMap<String, Size>();
+	private final Map<String, Long> peakBytes = new LinkedHashMap<String, Long>();
+	private final long intervalMillis;
+	private final AtomicLong nextReport;
+
+	// null if the JVM can't report per-thread allocation
+	private final com.sun.management.ThreadMXBean allocBean;
+
+	/**
+	 * Something whose size is worth watching, ex: a map kept across files.
+	 */
+	public interface Size {
+		/**
+		 * @return number of entries
+		 */
+		long entries();
+
+		/**
+		 * @return estimated heap taken, in bytes
+		 */
+		long estimatedBytes();
+	}
+
+	/**
+	 * @param stageClass the converter's stages
+	 * @param intervalMillis how often isReportDue() returns true
+	 */
+	public StageAllocations(Class<S> stageClass, long intervalMillis) {
+		this.stages = stageClass.getEnumConstants();
+		this.bytes = new AtomicLongArray(stages.length);
+		this.calls = new AtomicLongArray(stages.length);
+		this.intervalMillis = intervalMillis;
+		this.nextReport = new AtomicLong(System.currentTimeMillis() + intervalMillis);
+
+		com.sun.management.ThreadMXBean sunBean = null;
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			sunBean = (com.sun.management.ThreadMXBean) bean;
+			if (sunBean.isThreadAllocatedMemorySupported()) {
+				sunBean.setThreadAllocatedMemoryEnabled(true);
+			} else {
+				sunBean = null;
+			}
+		}
+		allocBean = sunBean;
+	}
+
+	/**
+	 * Adds a structure to the reports.
+	 * @param name What to call it
+	 */
+	public synchronized void watch(String name, Size size) {
+		sizes.put(name, size);
+		peakBytes.put(name, 0L);
+	}
+
+	/**
+	 * @return bytes allocated by this thread so far, to pass to end()
+	 */
+	public long start() {
+		if (allocBean == null) {
+			return 0;
+		}
+		return allocBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Charges what this thread allocated since start() to stage.
+	 */
+	public void end(S stage, long start) {
+		bytes.addAndGet(stage.ordinal(), start() - start);
+		calls.incrementAndGet(stage.ordinal());
+	}
+
+	/**
+	 * @return true at most once per interval, for whichever thread asks
+	 * first
+	 */
+	public boolean isReportDue() {
+		long due = nextReport.get();
+		long now = System.currentTimeMillis();
+		return now >= due && nextReport.compareAndSet(due, now + intervalMillis);
+	}
+
+	/**
+	 * @return allocation so far by stage, then the size of each watched
+	 * structure and the heap in use, one per line
+	 */
+	public synchronized String report() {
+		StringBuilder sb = new StringBuilder();
+		if (allocBean == null) {
+			sb.append("Per-thread allocation not supported by this JVM\n");
+		}
+		long total = 0;
+		for (int i = 0; i < stages.length; i++) {
+			total += bytes.get(i);
+		}
+		for (S stage : stages) {
+			long stageBytes = bytes.get(stage.ordinal());
+			sb.append(String.format("  %-12s %,10d MB allocated %5.1f%% %,12d calls%n",
+					stage.name().toLowerCase(), stageBytes / MB,
+					total == 0 ? 0.0 : 100.0 * stageBytes / total, calls.get(stage.ordinal())));
+		}
+		for (Map.Entry<String, Size> size : sizes.entrySet()) {
+			long entries = size.getValue().entries();
+			long estimate = size.getValue().estimatedBytes();
+			String name = size.getKey();
+			peakBytes.put(name, Math.max(peakBytes.get(name), estimate));
+			sb.append(String.format("  %-28s %,12d entries ~%,8d MB (peak ~%,d MB)%n",
+					name, entries, estimate / MB, peakBytes.get(name) / MB));
+		}
+		Runtime rt = Runtime.getRuntime();
+		sb.append(String.format("  heap used %,d MB of %,d MB", (rt.totalMemory() - rt.freeMemory())
+				/ MB, rt.maxMemory() / MB));
+		return sb.toString();
+	}
+}
@@ -0,0 +1,61 @@
+package org.intermine.bio.dataconversion;
+
+import java.io.File;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import junit.framework.TestCase;
+
+public class LoadEventsTest extends TestCase
+{
+    public LoadEventsTest(String arg) {
+        super(arg);
+    }
+
+    public void testNullEventIgnored() throws Exception {
+        LoadEvents.recordParsed(null, "Gene", "WBGene1", 10, 1);
+        LoadEvents.mappingEvaluated(null, "Gene", "WBGene1", 1);
+        LoadEvents.referenceResolved(null, "Gene", "WBGene1");
+        LoadEvents.batchStored(null, "Gene", 1);
+        LoadEvents.annotationMerged(null, "Gene", "WBGene1", 1);
+    }
+
+    public void testRecorded() throws Exception {
+        assertTrue(LoadEvents.enable());
+        File file = File.createTempFile("LoadEventsTest", ".jfr");
+        Recording recording = new Recording();
+        try {
+            recording.enable("org.intermine.RecordParsed");
+            recording.enable("org.intermine.BatchStored");
+            recording.start();
+            LoadEvents.recordParsed(LoadEvents.beginRecordParsed(), "Gene", "WBGene1", 42, 7);
+            LoadEvents.batchStored(LoadEvents.beginBatchStored(), "Gene", 3);
+            recording.stop();
+            recording.dump(file.toPath());
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+            RecordedEvent parsed = null;
+            RecordedEvent stored = null;
+            for (RecordedEvent event : events) {
+                if ("org.intermine.RecordParsed".equals(event.getEventType().getName())) {
+                    parsed = event;
+                } else if ("org.intermine.BatchStored".equals(event.getEventType().getName())) {
+                    stored = event;
+                }
+            }
+            assertNotNull(parsed);
+            assertEquals("Gene", parsed.getString("className"));
+            assertEquals("WBGene1", parsed.getString("pID"));
+            assertEquals(42, parsed.getInt("bytes"));
+            assertEquals(7, parsed.getInt("line"));
+            assertNotNull(stored);
+            assertEquals(3, stored.getInt("items"));
+        } finally {
+            recording.close();
+            file.delete();
+        }
+    }
+}
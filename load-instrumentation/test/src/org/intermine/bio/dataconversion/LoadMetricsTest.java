@@ -0,0 +1,79 @@
+package org.intermine.bio.dataconversion;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class LoadMetricsTest extends TestCase
+{
+    public LoadMetricsTest(String arg) {
+        super(arg);
+    }
+
+    public void testTextFormat() throws Exception {
+        File file = File.createTempFile("LoadMetricsTest", ".prom");
+        LoadMetrics metrics = LoadMetrics.open(file.getPath(), 3600);
+        try {
+            metrics.counter("intermine_load_records_total", "Records read",
+                    "source", "test", "class", "Gene").add(3);
+            metrics.counter("intermine_load_records_total", "Records read",
+                    "source", "test", "class", "Gene").inc();
+            metrics.gauge("intermine_load_staged_items", "Staged", new LoadMetrics.Value() {
+                public double get() {
+                    return 7;
+                }
+            }, "source", "te\"st");
+            LoadMetrics.Histogram histogram = metrics.histogram("intermine_load_stage_seconds",
+                    "Stages", "stage", "parse");
+            histogram.observeNanos(200000L); // 0.0002s
+            histogram.observeNanos(2000000000L); // 2s
+            try {
+                metrics.gauge("intermine_load_records_total", "Records", null);
+                fail("expected an IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                // a counter
+            }
+        } finally {
+            metrics.close();
+        }
+
+        List<String> lines = Files.readAllLines(file.toPath());
+        file.delete();
+        assertTrue(lines.contains("# TYPE intermine_load_records_total counter"));
+        assertTrue(lines.contains(
+                "intermine_load_records_total{source=\"test\",class=\"Gene\"} 4"));
+        assertTrue(lines.contains("intermine_load_staged_items{source=\"te\\\"st\"} 7"));
+        assertTrue(lines.contains(
+                "intermine_load_stage_seconds_bucket{stage=\"parse\",le=\"0.0001\"} 0"));
+        assertTrue(lines.contains(
+                "intermine_load_stage_seconds_bucket{stage=\"parse\",le=\"0.0005\"} 1"));
+        assertTrue(lines.contains(
+                "intermine_load_stage_seconds_bucket{stage=\"parse\",le=\"1\"} 1"));
+        assertTrue(lines.contains(
+                "intermine_load_stage_seconds_bucket{stage=\"parse\",le=\"+Inf\"} 2"));
+        assertTrue(lines.contains("intermine_load_stage_seconds_count{stage=\"parse\"} 2"));
+        assertTrue(lines.contains("intermine_load_stage_seconds_sum{stage=\"parse\"} 2.0002"));
+    }
+
+    public void testSharedByPath() throws Exception {
+        File file = File.createTempFile("LoadMetricsTest", ".prom");
+        LoadMetrics first = LoadMetrics.open(file.getPath(), 3600);
+        LoadMetrics second = LoadMetrics.open(file.getPath(), 3600);
+        try {
+            assertSame(first, second);
+            first.counter("a_total", "A").inc();
+            second.counter("a_total", "A").inc();
+            first.close();
+            assertTrue(Files.readAllLines(file.toPath()).contains("a_total 2"));
+        } finally {
+            second.close();
+            file.delete();
+        }
+        LoadMetrics third = LoadMetrics.open(file.getPath(), 3600);
+        assertNotSame(first, third);
+        third.close();
+        file.delete();
+    }
+}
@@ -0,0 +1,41 @@
+package org.intermine.bio.dataconversion;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+public class LoadProgressTest extends TestCase
+{
+    public LoadProgressTest(String arg) {
+        super(arg);
+    }
+
+    public void testCountsBeneathBuffering() throws Exception {
+        LoadProgress progress = new LoadProgress(0);
+        assertEquals(-1.0, progress.getFraction());
+        progress.addTotalBytes(40);
+
+        BufferedReader br = new BufferedReader(progress.count(new StringReader(
+                "WBGene1\tGO:1\nWBGene2\tGO:2\n")));
+        assertEquals("WBGene1\tGO:1", br.readLine());
+        progress.addRecord();
+        // the buffer has read the whole input
+        assertEquals(26, progress.getBytesRead());
+        assertEquals(0.65, progress.getFraction(), 0.001);
+        assertTrue(progress.getLastReadMillis() > 0);
+        assertFalse(progress.isReportDue());
+
+        String report = progress.report();
+        assertTrue(report, report.startsWith("Progress: 65.0% (0 of 0 MB), 1 records"));
+        assertTrue(report, report.contains(", ETA "));
+        report = progress.report();
+        assertTrue(report, report.endsWith("nothing read since the last report"));
+    }
+
+    public void testDuration() {
+        assertEquals("0:00:59", LoadProgress.duration(59));
+        assertEquals("1:02:03", LoadProgress.duration(3723));
+        assertEquals("27:46:40", LoadProgress.duration(100000));
+    }
+}
@@ -0,0 +1,40 @@
+package org.intermine.bio.dataconversion;
+
+import junit.framework.TestCase;
+
+public class StageAllocationsTest extends TestCase
+{
+    private enum Stage { READING, PARSE }
+
+    public StageAllocationsTest(String arg) {
+        super(arg);
+    }
+
+    public void testReport() throws Exception {
+        StageAllocations<Stage> allocations =
+            new StageAllocations<Stage>(Stage.class, 60 * 1000);
+        allocations.watch("items", new StageAllocations.Size() {
+            public long entries() {
+                return 3;
+            }
+            public long estimatedBytes() {
+                return 3 * 1024 * 1024;
+            }
+        });
+
+        long start = allocations.start();
+        byte[][] garbage = new byte[64][];
+        for (int i = 0; i < garbage.length; i++) {
+            garbage[i] = new byte[1024 * 1024];
+        }
+        allocations.end(Stage.PARSE, start);
+        assertEquals(64, garbage.length);
+
+        assertFalse(allocations.isReportDue());
+        String report = allocations.report();
+        assertTrue(report, report.contains("reading"));
+        assertTrue(report, report.matches("(?s).*parse\\s+6\\d MB allocated\\s+100\\.0%\\s+1 calls.*")
+                || report.startsWith("Per-thread allocation not supported"));
+        assertTrue(report, report.matches("(?s).*items\\s+3 entries ~\\s+3 MB \\(peak ~3 MB\\).*"));
+    }
+}
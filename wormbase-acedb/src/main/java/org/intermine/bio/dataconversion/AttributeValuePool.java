@@ -0,0 +1,137 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2011 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+
+/**
+ * Canonical instances of the values of one attribute, so that a value
+ * repeated across many records (species names, methods, status strings)
+ * is held once.
+ *
+ * The pool first samples the values the attribute is set to.  Once it has
+ * seen sampleSize values it keeps pooling only if at most one in ten was
+ * distinct, otherwise the field is treated as high-cardinality and values
+ * pass through untouched.  A pool never holds more than maxValues values.
+ *
+ * Not thread safe, StagingStore calls it under its own lock.
+ */
+public class AttributeValuePool {
+
+	private static final int SAMPLING = 0;
+	private static final int POOLING = 1;
+	private static final int REJECTED = 2;
+
+	private final String className;
+	private final String fieldName;
+	private final int sampleSize;
+	private final int maxValues;
+
+	private HashMap<String, String> values = new HashMap<String, String>();
+	private int state = SAMPLING;
+	private int observed = 0;
+	private long hits = 0;
+	private long bytesSaved = 0;
+
+	/**
+	 * @param className Class of the attribute
+	 * @param fieldName Name of the attribute
+	 * @param sampleSize Values to see before deciding whether to keep pooling
+	 * @param maxValues Most distinct values held
+	 */
+	public AttributeValuePool(String className, String fieldName, int sampleSize,
+			int maxValues) {
+		this.className = className;
+		this.fieldName = fieldName;
+		this.sampleSize = sampleSize;
+		this.maxValues = maxValues;
+	}
+
+	/**
+	 * @return the pooled instance equal to value, value itself if there is
+	 * none
+	 */
+	public String canonicalize(String value) {
+		if (state == REJECTED || value == null) {
+			return value;
+		}
+		String pooled = values.get(value);
+		if (pooled == null) {
+			if (values.size() < maxValues) {
+				values.put(value, value);
+			} else if (state == SAMPLING) {
+				reject();
+				return value;
+			} else {
+				return value;
+			}
+			pooled = value;
+		} else if (pooled != value) {
+			hits++;
+			bytesSaved += stringBytes(value);
+		}
+		// every value sampled counts, repeats included
+		if (state == SAMPLING && ++observed >= sampleSize) {
+			if (values.size() * 10 <= observed) {
+				state = POOLING;
+			} else {
+				reject();
+			}
+		}
+		return pooled;
+	}
+
+	private void reject() {
+		state = REJECTED;
+		values = null;
+	}
+
+	/**
+	 * @return estimated heap taken by a String, header and char[] included
+	 */
+	static long stringBytes(String value) {
+		return 24 + ((16 + 2L * value.length() + 7) & ~7L);
+	}
+
+	public String getClassName() {
+		return className;
+	}
+
+	public String getFieldName() {
+		return fieldName;
+	}
+
+	/**
+	 * @return true once the field has been found to have too many distinct
+	 * values to be worth pooling
+	 */
+	public boolean isRejected() {
+		return state == REJECTED;
+	}
+
+	public int getPooledValues() {
+		return values == null ? 0 : values.size();
+	}
+
+	/**
+	 * @return values replaced by a pooled instance
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return estimated bytes of the values replaced by a pooled instance
+	 */
+	public long getBytesSaved() {
+		return bytesSaved;
+	}
+}
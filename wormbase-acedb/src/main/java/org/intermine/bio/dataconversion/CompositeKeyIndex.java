@@ -0,0 +1,282 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2011 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hash index from (class name, key field values) to a value.
+ *
+ * The class name and field values are hashed and compared in place, so a
+ * lookup never builds a combined key object or concatenates strings, for
+ * single field keys and composite keys alike.  A single field key and a
+ * one element array of the same value are the same key.
+ *
+ * The index is split into segments with their own lock so several
+ * conversion threads can use it at once.  Entries are never removed.
+ *
+ * @param <V> type of the values
+ */
+public class CompositeKeyIndex<V> {
+
+	private static final int SEGMENT_COUNT = 64; // power of 2
+	private static final int INITIAL_CAPACITY = 16; // per segment, power of 2
+
+	private final Segment<V>[] segments;
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public CompositeKeyIndex() {
+		segments = new Segment[SEGMENT_COUNT];
+		for (int i = 0; i < SEGMENT_COUNT; i++) {
+			segments[i] = new Segment<V>();
+		}
+	}
+
+	/**
+	 * Receives each entry of the index.
+	 * @param <V> type of the values
+	 */
+	public interface Visitor<V> {
+		void visit(String className, String[] key, V value) throws Exception;
+	}
+
+	public V get(String className, String value) {
+		int hash = hash(className, value);
+		return segmentFor(hash).get(hash, className, value, null);
+	}
+
+	public V get(String className, String[] values) {
+		if (values.length == 1) {
+			return get(className, values[0]);
+		}
+		int hash = hash(className, values);
+		return segmentFor(hash).get(hash, className, null, values);
+	}
+
+	/**
+	 * Adds or replaces the value for a key.
+	 * @return the value replaced, null if none
+	 */
+	public V put(String className, String value, V v) {
+		int hash = hash(className, value);
+		return segmentFor(hash).put(hash, className, value, v);
+	}
+
+	/**
+	 * Adds or replaces the value for a key.  values is copied.
+	 * @return the value replaced, null if none
+	 */
+	public V put(String className, String[] values, V v) {
+		if (values.length == 1) {
+			return put(className, values[0], v);
+		}
+		int hash = hash(className, values);
+		return segmentFor(hash).put(hash, className, values.clone(), v);
+	}
+
+	/**
+	 * Object guarding the key's segment.  Holding it makes a get followed
+	 * by a put atomic.  No other segment's lock may be taken while holding
+	 * it.
+	 */
+	public Object lockFor(String className, String[] values) {
+		if (values.length == 1) {
+			return segmentFor(hash(className, values[0]));
+		}
+		return segmentFor(hash(className, values));
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment<V> segment : segments) {
+			synchronized (segment) {
+				size += segment.size;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return all values, in no particular order
+	 */
+	public List<V> values() {
+		List<V> values = new ArrayList<V>(size());
+		for (Segment<V> segment : segments) {
+			synchronized (segment) {
+				for (int i = 0; i < segment.values.length; i++) {
+					if (segment.classNames[i] != null) {
+						values.add(segment.values[i]);
+					}
+				}
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Calls visitor for every entry.  The index must not be changed
+	 * meanwhile.
+	 */
+	public void visit(Visitor<V> visitor) throws Exception {
+		for (Segment<V> segment : segments) {
+			for (int i = 0; i < segment.values.length; i++) {
+				if (segment.classNames[i] != null) {
+					Object key = segment.keys[i];
+					String[] values = (key instanceof String)
+							? new String[] {(String) key} : (String[]) key;
+					visitor.visit(segment.classNames[i], values, segment.values[i]);
+				}
+			}
+		}
+	}
+
+	private Segment<V> segmentFor(int hash) {
+		// low bits pick the slot within the segment, use the high ones here
+		return segments[(hash >>> 26) & (SEGMENT_COUNT - 1)];
+	}
+
+	static int hash(String className, String value) {
+		return spread(className.hashCode() * 31 + hashOf(value));
+	}
+
+	static int hash(String className, String[] values) {
+		if (values.length == 1) {
+			return hash(className, values[0]);
+		}
+		int h = className.hashCode();
+		for (String value : values) {
+			h = h * 31 + hashOf(value);
+		}
+		return spread(h);
+	}
+
+	private static int hashOf(String value) {
+		return value == null ? 0 : value.hashCode();
+	}
+
+	private static int spread(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean sameString(String a, String b) {
+		return a == b || (a != null && a.equals(b));
+	}
+
+	/**
+	 * Open addressing table with linear probing.  A slot is empty when its
+	 * class name is null.  keys hold a String for single field keys, a
+	 * String[] otherwise.
+	 */
+	private static class Segment<V> {
+		int size = 0;
+		int[] hashes = new int[INITIAL_CAPACITY];
+		String[] classNames = new String[INITIAL_CAPACITY];
+		Object[] keys = new Object[INITIAL_CAPACITY];
+		V[] values = newArray(INITIAL_CAPACITY);
+
+		@SuppressWarnings("unchecked")
+		private static <V> V[] newArray(int size) {
+			return (V[]) new Object[size];
+		}
+
+		synchronized V get(int hash, String className, String value, String[] values) {
+			int slot = find(hash, className, value, values);
+			return classNames[slot] == null ? null : this.values[slot];
+		}
+
+		/**
+		 * @param key String or String[] of two or more values, stored as is
+		 */
+		synchronized V put(int hash, String className, Object key, V v) {
+			String value = (key instanceof String) ? (String) key : null;
+			String[] values = (key instanceof String) ? null : (String[]) key;
+			int slot = find(hash, className, value, values);
+			if (classNames[slot] != null) {
+				V old = this.values[slot];
+				this.values[slot] = v;
+				return old;
+			}
+			hashes[slot] = hash;
+			classNames[slot] = className;
+			keys[slot] = key;
+			this.values[slot] = v;
+			if (++size * 2 > hashes.length) {
+				grow();
+			}
+			return null;
+		}
+
+		/**
+		 * @return slot holding the key, or the empty slot it belongs in
+		 */
+		private int find(int hash, String className, String value, String[] values) {
+			int mask = hashes.length - 1;
+			int slot = hash & mask;
+			while (classNames[slot] != null) {
+				if (hashes[slot] == hash && classNames[slot].equals(className)
+						&& keyEquals(keys[slot], value, values)) {
+					return slot;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private static boolean keyEquals(Object key, String value, String[] values) {
+			if (values == null) {
+				return (key instanceof String || key == null) && sameString((String) key, value);
+			}
+			if (!(key instanceof String[])) {
+				return false;
+			}
+			String[] stored = (String[]) key;
+			if (stored.length != values.length) {
+				return false;
+			}
+			for (int i = 0; i < stored.length; i++) {
+				if (!sameString(stored[i], values[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void grow() {
+			int[] oldHashes = hashes;
+			String[] oldClassNames = classNames;
+			Object[] oldKeys = keys;
+			V[] oldValues = values;
+
+			int capacity = oldHashes.length * 2;
+			hashes = new int[capacity];
+			classNames = new String[capacity];
+			keys = new Object[capacity];
+			values = newArray(capacity);
+
+			int mask = capacity - 1;
+			for (int i = 0; i < oldHashes.length; i++) {
+				if (oldClassNames[i] == null) {
+					continue;
+				}
+				int slot = oldHashes[i] & mask;
+				while (classNames[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				hashes[slot] = oldHashes[i];
+				classNames[slot] = oldClassNames[i];
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+}
@@ -0,0 +1,283 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2011 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.intermine.dataconversion.ItemWriter;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Reference;
+import org.intermine.model.fulldata.ReferenceList;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.xml.full.Item;
+
+/**
+ * Binary copy of the items a converter run stored, so a later run with
+ * the same inputs can write them straight to the ItemWriter.
+ *
+ * Items are written as they were handed to the ItemWriter, after the store
+ * hook.  Class and field names are written once and then referred to by
+ * number.  Snapshot files are named after the hash of the run's inputs,
+ * see Hasher.
+ */
+public class ItemSnapshot {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int MAGIC = 0x41434531; // "ACE1"
+	private static final int END = -1;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private ItemSnapshot() {
+		// static methods and nested classes only
+	}
+
+	/**
+	 * Writes the items stored during a run.  The snapshot is written to a
+	 * temporary file and only appears under its own name once committed.
+	 */
+	public static class Writer {
+		private final File file;
+		private final File tmpFile;
+		private final DataOutputStream out;
+		private final Map<String, Integer> names = new HashMap<String, Integer>();
+		private int count = 0;
+
+		public Writer(File file) throws IOException {
+			this.file = file;
+			this.tmpFile = new File(file.getPath() + ".tmp");
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(tmpFile), BUFFER_SIZE));
+			out.writeInt(MAGIC);
+		}
+
+		public synchronized void write(Item item) throws IOException {
+			writeString(item.getIdentifier());
+			writeName(item.getClassName());
+			writeName(item.getImplementations());
+			out.writeInt(item.getAttributes().size());
+			for (org.intermine.xml.full.Attribute attribute : item.getAttributes()) {
+				writeName(attribute.getName());
+				writeString(attribute.getValue());
+			}
+			out.writeInt(item.getReferences().size());
+			for (org.intermine.xml.full.Reference reference : item.getReferences()) {
+				writeName(reference.getName());
+				writeString(reference.getRefId());
+			}
+			out.writeInt(item.getCollections().size());
+			for (org.intermine.xml.full.ReferenceList collection : item.getCollections()) {
+				writeName(collection.getName());
+				writeString(StringUtils.join(collection.getRefIds(), " "));
+			}
+			count++;
+		}
+
+		private void writeName(String name) throws IOException {
+			Integer index = names.get(name);
+			if (index == null) {
+				out.writeInt(-1);
+				writeString(name);
+				names.put(name, names.size());
+			} else {
+				out.writeInt(index);
+			}
+		}
+
+		private void writeString(String value) throws IOException {
+			if (value == null) {
+				out.writeInt(-1);
+				return;
+			}
+			byte[] bytes = value.getBytes(UTF8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		/**
+		 * Finishes the snapshot and moves it to its own name.
+		 * @return number of items written
+		 */
+		public synchronized int commit() throws IOException {
+			writeString(null); // no more items, a null identifier ends the file
+			out.writeInt(END);
+			out.close();
+			if (!tmpFile.renameTo(file)) {
+				throw new IOException("Could not rename " + tmpFile + " to " + file);
+			}
+			return count;
+		}
+
+		/**
+		 * Drops the unfinished snapshot.
+		 */
+		public synchronized void abandon() {
+			try {
+				out.close();
+			} catch (IOException e) {
+				// deleting it anyway
+			}
+			tmpFile.delete();
+		}
+	}
+
+	/**
+	 * Stores every item of a snapshot with writer.
+	 * @return number of items stored
+	 * @throws IOException if the file is not a complete snapshot
+	 * @throws ObjectStoreException
+	 */
+	public static int replay(File file, ItemWriter writer)
+			throws IOException, ObjectStoreException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file), BUFFER_SIZE));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(file + " is not an item snapshot");
+			}
+			List<String> names = new ArrayList<String>();
+			int count = 0;
+			String identifier;
+			while ((identifier = readString(in)) != null) {
+				org.intermine.model.fulldata.Item item = new org.intermine.model.fulldata.Item();
+				item.setIdentifier(identifier);
+				item.setClassName(readName(in, names));
+				item.setImplementations(readName(in, names));
+				for (int i = in.readInt(); i > 0; i--) {
+					Attribute attribute = new Attribute();
+					attribute.setName(readName(in, names));
+					attribute.setValue(readString(in));
+					attribute.setItem(item);
+					item.getAttributes().add(attribute);
+				}
+				for (int i = in.readInt(); i > 0; i--) {
+					Reference reference = new Reference();
+					reference.setName(readName(in, names));
+					reference.setRefId(readString(in));
+					reference.setItem(item);
+					item.getReferences().add(reference);
+				}
+				for (int i = in.readInt(); i > 0; i--) {
+					ReferenceList collection = new ReferenceList();
+					collection.setName(readName(in, names));
+					collection.setRefIds(readString(in));
+					collection.setItem(item);
+					item.getCollections().add(collection);
+				}
+				writer.store(item);
+				count++;
+			}
+			if (in.readInt() != END) {
+				throw new IOException(file + " is truncated");
+			}
+			return count;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static String readName(DataInputStream in, List<String> names) throws IOException {
+		int index = in.readInt();
+		if (index >= 0) {
+			return names.get(index);
+		}
+		String name = readString(in);
+		names.add(name);
+		return name;
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * SHA-256 over everything a run's items depend on.  Each part is
+	 * labelled and length-prefixed so different inputs can't run together
+	 * into the same bytes.
+	 */
+	public static class Hasher {
+		private final MessageDigest digest;
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+
+		public Hasher() throws Exception {
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+
+		public Hasher add(String label, String value) {
+			addBytes(label.getBytes(UTF8));
+			addBytes(value == null ? new byte[0] : value.getBytes(UTF8));
+			return this;
+		}
+
+		/**
+		 * Adds a file's name and content.
+		 */
+		public Hasher addFile(String label, File file) throws IOException {
+			add(label, file.getName());
+			digest.update(longBytes(file.length()));
+			InputStream in = new FileInputStream(file);
+			try {
+				int read;
+				while ((read = in.read(buffer)) > 0) {
+					digest.update(buffer, 0, read);
+				}
+			} finally {
+				in.close();
+			}
+			return this;
+		}
+
+		private void addBytes(byte[] bytes) {
+			digest.update(longBytes(bytes.length));
+			digest.update(bytes);
+		}
+
+		private static byte[] longBytes(long value) {
+			byte[] bytes = new byte[8];
+			for (int i = 7; i >= 0; i--) {
+				bytes[i] = (byte) value;
+				value >>>= 8;
+			}
+			return bytes;
+		}
+
+		/**
+		 * @return the hash as hex
+		 */
+		public String toHex() {
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest.digest()) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2011 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import wormbase.model.parser.WMDebug;
+
+/**
+ * The shape of what a run staged, taken just before it is stored: for
+ * each class how many items came from records and how many are stand-ins
+ * only ever referenced, for each collection field a histogram of
+ * collection sizes, and the items referred to most.
+ *
+ * Built by StagingStore.profile().  Enabled by setting the
+ * "load.profile.file" property on a wormbase-acedb source, the report is
+ * logged and written to that file as JSON.
+ */
+public class LoadProfile {
+
+	private final Map<String, long[]> classCounts = new TreeMap<String, long[]>();
+	private final Map<String, Histogram> collections = new TreeMap<String, Histogram>();
+	private final List<Target> targets = new ArrayList<Target>();
+
+	/**
+	 * Sizes of one collection field, bucketed by powers of 2: 0, 1, 2-3,
+	 * 4-7 and so on.
+	 */
+	public static class Histogram {
+		private final long[] buckets = new long[32];
+		private long items = 0;
+		private long entries = 0;
+		private int max = 0;
+
+		void add(int size) {
+			buckets[32 - Integer.numberOfLeadingZeros(size)]++;
+			items++;
+			entries += size;
+			max = Math.max(max, size);
+		}
+
+		/**
+		 * @return label of bucket i, ex: "4-7"
+		 */
+		static String label(int i) {
+			if (i <= 1) {
+				return String.valueOf(i);
+			}
+			return (1L << (i - 1)) + "-" + ((1L << i) - 1);
+		}
+
+		public long getItems() {
+			return items;
+		}
+
+		public long getEntries() {
+			return entries;
+		}
+
+		public int getMax() {
+			return max;
+		}
+	}
+
+	/**
+	 * An item and the number of references and collection entries
+	 * pointing at it.
+	 */
+	public static class Target {
+		private final String className;
+		private final String identifier;
+		private final String key;
+		private final int inbound;
+
+		Target(String className, String identifier, String key, int inbound) {
+			this.className = className;
+			this.identifier = identifier;
+			this.key = key;
+			this.inbound = inbound;
+		}
+
+		public String getClassName() {
+			return className;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public int getInbound() {
+			return inbound;
+		}
+	}
+
+	void addClass(String className, long loaded, long standIns) {
+		classCounts.put(className, new long[] {loaded, standIns});
+	}
+
+	void addCollectionSize(String className, String field, int size) {
+		String name = className + "." + field;
+		Histogram histogram = collections.get(name);
+		if (histogram == null) {
+			histogram = new Histogram();
+			collections.put(name, histogram);
+		}
+		histogram.add(size);
+	}
+
+	/**
+	 * Adds targets, most referred to first.
+	 */
+	void addTarget(String className, String identifier, String key, int inbound) {
+		targets.add(new Target(className, identifier, key, inbound));
+	}
+
+	/**
+	 * @return items from records of className, 0 if none
+	 */
+	public long getLoaded(String className) {
+		long[] counts = classCounts.get(className);
+		return counts == null ? 0 : counts[0];
+	}
+
+	/**
+	 * @return stand-ins of className, 0 if none
+	 */
+	public long getStandIns(String className) {
+		long[] counts = classCounts.get(className);
+		return counts == null ? 0 : counts[1];
+	}
+
+	/**
+	 * @param name ex: "Gene.rnais"
+	 * @return the field's histogram, null if no item of the class has it
+	 */
+	public Histogram getCollection(String name) {
+		return collections.get(name);
+	}
+
+	public List<Target> getTargets() {
+		return targets;
+	}
+
+	/**
+	 * Logs the report.
+	 * @param wmd logger to write to
+	 */
+	public void logReport(WMDebug wmd) {
+		wmd.log("==== Load profile ====");
+		wmd.log(String.format("%-30s %12s %12s %7s", "class", "from records", "stand-ins",
+				"stand%"));
+		for (Map.Entry<String, long[]> counts : classCounts.entrySet()) {
+			long loaded = counts.getValue()[0];
+			long standIns = counts.getValue()[1];
+			wmd.log(String.format("%-30s %12d %12d %6.1f%%", counts.getKey(), loaded, standIns,
+					loaded + standIns == 0 ? 0.0 : 100.0 * standIns / (loaded + standIns)));
+		}
+
+		wmd.log(String.format("%-40s %10s %12s %8s  %s", "collection", "items", "entries", "max",
+				"items by size"));
+		for (Map.Entry<String, Histogram> collection : collections.entrySet()) {
+			Histogram histogram = collection.getValue();
+			StringBuilder buckets = new StringBuilder();
+			for (int i = 0; i < histogram.buckets.length; i++) {
+				if (histogram.buckets[i] > 0) {
+					buckets.append(Histogram.label(i)).append(':').append(histogram.buckets[i])
+							.append(' ');
+				}
+			}
+			wmd.log(String.format("%-40s %10d %12d %8d  %s", collection.getKey(),
+					histogram.items, histogram.entries, histogram.max, buckets.toString().trim()));
+		}
+
+		wmd.log(String.format("%4s %10s  %s", "rank", "inbound", "target"));
+		int rank = 1;
+		for (Target target : targets) {
+			wmd.log(String.format("%4d %10d  %s %s (%s)", rank++, target.inbound,
+					target.className, target.key, target.identifier));
+		}
+	}
+
+	/**
+	 * Writes the report as JSON.
+	 * @param path file to write
+	 * @throws IOException
+	 */
+	public void writeJson(String path) throws IOException {
+		Writer out = new FileWriter(path);
+		try {
+			out.write("{\n  \"classes\": [");
+			String separator = "\n";
+			for (Map.Entry<String, long[]> counts : classCounts.entrySet()) {
+				out.write(separator);
+				out.write("    {\"class\": " + MappingProfiler.jsonString(counts.getKey())
+						+ ", \"fromRecords\": " + counts.getValue()[0]
+						+ ", \"standIns\": " + counts.getValue()[1] + "}");
+				separator = ",\n";
+			}
+
+			out.write("\n  ],\n  \"collections\": [");
+			separator = "\n";
+			for (Map.Entry<String, Histogram> collection : collections.entrySet()) {
+				Histogram histogram = collection.getValue();
+				out.write(separator);
+				out.write("    {\"field\": " + MappingProfiler.jsonString(collection.getKey())
+						+ ", \"items\": " + histogram.items
+						+ ", \"entries\": " + histogram.entries
+						+ ", \"max\": " + histogram.max + ", \"sizes\": {");
+				String bucketSeparator = "";
+				for (int i = 0; i < histogram.buckets.length; i++) {
+					if (histogram.buckets[i] > 0) {
+						out.write(bucketSeparator + "\"" + Histogram.label(i) + "\": "
+								+ histogram.buckets[i]);
+						bucketSeparator = ", ";
+					}
+				}
+				out.write("}}");
+				separator = ",\n";
+			}
+
+			out.write("\n  ],\n  \"hottestTargets\": [");
+			separator = "\n";
+			for (Target target : targets) {
+				out.write(separator);
+				out.write("    {\"class\": " + MappingProfiler.jsonString(target.className)
+						+ ", \"key\": " + MappingProfiler.jsonString(target.key)
+						+ ", \"identifier\": " + MappingProfiler.jsonString(target.identifier)
+						+ ", \"inbound\": " + target.inbound + "}");
+				separator = ",\n";
+			}
+			out.write("\n  ]\n}\n");
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,322 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2011 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathFactory;
+
+import org.apache.commons.lang.StringUtils;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.ReferenceDescriptor;
+import org.intermine.metadata.TypeUtil;
+
+/**
+ * A mapping file compiled against the model for one source class.
+ *
+ * Each entry holds its compiled XPath and the model field it fills, so
+ * nothing has to be looked up again per record.  The entries giving the
+ * class's key fields are kept apart and evaluated first.
+ *
+ * A reference to a class with a composite key needs an entry for each of
+ * the referenced class's key fields, ex: for "SOTerm.key = name, ontology"
+ *
+ * soTerm.name = /XPATH/...
+ * soTerm.ontology = /XPATH/...
+ *
+ * These are grouped under one entry, see getKeyParts().  For collections
+ * the n-th node of each part's XPath makes up the n-th key.
+ *
+ * XPathExpression objects are not thread safe, every conversion thread
+ * must compile its own plan.
+ */
+public class MappingPlan {
+
+	private static final Pattern STR_B4_DOT = Pattern.compile("(.*?)\\.(.*)");
+
+	private final String className;
+	private final ClassDescriptor classCD;
+	private final String[] keyFields;
+	private final Entry[] keyEntries;
+	private final List<Entry> entries = new ArrayList<Entry>();
+
+	/**
+	 * Compiles a mapping file for a class.
+	 * @param classCD Descriptor of the class the mapping file loads
+	 * @param mapping Mapping file entries, datapath = XPath
+	 * @param converter Gives the key fields of this and referenced classes
+	 * @throws Exception if an entry names a field not in the model, a key
+	 * field has no entry, or a composite key reference is incomplete
+	 */
+	public MappingPlan(ClassDescriptor classCD, Properties mapping,
+			WormbaseAcedbConverter converter) throws Exception {
+		this.classCD = classCD;
+		this.className = classCD.getSimpleName();
+		this.keyFields = converter.getClassKeyFields(className);
+		this.keyEntries = new Entry[keyFields.length];
+
+		XPath xpath = XPathFactory.newInstance().newXPath();
+
+		Map<String, Entry[]> compositeRefs = new LinkedHashMap<String, Entry[]>();
+		Enumeration<Object> dataPathEnum = mapping.keys();
+		while( dataPathEnum.hasMoreElements() ){ // foreach property mapping
+			String rawPropKey = (String) dataPathEnum.nextElement(); // ex: "symbol"
+			if(rawPropKey.length() == 0){
+				continue;
+			}
+			String xpathQuery = mapping.getProperty(rawPropKey); // ex: "/Transcript/text()[1]"
+			Entry entry = new Entry(new MappingFileKey(rawPropKey), xpathQuery,
+					xpath.compile(xpathQuery));
+
+			int keyIndex = keyFieldIndex(entry);
+			if(keyIndex >= 0){
+				if(keyEntries[keyIndex] == null){
+					keyEntries[keyIndex] = entry;
+				}
+				if(entry.getFieldDescriptor().isAttribute()){
+					continue; // set from the key
+				}
+				if(converter.hasCompositeKey(entry.getRefClassName())){
+					throw new Exception(className+" key field "+entry.getFieldName()+
+							" refers to "+entry.getRefClassName()+", which has a"+
+							" composite key. Not supported.");
+				}
+			}
+
+			if(entry.getRefClassName() != null
+					&& converter.hasCompositeKey(entry.getRefClassName())){
+				addKeyPart(compositeRefs, entry,
+						converter.getClassKeyFields(entry.getRefClassName()));
+			}else{
+				entries.add(entry);
+			}
+		}
+
+		for(int i = 0; i < keyFields.length; i++){
+			if(keyEntries[i] == null){
+				throw new Exception(keyFields[i]+" set as "+className+" ID but not defined"+
+						" in mapping file");
+			}
+		}
+
+		for(Entry[] parts : compositeRefs.values()){
+			String[] refKeyFields = converter.getClassKeyFields(parts[0].getRefClassName());
+			for(int i = 0; i < parts.length; i++){
+				if(parts[i] == null){
+					Entry any = null;
+					for(Entry part : parts){
+						any = part == null ? any : part;
+					}
+					throw new Exception(className+"."+any.getFieldName()+" refers to "+
+							any.getRefClassName()+", keyed on "+
+							StringUtils.join(refKeyFields, ", ")+", but the mapping file has"+
+							" no "+any.getFieldName()+"."+refKeyFields[i]+" entry");
+				}
+			}
+			parts[0].keyParts = parts;
+			entries.add(parts[0]);
+		}
+	}
+
+	/**
+	 * @return position of the key field entry gives, -1 if none
+	 */
+	private int keyFieldIndex(Entry entry){
+		FieldDescriptor fd = entry.getFieldDescriptor();
+		for(int i = 0; i < keyFields.length; i++){
+			if(fd.isAttribute()){
+				if(entry.getKey().getRawKey().equals(keyFields[i])){
+					return i;
+				}
+			}else if(fd.isReference() && entry.getFieldName().equals(keyFields[i])){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Files entry under its reference, in the position of the referenced
+	 * class's key field it gives.
+	 */
+	private void addKeyPart(Map<String, Entry[]> compositeRefs, Entry entry,
+			String[] refKeyFields) throws Exception {
+		String group = entry.getFieldName()+":"+entry.getRefClassName();
+		Entry[] parts = compositeRefs.get(group);
+		if(parts == null){
+			parts = new Entry[refKeyFields.length];
+			compositeRefs.put(group, parts);
+		}
+		for(int i = 0; i < refKeyFields.length; i++){
+			if(refKeyFields[i].equals(entry.getRefField())){
+				if(parts[i] != null){
+					throw new Exception("Mapping file has two entries for "+className+"."+
+							entry.getFieldName()+"."+refKeyFields[i]);
+				}
+				parts[i] = entry;
+				return;
+			}
+		}
+		throw new Exception(className+"."+entry.getFieldName()+" refers to "+
+				entry.getRefClassName()+", keyed on "+StringUtils.join(refKeyFields, ", ")+
+				", "+entry.getKey().getRawKey()+" is not one of its key fields");
+	}
+
+	public String getClassName(){
+		return className;
+	}
+
+	public ClassDescriptor getClassDescriptor(){
+		return classCD;
+	}
+
+	/**
+	 * @return the class's key fields, in key file order
+	 */
+	public String[] getKeyFields(){
+		return keyFields;
+	}
+
+	/**
+	 * @return entry giving each key field, in key file order.  Entries for
+	 * reference key fields are in getEntries() as well.
+	 */
+	public Entry[] getKeyEntries(){
+		return keyEntries;
+	}
+
+	/**
+	 * @return entries other than attribute key fields, in evaluation order
+	 */
+	public List<Entry> getEntries(){
+		return Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * A single "datapath = XPath" line of the mapping file.
+	 */
+	public class Entry {
+		private final MappingFileKey key;
+		private final String xpathQuery;
+		private final XPathExpression expr;
+		private final String fieldName;
+		private final String refField;
+		private final boolean assertIfExists;
+		private final FieldDescriptor fd;
+		private final String refClassName;
+		private Entry[] keyParts = null;
+
+		Entry(MappingFileKey key, String xpathQuery, XPathExpression expr) throws Exception {
+			this.key = key;
+			this.xpathQuery = xpathQuery;
+			this.expr = expr;
+
+			// '.' indicates join, aka reference or collection, unless prefixed by "if."
+			Matcher fNMatcher = STR_B4_DOT.matcher(key.getDataPath());
+			boolean isAssertion = false;
+			String joinedField = null;
+			if( fNMatcher.find() ){
+				String prefix = fNMatcher.group(1);
+				if(prefix.equalsIgnoreCase("if")){
+					fieldName = fNMatcher.group(2);
+					isAssertion = true;
+				}else{
+					fieldName = prefix;
+					joinedField = fNMatcher.group(2);
+					int dot = joinedField.indexOf('.');
+					if(dot >= 0){
+						joinedField = joinedField.substring(0, dot);
+					}
+				}
+			}else{
+				fieldName = key.getDataPath();
+			}
+			assertIfExists = isAssertion;
+			refField = joinedField;
+
+			fd = classCD.getFieldDescriptorByName(fieldName);
+			if( fd == null ){
+				throw new Exception(classCD.getName()+"."+fieldName+" not found in model");
+			}
+
+			if(fd.isAttribute()){
+				refClassName = null;
+			}else if(key.getCastType() != null){
+				refClassName = key.getCastType();
+			}else{
+				refClassName = TypeUtil.unqualifiedName(
+						((ReferenceDescriptor) fd).getReferencedClassName());
+			}
+		}
+
+		public MappingFileKey getKey(){
+			return key;
+		}
+
+		public String getXPathQuery(){
+			return xpathQuery;
+		}
+
+		public XPathExpression getExpression(){
+			return expr;
+		}
+
+		public String getFieldName(){
+			return fieldName;
+		}
+
+		/**
+		 * @return field of the referenced class this entry gives, ex:
+		 * "primaryIdentifier" for "gene.primaryIdentifier", null if none
+		 */
+		public String getRefField(){
+			return refField;
+		}
+
+		/**
+		 * @return true for "if." entries, set to true if the XPath returns any nodes
+		 */
+		public boolean isAssertion(){
+			return assertIfExists;
+		}
+
+		public FieldDescriptor getFieldDescriptor(){
+			return fd;
+		}
+
+		/**
+		 * @return class of the referenced items, the cast type if given
+		 */
+		public String getRefClassName(){
+			return refClassName;
+		}
+
+		/**
+		 * @return for a reference to a class with a composite key, the
+		 * entries giving each of its key fields in key file order, this entry
+		 * first.  null for single field keys.
+		 */
+		public Entry[] getKeyParts(){
+			return keyParts;
+		}
+	}
+}
@@ -0,0 +1,260 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2011 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.w3c.dom.NodeList;
+
+import wormbase.model.parser.WMDebug;
+
+/**
+ * Accumulates the cost of evaluating each mapping file entry so that
+ * expensive XPath queries can be tracked down to the exact mapping key.
+ *
+ * Enabled by setting the "mapping.profile.file" property on a
+ * wormbase-acedb source.  At the end of the run a ranked table is logged
+ * and the same figures are written to the profile file as JSON.
+ */
+public class MappingProfiler {
+
+	private final ConcurrentHashMap<String, EntryStats> stats =
+			new ConcurrentHashMap<String, EntryStats>();
+
+	// null if the JVM can't report per-thread allocation
+	private com.sun.management.ThreadMXBean allocBean = null;
+
+	public MappingProfiler() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+			if (sunBean.isThreadAllocatedMemorySupported()) {
+				sunBean.setThreadAllocatedMemoryEnabled(true);
+				allocBean = sunBean;
+			}
+		}
+	}
+
+	/**
+	 * Evaluates expr against doc, charging the time, result size and
+	 * allocation to the given mapping entry.
+	 * @param className class the mapping file belongs to
+	 * @param propKey mapping file entry the expression was compiled from
+	 * @param xpathQuery raw XPath text, reported alongside the key
+	 * @param expr compiled expression
+	 * @param doc record being converted
+	 * @param returnType XPathConstants.STRING or XPathConstants.NODESET
+	 * @return the evaluation result
+	 * @throws XPathExpressionException
+	 */
+	public Object evaluate(String className, MappingFileKey propKey, String xpathQuery,
+			XPathExpression expr, Object doc, QName returnType)
+			throws XPathExpressionException {
+		long allocStart = allocatedBytes();
+		long start = System.nanoTime();
+		Object result = expr.evaluate(doc, returnType);
+		long elapsed = System.nanoTime() - start;
+		long allocated = allocatedBytes() - allocStart;
+
+		long nodes;
+		if (returnType == XPathConstants.NODESET) {
+			nodes = ((NodeList) result).getLength();
+		} else {
+			nodes = (result == null || result.toString().isEmpty()) ? 0 : 1;
+		}
+
+		getStats(className, propKey, xpathQuery).add(elapsed, nodes, allocated);
+		return result;
+	}
+
+	private EntryStats getStats(String className, MappingFileKey propKey, String xpathQuery) {
+		String statsKey = className + ":" + propKey.getRawKey();
+		EntryStats entry = stats.get(statsKey);
+		if (entry == null) {
+			EntryStats newEntry = new EntryStats(className, propKey.getRawKey(), xpathQuery);
+			entry = stats.putIfAbsent(statsKey, newEntry);
+			if (entry == null) {
+				entry = newEntry;
+			}
+		}
+		return entry;
+	}
+
+	private long allocatedBytes() {
+		if (allocBean == null) {
+			return 0;
+		}
+		return allocBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * @return all entries, most expensive first
+	 */
+	public List<EntryStats> getRankedEntries() {
+		List<EntryStats> ranked = new ArrayList<EntryStats>(stats.values());
+		Collections.sort(ranked, new Comparator<EntryStats>() {
+			public int compare(EntryStats a, EntryStats b) {
+				long diff = b.nanos.get() - a.nanos.get();
+				return diff > 0 ? 1 : (diff < 0 ? -1 : a.rawKey.compareTo(b.rawKey));
+			}
+		});
+		return ranked;
+	}
+
+	/**
+	 * Logs the ranked cost table.
+	 * @param wmd logger to write to
+	 */
+	public void logReport(WMDebug wmd) {
+		List<EntryStats> ranked = getRankedEntries();
+		long totalNanos = 0;
+		for (EntryStats entry : ranked) {
+			totalNanos += entry.nanos.get();
+		}
+
+		wmd.log("==== Mapping entry cost profile ====");
+		wmd.log(String.format("%4s %7s %12s %10s %10s %12s %12s  %s",
+				"rank", "share", "total ms", "calls", "avg us", "nodes", "alloc KB", "key"));
+		int rank = 1;
+		for (EntryStats entry : ranked) {
+			long calls = entry.calls.get();
+			long nanos = entry.nanos.get();
+			wmd.log(String.format("%4d %6.2f%% %12.1f %10d %10.1f %12d %12d  %s:%s",
+					rank++,
+					totalNanos == 0 ? 0.0 : 100.0 * nanos / totalNanos,
+					nanos / 1e6,
+					calls,
+					calls == 0 ? 0.0 : nanos / 1e3 / calls,
+					entry.nodes.get(),
+					entry.allocated.get() / 1024,
+					entry.className, entry.rawKey));
+		}
+		if (allocBean == null) {
+			wmd.log("per-thread allocation accounting not supported by this JVM, alloc KB is 0");
+		}
+	}
+
+	/**
+	 * Writes the ranked cost table as JSON.
+	 * @param path file to write
+	 * @throws IOException
+	 */
+	public void writeJson(String path) throws IOException {
+		Writer out = new FileWriter(path);
+		try {
+			out.write("{\n  \"allocationSupported\": " + (allocBean != null) + ",\n");
+			out.write("  \"entries\": [");
+			String separator = "\n";
+			for (EntryStats entry : getRankedEntries()) {
+				out.write(separator);
+				out.write("    {\"class\": " + jsonString(entry.className)
+						+ ", \"key\": " + jsonString(entry.rawKey)
+						+ ", \"xpath\": " + jsonString(entry.xpath)
+						+ ", \"calls\": " + entry.calls.get()
+						+ ", \"nanos\": " + entry.nanos.get()
+						+ ", \"resultNodes\": " + entry.nodes.get()
+						+ ", \"allocatedBytes\": " + entry.allocated.get() + "}");
+				separator = ",\n";
+			}
+			out.write("\n  ]\n}\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	static String jsonString(String value) {
+		if (value == null) {
+			return "null";
+		}
+		StringBuilder sb = new StringBuilder(value.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					sb.append(String.format("\\u%04x", (int) c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		sb.append('"');
+		return sb.toString();
+	}
+
+	/**
+	 * Running totals for a single mapping file entry.
+	 */
+	public static class EntryStats {
+		final String className;
+		final String rawKey;
+		final String xpath;
+		final AtomicLong calls = new AtomicLong();
+		final AtomicLong nanos = new AtomicLong();
+		final AtomicLong nodes = new AtomicLong();
+		final AtomicLong allocated = new AtomicLong();
+
+		EntryStats(String className, String rawKey, String xpath) {
+			this.className = className;
+			this.rawKey = rawKey;
+			this.xpath = xpath;
+		}
+
+		void add(long elapsedNanos, long resultNodes, long allocatedBytes) {
+			calls.incrementAndGet();
+			nanos.addAndGet(elapsedNanos);
+			nodes.addAndGet(resultNodes);
+			allocated.addAndGet(allocatedBytes);
+		}
+
+		public String getRawKey() {
+			return rawKey;
+		}
+
+		public long getCalls() {
+			return calls.get();
+		}
+
+		public long getNanos() {
+			return nanos.get();
+		}
+	}
+}
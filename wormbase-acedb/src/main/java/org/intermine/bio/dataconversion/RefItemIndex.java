@@ -0,0 +1,236 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2011 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang.StringUtils;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.ReferenceDescriptor;
+import org.intermine.metadata.TypeUtil;
+
+/**
+ * Items that have been referenced or loaded, kept until the converter
+ * flushes them.  Each class and key maps to exactly one row of the
+ * StagingStore: a stand-in created for a reference is reused when the
+ * full record turns up, so references, reverse collections and attributes
+ * all end up on the same item.
+ *
+ * Keys are the values of the class's key fields from the key file, in key
+ * file order.  Most classes have a single field key and use the String
+ * methods, composite keys use the String[] ones.
+ *
+ * Lookups may come from several threads at once, though each conversion
+ * thread fills an index of its own and the indexes are merged with
+ * mergeFrom() in input order.
+ */
+public class RefItemIndex {
+
+	// Value: row id in store
+	private final CompositeKeyIndex<Integer> items = new CompositeKeyIndex<Integer>();
+
+	private final WormbaseAcedbConverter converter;
+	private final StagingStore store;
+
+	// getOrCreate() calls that found an item and that created one
+	private final LongAdder foundCount = new LongAdder();
+	private final LongAdder createdCount = new LongAdder();
+
+	/**
+	 * @param converter Knows each class's key fields and stores the items
+	 */
+	public RefItemIndex(WormbaseAcedbConverter converter) {
+		this.converter = converter;
+		this.store = new StagingStore(converter);
+	}
+
+	/**
+	 * @return rough heap taken by the index itself, not counting the keys'
+	 * Strings, which the store holds as key attributes
+	 */
+	public long estimateBytes() {
+		// hash, class and key references and the boxed row id, in arrays
+		// kept at most half full
+		return 48L * items.size();
+	}
+
+	/**
+	 * @return Store holding the items' fields
+	 */
+	public StagingStore getStore() {
+		return store;
+	}
+
+	/**
+	 * @return row id of the item for this class and ID, -1 if not
+	 * referenced yet
+	 */
+	public int get(String className, String pID) {
+		Integer id = items.get(className, pID);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @return row id of the item for this class and key, -1 if not
+	 * referenced yet
+	 */
+	public int get(String className, String[] key) {
+		Integer id = items.get(className, key);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Gets the item for this class and ID, creating a stand-in with only
+	 * its ID set if it has not been seen before.
+	 * @param className Class of the item
+	 * @param pID Primary ID value of the item
+	 * @return row id of the item shared by every record referring to this
+	 * class and ID
+	 * @throws Exception if no key is configured for className
+	 */
+	public int getOrCreate(String className, String pID) throws Exception {
+		Integer id = items.get(className, pID);
+		if (id == null) {
+			return getOrCreate(className, new String[] {pID});
+		}
+		foundCount.increment();
+		return id;
+	}
+
+	/**
+	 * Gets the item for this class and key, creating a stand-in with only
+	 * its key fields set if it has not been seen before.  A key field that
+	 * is a reference holds the ID of the referenced item, which is itself
+	 * looked up or created.
+	 * @param className Class of the item
+	 * @param key Values of the class's key fields, in key file order
+	 * @return row id of the item shared by every record referring to this
+	 * class and key
+	 * @throws Exception if no key is configured for className, or key has
+	 * the wrong number of values
+	 */
+	public int getOrCreate(String className, String[] key) throws Exception {
+		Integer id = items.get(className, key);
+		if (id != null) {
+			foundCount.increment();
+			return id;
+		}
+
+		String[] keyFields = converter.getClassKeyFields(className);
+		if (key.length != keyFields.length) {
+			throw new Exception(className + " key has " + keyFields.length + " fields ("
+					+ StringUtils.join(keyFields, ", ") + "), given "
+					+ StringUtils.join(key, ", "));
+		}
+		// Resolve referenced key items first, no other segment may be locked below
+		ClassDescriptor cd = converter.getModel().getClassDescriptorByName(className);
+		ReferenceDescriptor[] keyRds = new ReferenceDescriptor[keyFields.length];
+		int[] keyRefs = new int[keyFields.length];
+		for (int i = 0; i < keyFields.length; i++) {
+			FieldDescriptor fd = cd == null ? null : cd.getFieldDescriptorByName(keyFields[i]);
+			if (fd != null && fd.isReference()) {
+				keyRds[i] = (ReferenceDescriptor) fd;
+				keyRefs[i] = getOrCreate(TypeUtil.unqualifiedName(
+						keyRds[i].getReferencedClassName()), key[i]);
+			}
+		}
+
+		boolean created = false;
+		synchronized (items.lockFor(className, key)) {
+			id = items.get(className, key);
+			if (id == null) {
+				id = store.createRow(className);
+				for (int i = 0; i < keyFields.length; i++) {
+					if (keyRds[i] != null) {
+						store.setReference(id, keyFields[i], keyRefs[i]);
+					} else {
+						store.setAttribute(id, keyFields[i], key[i]);
+					}
+				}
+				items.put(className, key, id);
+				created = true;
+			}
+		}
+		if (!created) {
+			foundCount.increment();
+		} else {
+			createdCount.increment();
+			for (int i = 0; i < keyFields.length; i++) {
+				if (keyRds[i] == null) {
+					continue;
+				}
+				if (keyRds[i].relationType() == FieldDescriptor.ONE_ONE_RELATION) {
+					converter.setRevRefIfExists(store, id, keyRefs[i], keyRds[i]);
+				} else {
+					converter.addToRevColIfExists(store, id, keyRefs[i], keyRds[i]);
+				}
+			}
+		}
+		return id;
+	}
+
+	public boolean contains(String className, String pID) {
+		return items.get(className, pID) != null;
+	}
+
+	public int size() {
+		return items.size();
+	}
+
+	/**
+	 * @return getOrCreate() calls that found the item, including those
+	 * merged in from other indexes
+	 */
+	public long getFoundCount() {
+		return foundCount.sum();
+	}
+
+	/**
+	 * @return getOrCreate() calls that created a stand-in, including those
+	 * merged in from other indexes
+	 */
+	public long getCreatedCount() {
+		return createdCount.sum();
+	}
+
+	/**
+	 * Moves the items of another index into this one.  Where both have an
+	 * item for the same class and key, the other item is merged into this
+	 * one as if its record had been converted after ours: its attributes
+	 * and references win and its collections are appended.  Nothing else
+	 * may use either index while merging.
+	 * @param other Index built from a later file
+	 * @return number of the other index's items merged into existing ones
+	 */
+	public int mergeFrom(RefItemIndex other) throws Exception {
+		// Find or add the row each of the other index's keys maps to here,
+		// then copy the fields across with references pointed at those rows
+		foundCount.add(other.foundCount.sum());
+		createdCount.add(other.createdCount.sum());
+		final int[] remap = new int[other.store.size()];
+		final int[] merged = new int[1];
+		other.items.visit(new CompositeKeyIndex.Visitor<Integer>() {
+			public void visit(String className, String[] key, Integer fromId) throws Exception {
+				Integer intoId = items.get(className, key);
+				if (intoId == null) {
+					intoId = store.createRow(className);
+					items.put(className, key, intoId);
+				} else {
+					merged[0]++;
+				}
+				remap[fromId] = intoId;
+			}
+		});
+		store.mergeRows(other.store, remap);
+		return merged[0];
+	}
+}
@@ -0,0 +1,211 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2011 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes rejected records on a background thread, so conversion threads
+ * only hand them over.
+ *
+ * Records go to the rejects file separated by blank lines, the same format
+ * as the data files, so the file can be fed back to the converter.  It is
+ * gzipped if its name ends in ".gz".  A tab separated index is written
+ * next to it, one line per record:
+ *
+ * offset	length	source file	line	stage	message
+ *
+ * offset and length are in uncompressed bytes of the rejects file, line
+ * is where the record ends in its source file.
+ */
+public class RejectsSink {
+
+	/** Stage of conversion a record was rejected at */
+	public enum Stage {
+		/** The record could not be read as XML */
+		PARSE,
+		/** The record was still not well formed after repair */
+		REPAIR,
+		/** A mapping file entry could not be applied */
+		MAPPING,
+		/** A key field was missing */
+		KEY
+	}
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final byte[] SEPARATOR = "\n\n".getBytes(UTF8);
+	private static final Reject END = new Reject(null, 0, null, null, null);
+
+	private final File file;
+	private final File indexFile;
+	private final BlockingQueue<Reject> queue = new ArrayBlockingQueue<Reject>(1024);
+	private final Thread thread;
+	private final long[] stageCounts = new long[Stage.values().length];
+	private volatile Exception failure = null;
+	private boolean closed = false;
+
+	/**
+	 * Opens the rejects file and its index, replacing any earlier ones, and
+	 * starts the writer thread.
+	 * @param file Rejects file, gzipped if named *.gz
+	 * @throws IOException
+	 */
+	public RejectsSink(File file) throws IOException {
+		this.file = file;
+		this.indexFile = new File(file.getPath() + ".index");
+		OutputStream out = new FileOutputStream(file);
+		if (file.getName().endsWith(".gz")) {
+			out = new GZIPOutputStream(out, 1 << 16);
+		}
+		final OutputStream records = new BufferedOutputStream(out, 1 << 16);
+		final Writer index = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(indexFile), UTF8), 1 << 16);
+
+		thread = new Thread(new Runnable() {
+			public void run() {
+				drain(records, index);
+			}
+		}, "acedb-rejects");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queues a record, waiting if the writer thread has fallen behind.
+	 * @param source File the record was read from, null if not known
+	 * @param line Line the record ends at
+	 * @param stage Where conversion failed
+	 * @param message Why, may be null
+	 * @param record The record as read
+	 * @throws IOException if the writer thread has failed or the sink is closed
+	 */
+	public void add(String source, int line, Stage stage, String message, String record)
+		throws IOException {
+		checkFailure();
+		// Queued under the lock so nothing can follow END.  The writer
+		// thread never takes the lock, so waiting here can't deadlock.
+		synchronized (this) {
+			if (closed) {
+				throw new IOException("Rejects file " + file + " is closed");
+			}
+			stageCounts[stage.ordinal()]++;
+			try {
+				queue.put(new Reject(source, line, stage, message, record));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted queueing reject");
+			}
+		}
+	}
+
+	private void drain(OutputStream records, Writer index) {
+		long offset = 0;
+		try {
+			try {
+				Reject reject;
+				while ((reject = queue.take()) != END) {
+					byte[] bytes = reject.record.getBytes(UTF8);
+					records.write(bytes);
+					records.write(SEPARATOR);
+					index.write(offset + "\t" + bytes.length + "\t"
+							+ (reject.source == null ? "" : reject.source) + "\t"
+							+ reject.line + "\t" + reject.stage.name().toLowerCase() + "\t"
+							+ oneLine(reject.message) + "\n");
+					offset += bytes.length + SEPARATOR.length;
+				}
+			} finally {
+				index.close();
+				records.close();
+			}
+		} catch (Exception e) {
+			failure = e;
+			// Unblock anyone waiting in add(), they will see the failure next time
+			queue.clear();
+		}
+	}
+
+	private static String oneLine(String message) {
+		return message == null ? "" : message.replaceAll("[\t\r\n]+", " ");
+	}
+
+	private void checkFailure() throws IOException {
+		if (failure != null) {
+			IOException e = new IOException("Writing rejects to " + file + " failed");
+			e.initCause(failure);
+			throw e;
+		}
+	}
+
+	/**
+	 * @return records rejected at stage so far
+	 */
+	public synchronized long getCount(Stage stage) {
+		return stageCounts[stage.ordinal()];
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public File getIndexFile() {
+		return indexFile;
+	}
+
+	/**
+	 * Writes out the queued records and closes the files.
+	 * @throws IOException if anything could not be written
+	 */
+	public void close() throws IOException {
+		try {
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				if (thread.isAlive()) {
+					queue.put(END);
+				}
+			}
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted closing " + file);
+		}
+		checkFailure();
+	}
+
+	private static class Reject {
+		private final String source;
+		private final int line;
+		private final Stage stage;
+		private final String message;
+		private final String record;
+
+		Reject(String source, int line, Stage stage, String message, String record) {
+			this.source = source;
+			this.line = line;
+			this.stage = stage;
+			this.message = message;
+			this.record = record;
+		}
+	}
+}
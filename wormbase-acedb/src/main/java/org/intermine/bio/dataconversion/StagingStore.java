@@ -0,0 +1,745 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2011 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.intermine.metadata.AttributeDescriptor;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.CollectionDescriptor;
+import org.intermine.metadata.ReferenceDescriptor;
+import org.intermine.xml.full.Item;
+import org.intermine.xml.full.ItemFactory;
+import org.intermine.xml.full.ReferenceList;
+
+/**
+ * Converted records held column by column until they are stored.
+ *
+ * Each class gets a table whose columns are the class's fields in the
+ * model.  A row is one item: attributes are kept as String references,
+ * references as the id of the referenced row and collections as an offset
+ * and length into an int arena shared by all tables.  A column is only
+ * allocated once a row sets it.  Items are built one at a time as they are
+ * stored, so no Item objects are held while converting.
+ *
+ * Attribute values go through a per-column AttributeValuePool, so values
+ * repeated across rows are held once.  Values at least as long as the
+ * converter's spill threshold are written to its ValueSpillFile instead and
+ * the column holds a handle, read back when the item is stored.
+ *
+ * Rows are addressed by the ids createRow() hands out.  Each row also gets
+ * the identifier createItem() would have given it.  Every method locks the
+ * store, though each conversion thread stages into a store of its own and
+ * the stores are merged with mergeRows(), so the locks are not contended.
+ */
+public class StagingStore {
+
+	private static final int INITIAL_SIZE = 16;
+
+	private final WormbaseAcedbConverter converter;
+	private final ItemFactory itemFactory;
+
+	private final Map<String, ClassTable> tables = new HashMap<String, ClassTable>();
+	private final List<ClassTable> tableList = new ArrayList<ClassTable>();
+
+	// Row id -> table index and row
+	private int[] idTable = new int[INITIAL_SIZE];
+	private int[] idRow = new int[INITIAL_SIZE];
+	private int idCount = 0;
+
+	// Collection contents.  A collection's slot holds the next power of 2
+	// at or above its length, a full slot is moved to the end when added to.
+	private int[] arena = new int[INITIAL_SIZE];
+	private int arenaUsed = 0;
+	private long arenaAbandoned = 0;
+
+	// Estimated heap of the distinct attribute Strings held, see estimateBytes()
+	private long attributeBytes = 0;
+
+	// Row ids already met in the collection toItem() or profile() is reading
+	private final BitSet seen = new BitSet();
+
+	/**
+	 * @param converter Gives item identifiers and stores the items
+	 */
+	public StagingStore(WormbaseAcedbConverter converter) {
+		this.converter = converter;
+		this.itemFactory = new ItemFactory(converter.getModel());
+	}
+
+	/**
+	 * Adds an empty row.
+	 * @return id of the row
+	 * @throws Exception if className is not in the model
+	 */
+	public synchronized int createRow(String className) throws Exception {
+		ClassTable table = tables.get(className);
+		if (table == null) {
+			ClassDescriptor cd = converter.getModel().getClassDescriptorByName(className);
+			if (cd == null) {
+				throw new Exception(className + " not found in model");
+			}
+			table = new ClassTable(cd, tableList.size(), converter.itemClassAlias(className));
+			tables.put(className, table);
+			tableList.add(table);
+		}
+		int row = table.addRow(converter.newItemNumber(className));
+
+		if (idCount == idTable.length) {
+			idTable = Arrays.copyOf(idTable, idCount * 2);
+			idRow = Arrays.copyOf(idRow, idCount * 2);
+		}
+		idTable[idCount] = table.index;
+		idRow[idCount] = row;
+		return idCount++;
+	}
+
+	/**
+	 * @return number of rows
+	 */
+	public synchronized int size() {
+		return idCount;
+	}
+
+	public synchronized String getClassName(int id) {
+		return tableList.get(idTable[id]).className;
+	}
+
+	/**
+	 * @return identifier of the Item the row is stored as
+	 */
+	public synchronized String getIdentifier(int id) {
+		return tableList.get(idTable[id]).identifier(idRow[id]);
+	}
+
+	/**
+	 * @throws IOException if the value can't be written to the spill file
+	 */
+	public synchronized void setAttribute(int id, String field, String value)
+			throws IOException {
+		ClassTable table = tableList.get(idTable[id]);
+		int col = table.column(table.attrIndex, field, "attribute");
+		int spillThreshold = converter.getAttributeSpillThreshold();
+		if (spillThreshold > 0 && value != null && value.length() >= spillThreshold) {
+			table.attrColumn(col)[idRow[id]] =
+					new SpilledValue(converter.getValueSpillFile().append(value));
+		} else {
+			String held = canonicalize(table, col, value);
+			if (held == value && value != null) {
+				attributeBytes += AttributeValuePool.stringBytes(value);
+			}
+			table.attrColumn(col)[idRow[id]] = held;
+		}
+	}
+
+	/**
+	 * Records that the row was filled in from a record of its own, rather
+	 * than only being referenced.  Reported by profile().
+	 */
+	public synchronized void markLoaded(int id) {
+		tableList.get(idTable[id]).loaded.set(idRow[id]);
+	}
+
+	public synchronized void setReference(int id, String field, int targetId) {
+		ClassTable table = tableList.get(idTable[id]);
+		table.refColumn(table.column(table.refIndex, field, "reference"))[idRow[id]] =
+				targetId + 1;
+	}
+
+	/**
+	 * Appends targetId to a collection.  An id added more than once is held
+	 * each time but stored once, where it was first added, as
+	 * Item.addToCollection() would keep it.
+	 */
+	public synchronized void addToCollection(int id, String field, int targetId) {
+		ClassTable table = tableList.get(idTable[id]);
+		int col = table.column(table.collIndex, field, "collection");
+		append(table, col, idRow[id], targetId);
+	}
+
+	private String canonicalize(ClassTable table, int col, String value) {
+		// Settings are read here, the converter's store exists before they are set
+		int poolSize = converter.getAttributePoolSize();
+		if (poolSize <= 0) {
+			return value;
+		}
+		if (table.pools[col] == null) {
+			table.pools[col] = new AttributeValuePool(table.className, table.attrNames[col],
+					converter.getAttributePoolSample(), poolSize);
+		}
+		return table.pools[col].canonicalize(value);
+	}
+
+	/**
+	 * @return the attribute value pools, for reporting
+	 */
+	public synchronized List<AttributeValuePool> getAttributePools() {
+		List<AttributeValuePool> pools = new ArrayList<AttributeValuePool>();
+		for (ClassTable table : tableList) {
+			for (AttributeValuePool pool : table.pools) {
+				if (pool != null) {
+					pools.add(pool);
+				}
+			}
+		}
+		return pools;
+	}
+
+	private void append(ClassTable table, int col, int row, int value) {
+		int[] offsets = table.collOffsetColumn(col);
+		int[] lengths = table.collLengthColumn(col);
+		int offset = offsets[row];
+		int length = lengths[row];
+		if (length == 0 || (length & (length - 1)) == 0) { // slot full
+			int newOffset = allocate(length == 0 ? 1 : length * 2);
+			System.arraycopy(arena, offset, arena, newOffset, length);
+			arenaAbandoned += length;
+			offset = newOffset;
+			offsets[row] = offset;
+		}
+		arena[offset + length] = value;
+		lengths[row] = length + 1;
+	}
+
+	private int allocate(int size) {
+		long needed = (long) arenaUsed + size;
+		if (needed > Integer.MAX_VALUE - 8) {
+			throw new IllegalStateException("Collection arena full, " + arenaUsed + " ids");
+		}
+		if (needed > arena.length) {
+			arena = Arrays.copyOf(arena,
+					(int) Math.min(Integer.MAX_VALUE - 8, Math.max(needed, arena.length * 3L / 2)));
+		}
+		int offset = arenaUsed;
+		arenaUsed += size;
+		return offset;
+	}
+
+	/**
+	 * @return ints allocated in the collection arena, including slots
+	 * abandoned when collections outgrew them
+	 */
+	public synchronized long getArenaUsed() {
+		return arenaUsed;
+	}
+
+	public synchronized long getArenaAbandoned() {
+		return arenaAbandoned;
+	}
+
+	/**
+	 * @return rough heap taken by the rows: their columns, the collection
+	 * arena and the attribute values, counting 4 bytes per reference.
+	 * Values pooled or replaced are not told apart, so this errs high.
+	 */
+	public synchronized long estimateBytes() {
+		long bytes = 8L * idTable.length + 4L * arena.length + attributeBytes;
+		for (ClassTable table : tableList) {
+			bytes += table.estimateBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Merges the rows of another store into this one.  Attributes and
+	 * references set in the other row replace ours, its collection entries
+	 * are appended.  Nothing else may use the other store meanwhile.
+	 * @param from Store to read
+	 * @param remap Row id in from to row id here, for every row of from
+	 */
+	public synchronized void mergeRows(StagingStore from, int[] remap) {
+		synchronized (from) {
+			for (int fromId = 0; fromId < from.idCount; fromId++) {
+				ClassTable fromTable = from.tableList.get(from.idTable[fromId]);
+				int fromRow = from.idRow[fromId];
+				int intoId = remap[fromId];
+				ClassTable intoTable = tableList.get(idTable[intoId]);
+				int intoRow = idRow[intoId];
+				if (!fromTable.className.equals(intoTable.className)) {
+					throw new IllegalArgumentException("Can't merge a " + fromTable.className
+							+ " row into a " + intoTable.className + " row");
+				}
+				if (fromTable.loaded.get(fromRow)) {
+					intoTable.loaded.set(intoRow);
+				}
+				// Same class, same columns
+				for (int col = 0; col < fromTable.attrs.length; col++) {
+					Object value = fromTable.attrs[col] == null ? null
+							: fromTable.attrs[col][fromRow];
+					if (value instanceof String) {
+						intoTable.attrColumn(col)[intoRow] =
+								canonicalize(intoTable, col, (String) value);
+					} else if (value != null) {
+						// Spilled, the spill file is shared by all stores
+						intoTable.attrColumn(col)[intoRow] = value;
+					}
+				}
+				for (int col = 0; col < fromTable.refs.length; col++) {
+					int target = fromTable.refs[col] == null ? 0 : fromTable.refs[col][fromRow];
+					if (target != 0) {
+						intoTable.refColumn(col)[intoRow] = remap[target - 1] + 1;
+					}
+				}
+				for (int col = 0; col < fromTable.collOffsets.length; col++) {
+					if (fromTable.collOffsets[col] == null) {
+						continue;
+					}
+					int offset = fromTable.collOffsets[col][fromRow];
+					int length = fromTable.collLengths[col][fromRow];
+					for (int i = offset; i < offset + length; i++) {
+						append(intoTable, col, intoRow, remap[from.arena[i]]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts rows loaded from records and stand-ins per class, collection
+	 * sizes per field and the rows referred to most.  Must be called before
+	 * storeAll() releases the columns.
+	 * @param topN Number of most referred to rows to report
+	 */
+	public synchronized LoadProfile profile(int topN) throws Exception {
+		LoadProfile profile = new LoadProfile();
+		int[] inbound = new int[idCount];
+		for (ClassTable table : tablesByName()) {
+			int loaded = table.loaded.cardinality();
+			profile.addClass(table.className, loaded, table.rows - loaded);
+			for (int col = 0; col < table.refs.length; col++) {
+				for (int row = 0; table.refs[col] != null && row < table.rows; row++) {
+					if (table.refs[col][row] != 0) {
+						inbound[table.refs[col][row] - 1]++;
+					}
+				}
+			}
+			for (int col = 0; col < table.collOffsets.length; col++) {
+				if (table.collOffsets[col] == null) {
+					continue; // no row of the class has any
+				}
+				for (int row = 0; row < table.rows; row++) {
+					int offset = table.collOffsets[col][row];
+					int length = table.collLengths[col][row];
+					// Ids added more than once are stored once, as in toItem()
+					int distinct = 0;
+					for (int i = offset; i < offset + length; i++) {
+						if (!seen.get(arena[i])) {
+							seen.set(arena[i]);
+							inbound[arena[i]]++;
+							distinct++;
+						}
+					}
+					for (int i = offset; i < offset + length; i++) {
+						seen.clear(arena[i]);
+					}
+					profile.addCollectionSize(table.className, table.collNames[col], distinct);
+				}
+			}
+		}
+
+		// Selection of the topN largest, fine for the handful reported
+		boolean[] taken = new boolean[idCount];
+		for (int n = 0; n < topN; n++) {
+			int best = -1;
+			for (int id = 0; id < idCount; id++) {
+				if (!taken[id] && inbound[id] > 0 && (best < 0 || inbound[id] > inbound[best])) {
+					best = id;
+				}
+			}
+			if (best < 0) {
+				break;
+			}
+			taken[best] = true;
+			ClassTable table = tableList.get(idTable[best]);
+			profile.addTarget(table.className, table.identifier(idRow[best]),
+					keyString(table, idRow[best]), inbound[best]);
+		}
+		return profile;
+	}
+
+	/**
+	 * @return the row's key attribute values, comma separated
+	 */
+	private String keyString(ClassTable table, int row) throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (String field : converter.getClassKeyFields(table.className)) {
+			Integer col = table.attrIndex.get(field);
+			Object value = col == null || table.attrs[col] == null ? null : table.attrs[col][row];
+			if (value instanceof SpilledValue) {
+				value = converter.getValueSpillFile().read(((SpilledValue) value).handle);
+			}
+			sb.append(sb.length() == 0 ? "" : ", ").append(value);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return number of rows of each class, in the order storeAll() stores
+	 * the classes
+	 */
+	public synchronized Map<String, Integer> getClassCounts() {
+		Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+		for (ClassTable table : tablesByName()) {
+			counts.put(table.className, table.rows);
+		}
+		return counts;
+	}
+
+	private List<ClassTable> tablesByName() {
+		List<ClassTable> sorted = new ArrayList<ClassTable>(tableList);
+		Collections.sort(sorted, new Comparator<ClassTable>() {
+			public int compare(ClassTable a, ClassTable b) {
+				return a.className.compareTo(b.className);
+			}
+		});
+		return sorted;
+	}
+
+	/**
+	 * Builds an Item for every row and stores it, class by class in name
+	 * order, each class's rows ordered by their key, see sortRows().  Each
+	 * table's columns are released once its items are stored.
+	 * @return number of items stored
+	 * @throws Exception
+	 */
+	public synchronized int storeAll() throws Exception {
+		int stored = 0;
+		for (ClassTable table : tablesByName()) {
+			Object event = LoadEvents.beginBatchStored();
+			for (int row : sortRows(table)) {
+				converter.store(toItem(table, row));
+				stored++;
+			}
+			LoadEvents.batchStored(event, table.className, table.rows);
+			table.release();
+		}
+		arena = new int[0];
+		return stored;
+	}
+
+	/**
+	 * Orders a table's rows by the class's key fields: attribute fields by
+	 * value, reference fields by the referenced row's id.  Rows with equal
+	 * keys, or that lack a key field, keep their creation order.
+	 * @return rows in order
+	 */
+	private int[] sortRows(ClassTable table) throws Exception {
+		String[] keyFields = converter.getClassKeyFields(table.className);
+		final Object[][] keyAttrs = new Object[keyFields.length][];
+		final int[][] keyRefs = new int[keyFields.length][];
+		for (int k = 0; k < keyFields.length; k++) {
+			Integer col = table.attrIndex.get(keyFields[k]);
+			if (col != null) {
+				keyAttrs[k] = keyColumn(table.attrs[col], table.rows);
+			} else if ((col = table.refIndex.get(keyFields[k])) != null) {
+				keyRefs[k] = table.refs[col];
+			}
+		}
+
+		int[] rows = new int[table.rows];
+		for (int row = 0; row < rows.length; row++) {
+			rows[row] = row;
+		}
+		mergeSort(rows, new int[rows.length], 0, rows.length, new RowComparator() {
+			public int compare(int a, int b) {
+				for (int k = 0; k < keyAttrs.length; k++) {
+					int c;
+					if (keyAttrs[k] != null) {
+						c = compareValues((String) keyAttrs[k][a], (String) keyAttrs[k][b]);
+					} else if (keyRefs[k] != null) {
+						c = compareIds(keyRefs[k][a], keyRefs[k][b]);
+					} else {
+						continue;
+					}
+					if (c != 0) {
+						return c;
+					}
+				}
+				return 0;
+			}
+		});
+		return rows;
+	}
+
+	/**
+	 * @return column, or a copy of it with spilled values read back if
+	 * there are any
+	 */
+	private Object[] keyColumn(Object[] column, int rows) throws IOException {
+		Object[] values = column;
+		for (int row = 0; column != null && row < rows; row++) {
+			if (column[row] instanceof SpilledValue) {
+				if (values == column) {
+					values = Arrays.copyOf(column, rows);
+				}
+				values[row] = converter.getValueSpillFile().read(
+						((SpilledValue) column[row]).handle);
+			}
+		}
+		return values;
+	}
+
+	private static int compareValues(String a, String b) {
+		if (a == null || b == null) {
+			return a == null ? (b == null ? 0 : 1) : -1; // unset last
+		}
+		return a.compareTo(b);
+	}
+
+	private static int compareIds(int a, int b) {
+		// 0 is unset, sorted last
+		long x = a == 0 ? Long.MAX_VALUE : a;
+		long y = b == 0 ? Long.MAX_VALUE : b;
+		return x < y ? -1 : (x == y ? 0 : 1);
+	}
+
+	private interface RowComparator {
+		int compare(int a, int b);
+	}
+
+	/**
+	 * Stable sort of rows[from, to) without boxing every row.
+	 */
+	private static void mergeSort(int[] rows, int[] tmp, int from, int to, RowComparator cmp) {
+		if (to - from < 2) {
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		mergeSort(rows, tmp, from, mid, cmp);
+		mergeSort(rows, tmp, mid, to, cmp);
+		if (cmp.compare(rows[mid - 1], rows[mid]) <= 0) {
+			return; // already in order, common for input sorted by ID
+		}
+		System.arraycopy(rows, from, tmp, from, to - from);
+		int i = from;
+		int j = mid;
+		for (int k = from; k < to; k++) {
+			if (j >= to || (i < mid && cmp.compare(tmp[i], tmp[j]) <= 0)) {
+				rows[k] = tmp[i++];
+			} else {
+				rows[k] = tmp[j++];
+			}
+		}
+	}
+
+	private Item toItem(ClassTable table, int row) throws IOException {
+		Item item = itemFactory.makeItem(table.identifier(row), table.className, "");
+		for (int col = 0; col < table.attrs.length; col++) {
+			Object value = table.attrs[col] == null ? null : table.attrs[col][row];
+			if (value instanceof SpilledValue) {
+				value = converter.getValueSpillFile().read(((SpilledValue) value).handle);
+			}
+			if (value != null) {
+				item.setAttribute(table.attrNames[col], (String) value);
+			}
+		}
+		for (int col = 0; col < table.refs.length; col++) {
+			if (table.refs[col] != null && table.refs[col][row] != 0) {
+				int target = table.refs[col][row] - 1;
+				item.setReference(table.refNames[col],
+						tableList.get(idTable[target]).identifier(idRow[target]));
+			}
+		}
+		for (int col = 0; col < table.collOffsets.length; col++) {
+			if (table.collOffsets[col] == null || table.collLengths[col][row] == 0) {
+				continue;
+			}
+			int offset = table.collOffsets[col][row];
+			int length = table.collLengths[col][row];
+			List<String> refIds = new ArrayList<String>(length);
+			for (int i = offset; i < offset + length; i++) {
+				int target = arena[i];
+				if (seen.get(target)) {
+					continue; // added more than once
+				}
+				seen.set(target);
+				refIds.add(tableList.get(idTable[target]).identifier(idRow[target]));
+			}
+			for (int i = offset; i < offset + length; i++) {
+				seen.clear(arena[i]);
+			}
+			// setCollection() would look for each id in the list again
+			ReferenceList collection = new ReferenceList(table.collNames[col]);
+			collection.setRefIds(refIds);
+			item.addCollection(collection);
+		}
+		return item;
+	}
+
+	/**
+	 * Attribute value held in the spill file.
+	 */
+	private static final class SpilledValue {
+		final long handle;
+
+		SpilledValue(long handle) {
+			this.handle = handle;
+		}
+	}
+
+	/**
+	 * The rows of one class.  Columns follow the order of the class's
+	 * fields in the model, so tables of the same class in different stores
+	 * have the same columns.
+	 */
+	private static class ClassTable {
+		final String className;
+		final int index;
+		final String alias;
+
+		final String[] attrNames;
+		final String[] refNames;
+		final String[] collNames;
+		final Map<String, Integer> attrIndex = new HashMap<String, Integer>();
+		final Map<String, Integer> refIndex = new HashMap<String, Integer>();
+		final Map<String, Integer> collIndex = new HashMap<String, Integer>();
+
+		int rows = 0;
+		int[] numbers = new int[INITIAL_SIZE];
+		final BitSet loaded = new BitSet(); // rows filled in from their own record
+		// [column][row], null until a row sets the column
+		Object[][] attrs; // String or SpilledValue
+		AttributeValuePool[] pools;
+		int[][] refs; // referenced row id + 1, 0 if not set
+		int[][] collOffsets;
+		int[][] collLengths;
+
+		ClassTable(ClassDescriptor cd, int index, String alias) {
+			this.className = cd.getSimpleName();
+			this.index = index;
+			this.alias = alias;
+
+			List<String> names = new ArrayList<String>();
+			for (AttributeDescriptor ad : cd.getAllAttributeDescriptors()) {
+				names.add(ad.getName());
+			}
+			attrNames = index(names, attrIndex);
+			names.clear();
+			for (ReferenceDescriptor rd : cd.getAllReferenceDescriptors()) {
+				names.add(rd.getName());
+			}
+			refNames = index(names, refIndex);
+			names.clear();
+			for (CollectionDescriptor cold : cd.getAllCollectionDescriptors()) {
+				names.add(cold.getName());
+			}
+			collNames = index(names, collIndex);
+
+			attrs = new Object[attrNames.length][];
+			pools = new AttributeValuePool[attrNames.length];
+			refs = new int[refNames.length][];
+			collOffsets = new int[collNames.length][];
+			collLengths = new int[collNames.length][];
+		}
+
+		private static String[] index(List<String> names, Map<String, Integer> index) {
+			for (int i = 0; i < names.size(); i++) {
+				index.put(names.get(i), i);
+			}
+			return names.toArray(new String[names.size()]);
+		}
+
+		int column(Map<String, Integer> index, String field, String kind) {
+			Integer col = index.get(field);
+			if (col == null) {
+				throw new IllegalArgumentException(className + " has no " + kind + " " + field);
+			}
+			return col;
+		}
+
+		String identifier(int row) {
+			return alias + "_" + numbers[row];
+		}
+
+		int addRow(int number) {
+			if (rows == numbers.length) {
+				int capacity = rows * 2;
+				numbers = Arrays.copyOf(numbers, capacity);
+				for (int col = 0; col < attrs.length; col++) {
+					attrs[col] = attrs[col] == null ? null : Arrays.copyOf(attrs[col], capacity);
+				}
+				for (int col = 0; col < refs.length; col++) {
+					refs[col] = refs[col] == null ? null : Arrays.copyOf(refs[col], capacity);
+				}
+				for (int col = 0; col < collOffsets.length; col++) {
+					if (collOffsets[col] != null) {
+						collOffsets[col] = Arrays.copyOf(collOffsets[col], capacity);
+						collLengths[col] = Arrays.copyOf(collLengths[col], capacity);
+					}
+				}
+			}
+			numbers[rows] = number;
+			return rows++;
+		}
+
+		Object[] attrColumn(int col) {
+			if (attrs[col] == null) {
+				attrs[col] = new Object[numbers.length];
+			}
+			return attrs[col];
+		}
+
+		int[] refColumn(int col) {
+			if (refs[col] == null) {
+				refs[col] = new int[numbers.length];
+			}
+			return refs[col];
+		}
+
+		int[] collOffsetColumn(int col) {
+			if (collOffsets[col] == null) {
+				collOffsets[col] = new int[numbers.length];
+				collLengths[col] = new int[numbers.length];
+			}
+			return collOffsets[col];
+		}
+
+		int[] collLengthColumn(int col) {
+			collOffsetColumn(col);
+			return collLengths[col];
+		}
+
+		long estimateBytes() {
+			int capacity = numbers.length;
+			long bytes = 4L * capacity;
+			for (Object[] column : attrs) {
+				bytes += column == null ? 0 : 4L * capacity;
+			}
+			for (int[] column : refs) {
+				bytes += column == null ? 0 : 4L * capacity;
+			}
+			for (int[] column : collOffsets) {
+				bytes += column == null ? 0 : 8L * capacity; // offsets and lengths
+			}
+			return bytes;
+		}
+
+		/**
+		 * Drops the columns, keeping what identifier() needs.
+		 */
+		void release() {
+			Arrays.fill(attrs, null);
+			Arrays.fill(pools, null);
+			Arrays.fill(refs, null);
+			Arrays.fill(collOffsets, null);
+			Arrays.fill(collLengths, null);
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2011 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only, memory-mapped file holding large attribute values while
+ * the converter runs, so they don't take heap until their items are
+ * stored.
+ *
+ * The file is mapped in segments.  A value is written once, as its UTF-8
+ * length and bytes, and addressed by a handle giving its segment and
+ * offset.  The file is deleted when closed.
+ */
+public class ValueSpillFile {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int SEGMENT_SIZE = 1 << 26; // 64MB
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+	private long mappedBytes = 0;
+	private long valueCount = 0;
+	private long valueBytes = 0;
+
+	/**
+	 * Creates a new spill file.
+	 * @param dir Directory to create it in, null for the default temporary
+	 * directory
+	 * @throws IOException
+	 */
+	public ValueSpillFile(File dir) throws IOException {
+		file = File.createTempFile("acedb-values-", ".spill", dir);
+		file.deleteOnExit();
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+	}
+
+	/**
+	 * Writes a value.
+	 * @return handle to read it back with
+	 * @throws IOException
+	 */
+	public synchronized long append(String value) throws IOException {
+		byte[] bytes = value.getBytes(UTF8);
+		int needed = 4 + bytes.length;
+		MappedByteBuffer segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+		if (segment == null || segment.remaining() < needed) {
+			// A value bigger than a segment gets a segment of its own
+			int size = Math.max(SEGMENT_SIZE, needed);
+			segment = channel.map(FileChannel.MapMode.READ_WRITE, mappedBytes, size);
+			mappedBytes += size;
+			segments.add(segment);
+		}
+		int offset = segment.position();
+		segment.putInt(bytes.length);
+		segment.put(bytes);
+		valueCount++;
+		valueBytes += bytes.length;
+		return ((long) (segments.size() - 1) << 32) | offset;
+	}
+
+	/**
+	 * @param handle returned by append()
+	 * @return the value
+	 */
+	public String read(long handle) {
+		ByteBuffer segment;
+		synchronized (this) {
+			segment = segments.get((int) (handle >>> 32)).duplicate();
+		}
+		segment.position((int) handle);
+		byte[] bytes = new byte[segment.getInt()];
+		segment.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public synchronized long getValueCount() {
+		return valueCount;
+	}
+
+	/**
+	 * @return UTF-8 bytes of the values written
+	 */
+	public synchronized long getValueBytes() {
+		return valueBytes;
+	}
+
+	/**
+	 * Closes and deletes the file.  Handles can no longer be read.
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		segments.clear();
+		channel.close();
+		raf.close();
+		if (!file.delete()) {
+			file.deleteOnExit();
+		}
+	}
+}
@@ -10,22 +10,33 @@ package org.intermine.bio.dataconversion;
  *
  */
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.io.Reader;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map.Entry;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import javax.xml.xpath.XPath;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.namespace.QName;
 import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathFactory;
+import javax.xml.xpath.XPathExpressionException;
 
 import org.apache.commons.lang.StringUtils;
 import org.intermine.dataconversion.ItemWriter;
@@ -34,12 +45,12 @@ import org.intermine.metadata.CollectionDescriptor;
 import org.intermine.metadata.FieldDescriptor;
 import org.intermine.metadata.Model;
 import org.intermine.metadata.ReferenceDescriptor;
-// import org.intermine.util.TypeUtil;
-import org.intermine.metadata.TypeUtil; //Paulo Nuin 2016
+import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.xml.full.Item;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
 import wormbase.model.parser.DataMapper;
@@ -65,6 +76,27 @@ public class WormbaseAcedbConverter extends BioFileConverter
 	private String currentClass = null;
 	private String rejectFilePath = null;
 	private String keyFilePath = null;
+	private String mappingFilePath = null;
+	private String snapshotDirPath = null;
+	private String flushCountsFilePath = null;
+	private String loadProfileFilePath = null;
+	private int loadProfileTop = 20;
+	private String profileFilePath = null;
+	private String classListFilePath = null;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int attributePoolSample = 1000;
+	private int attributePoolSize = 1024;
+	private int attributeSpillThreshold = 0;
+	private String attributeSpillDir = null;
+	private ValueSpillFile valueSpillFile = null;
+	private RejectsSink rejects = null;
+	private String metricsFilePath = null;
+	private long metricsInterval = 60;
+
+	// Files handed to process() when parallel.files or snapshot.dir is set,
+	// converted in close()
+	private List<File> pendingFiles = null;
+	private boolean parallelFiles = false;
 
 	// Overridden by setDataSet()
 	private static final String DATASET_TITLE = "WormBaseAcedbConverter"; //"Add DataSet.title here";
@@ -76,10 +108,39 @@ public class WormbaseAcedbConverter extends BioFileConverter
     private ClassDescriptor classCD; // CD of current data type being processed
 
     // Items that have already been referenced and stored
-    // Key: "className:id", Value: Item ID (ex: "WBGene12345")
-	private HashMap<String, Item> storedRefItems;
+    // Key: class and ID (ex: "WBGene12345"), Value: staged item
+	private RefItemIndex storedRefItems;
+
+	// Compiled mapping file for source.class
+	private MappingPlan mappingPlan = null;
+
+	private HashMap<String, String[]> keyMapping; // the key fields of each class
+
+	// Set when mapping.profile.file is defined, null otherwise
+	private MappingProfiler profiler = null;
+
+	// Records stored items while converting, when snapshot.dir is defined
+	private ItemSnapshot.Writer snapshotWriter = null;
+
+	// Stages allocation is accounted to when allocation.report.interval is set
+	private enum ConversionStage { READING, REPAIR, PARSE, EVALUATE, RESOLVE, FLUSH }
+
+	// Set when allocation.report.interval is defined, null otherwise
+	private StageAllocations<ConversionStage> allocations = null;
 
-	private HashMap<String, String> keyMapping; // the primary key for each class
+	// Input read so far, reported every progress.interval seconds
+	private LoadProgress progress = new LoadProgress(300 * 1000);
+	private boolean progressSized = false;
+
+	// Set when metrics.file is defined, null otherwise
+	private LoadMetrics metrics = null;
+	private static final String METRICS_SOURCE = "wormbase-acedb";
+	private LoadMetrics.Histogram parseSeconds;
+	private LoadMetrics.Histogram mappingSeconds;
+	private LoadMetrics.Histogram flushSeconds;
+	// Key: class name
+	private final Map<String, LoadMetrics.Counter> storedMetrics =
+			new ConcurrentHashMap<String, LoadMetrics.Counter>();
 
     /**
      * Constructor
@@ -94,7 +155,7 @@ public class WormbaseAcedbConverter extends BioFileConverter
 
         wmd.debug("Constructor called");
 
-        storedRefItems = new HashMap<String, Item>();
+        storedRefItems = new RefItemIndex(this);
         model = _model;
     }
 
@@ -106,6 +167,12 @@ public class WormbaseAcedbConverter extends BioFileConverter
     public void process(Reader reader) throws Exception {
     	wmd.debug("started WormbaseAcedbConverter.process()");
 
+    	if( classListFilePath != null ){
+    		wmd.log("class.list.file set, classes are converted when the converter"+
+    				" is closed. Ignoring "+getCurrentFile());
+    		return;
+    	}
+
     	// Checking for properties
     	if( dataMapping == null )
     		throw new Exception("mapping.file property not defined for this"+
@@ -119,351 +186,848 @@ public class WormbaseAcedbConverter extends BioFileConverter
     		throw new Exception("source.class property not defined for this"+
     				" source in the project.xml");
 
-    	if( rejectFilePath == null )
-    	{
-			wmd.debug("rejects.file property not set, rejected XML"+
-					" elements will be discarded");
-    	}else{
-    		wmd.log("XML rejects file set to:"+rejectFilePath);
-    	}
-
-		FileWriter rejectsFW = null;
-		if(rejectFilePath != null)
-			rejectsFW = new FileWriter(rejectFilePath); // creates file if exists
-		FileParser fp = new FileParser(reader);
-
-
-
-		//// Process properties file first ////
-		wmd.debug("Parsing mapping file...");
-
-		HashMap<MappingFileKey, XPathExpression> prop2XpathExpr = new HashMap<MappingFileKey, XPathExpression>();
-	    // Get XPathFactory
-        XPathFactory xpf = XPathFactory.newInstance();
-        XPath xpath = xpf.newXPath();
-
-        // Get enumerator of InterMine datapaths to map (ex: primaryIdentifier)
-        Enumeration<Object> dataPathEnum = dataMapping.keys();
-
-    	wmd.debug("=== Mapping file entries ===");
-        String rawPropKey;
-        MappingFileKey PIDKey = null;
-        while( dataPathEnum.hasMoreElements() ){ // foreach property mapping
-        	rawPropKey = (String) dataPathEnum.nextElement(); // ex: "symbol"
-        	if(rawPropKey.length() == 0){
-        		continue;
-        	}
-
-        	MappingFileKey propKey = new MappingFileKey(rawPropKey);
-
-        	wmd.debug("=== "+propKey.getRawKey()+" ===");
-        	wmd.debug("cast type: "+propKey.getCastType());
-        	wmd.debug("datapath: "+propKey.getDataPath());
-        	wmd.debug(rawPropKey);
-        	wmd.debug("passed");
-        	String xpathQuery = dataMapping.getProperty(rawPropKey); // ex: "/Transcript/text()[1]"
-			wmd.debug(xpathQuery);
+		openMetrics();
+		if( !progressSized && getCurrentFile() != null ){
+			// InterMine hands over every file of src.data.dir in turn
+			progress.addTotalBytes(listDataFiles(getCurrentFile().getParentFile()));
+			progressSized = true;
+		}
 
+		// With snapshot.dir nothing may be converted, or written to the rejects
+		// file, before close() knows whether the inputs changed
+		if( (parallelFiles || snapshotDirPath != null) && pendingFiles == null ){
+			pendingFiles = new ArrayList<File>();
+		}
+		if( pendingFiles != null ){
+			if( getCurrentFile() == null ){
+				throw new Exception((parallelFiles ? "parallel.files" : "snapshot.dir")+
+						" is set but the current file is not known");
+			}
+			wmd.debug("Queued for conversion in close(): "+getCurrentFile());
+			pendingFiles.add(getCurrentFile());
+			return;
+		}
 
+		openRejectsFile();
 
-        	// The XPath object compiles the XPath expression
-        	wmd.debug("new1 "+getClassPIDField(classCD.getSimpleName()));
-	        XPathExpression expr = xpath.compile( xpathQuery );
-	        wmd.debug("new2 "+getClassPIDField(classCD.getSimpleName()));
-	        String str = String.valueOf(rawPropKey.equals(getClassPIDField(classCD.getSimpleName())));
-	        wmd.debug(str);
+		try{
+			//// Process properties file first ////
+			if( mappingPlan == null ){
+				wmd.debug("Parsing mapping file...");
+				mappingPlan = new MappingPlan(classCD, dataMapping, this);
+			}
 
-	        if(rawPropKey.equals(getClassPIDField(classCD.getSimpleName()))){
-	        	PIDKey = propKey;
-	        	wmd.debug(propKey.getDataPath());
-	        }
-	        prop2XpathExpr.put(propKey, expr);
-        }
-    	wmd.debug("=== ==================== ===");
+			convertRecords(mappingPlan, reader, storedRefItems,
+					getCurrentFile() == null ? null : getCurrentFile().getPath());
+		}catch( Exception e ){
+			// close() won't be called, the rejects so far must be written now
+			closeRejectsFile(e);
+			throw e;
+		}
+    }
 
-        Pattern strB4Dot = Pattern.compile("(.*?)\\.(.*)");
+    /**
+     * Converts every record read from reader, adding the resulting items
+     * and their stand-in references to index.
+     * @param plan Compiled mapping file for the records' class
+     * @param reader AceDB XML records separated by blank lines
+     * @param index Where converted and referenced items are kept until flushed
+     * @param source File the records are read from, for rejects.  May be null.
+     * @return Number of records read
+     * @throws Exception
+     */
+    private int convertRecords(MappingPlan plan, Reader reader, RefItemIndex index,
+    		String source) throws Exception {
+		FileParser fp = new FileParser(progress.count(reader));
+		LoadMetrics.Counter records = metrics == null ? null : metrics.counter(
+				"intermine_load_records_total", "Records read", "source", METRICS_SOURCE,
+				"class", plan.getClassName());
 
     	// foreach XML string
     	String xmlChunk;
     	int count=0; //
-    	while( (xmlChunk = fp.getDataString()) != null ){
+    	while( true ){
+    		long allocStart = allocStart();
+    		xmlChunk = fp.getDataString();
+    		allocEnd(ConversionStage.READING, allocStart);
+    		if( xmlChunk == null ){
+    			break;
+    		}
+    		if( allocations != null && allocations.isReportDue() ){
+    			wmd.log("Allocation by stage so far:\n"+allocations.report());
+    		}
 
     		count++;
+    		if( records != null ){
+    			records.inc();
+    		}
+    		progress.addRecord();
+    		if( progress.isReportDue() ){
+    			wmd.log(progress.report());
+    		}
     		wmd.debug("###========== NEW OBJECT ==========###");
 
-//    		if(count < 1070){
-//    			System.out.println(String.valueOf(count)+":"+xmlChunk.length());
-//    			continue;
-//    		}
-
     		Document doc;
+    		Object parsedEvent = LoadEvents.beginRecordParsed();
+    		long parseStart = metricsStart();
+    		allocStart = allocStart();
     		try{
 				// Load XML into org.w3c.dom.Document
 				doc = PackageUtils.loadXMLFrom(xmlChunk);
+				allocEnd(ConversionStage.PARSE, allocStart);
     		}catch(SAXParseException e){
+    			allocEnd(ConversionStage.PARSE, allocStart);
+    			allocStart = allocStart();
     			try{
     				wmd.debug("CALLING XML SANITATION FUNCTION");
     				String repairedData = PackageUtils.sanitizeXMLTags(xmlChunk);
     				doc = PackageUtils.loadXMLFrom(repairedData);
     			}catch( SAXParseException e1 ){
-	    			try{
-
-	    				if(rejectFilePath != null){
-		    				wmd.log("### SANITATION FAILED: ADDING RECORD TO REJECTS FILE ###");
-
-		    				// Add to rejects file
-			    			rejectsFW.write(xmlChunk);
-			    			rejectsFW.write("\n\n");
-	    				}
-	    			}catch( Exception e2 ){
-	    				System.out.println("Something wrong with the FileWriter");
-	    				throw e2;
-	    			}
+    				allocEnd(ConversionStage.REPAIR, allocStart);
+    				writeReject(source, fp.getCurrentLine(), RejectsSink.Stage.REPAIR,
+    						e1.getMessage(), xmlChunk);
 	    			continue;
     			}
+    			allocEnd(ConversionStage.REPAIR, allocStart);
+    		}catch(SAXException e){
+    			allocEnd(ConversionStage.PARSE, allocStart);
+    			if( rejects == null ){
+    				throw e;
+    			}
+    			writeReject(source, fp.getCurrentLine(), RejectsSink.Stage.PARSE,
+    					e.getMessage(), xmlChunk);
+    			continue;
     		}
+    		LoadEvents.recordParsed(parsedEvent, plan.getClassName(), null, xmlChunk.length(),
+    				fp.getCurrentLine());
+    		metricsEnd(parseSeconds, parseStart);
 
+    		String[] ID;
+    		Object mappingEvent = LoadEvents.beginMappingEvaluated();
+    		long mappingStart = metricsStart();
+    		try{
+    			ID = convertRecord(plan, doc, index);
+    		}catch(Exception e){
+    			// Fields set before the failure are already staged, so the run
+    			// can't carry on.  The record is kept for reprocessing.
+    			writeReject(source, fp.getCurrentLine(), RejectsSink.Stage.MAPPING,
+    					e.getMessage(), xmlChunk);
+    			throw e;
+    		}
 
-	        Item item = createItem(currentClass);
-	        wmd.debug("New IMID: "+item.getIdentifier());
+	        metricsEnd(mappingSeconds, mappingStart);
+	        if( mappingEvent != null ){
+	        	LoadEvents.mappingEvaluated(mappingEvent, plan.getClassName(),
+	        			ID == null ? null : StringUtils.join(ID, ", "), fp.getCurrentLine());
+	        }
+	        if( ID == null ){
+	        	String message = StringUtils.join(plan.getKeyFields(), ", ")+
+	        			" set as class ID but not defined. Record ending at line:"+fp.getCurrentLine();
+	        	if( rejects == null ){
+	        		throw new Exception(message);
+	        	}
+	        	writeReject(source, fp.getCurrentLine(), RejectsSink.Stage.KEY, message, xmlChunk);
+	        	continue;
+	        }
+	        wmd.debug("Stored "+plan.getClassName()+" with ID:"+StringUtils.join(ID, ", "));
+    	}
+    	return count;
+    }
+
+    /**
+     * Maps a single record onto the item for its class and ID.  If the
+     * record has already been referenced its stand-in item is filled in, so
+     * it keeps its identifier and any reverse references set so far.
+     * Fields are written to the index's StagingStore.
+     * @param plan Compiled mapping file for the record's class
+     * @param doc The record
+     * @param index Where the record's item and referenced items are kept
+     * @return Key field values of the record, null if any is missing
+     * @throws Exception
+     */
+    private String[] convertRecord(MappingPlan plan, Document doc, RefItemIndex index)
+    		throws Exception {
+    	String className = plan.getClassName();
+    	StagingStore store = index.getStore();
+
+    	// Key fields first no matter what
+    	MappingPlan.Entry[] keyEntries = plan.getKeyEntries();
+    	String[] ID = new String[keyEntries.length];
+    	for( int i = 0; i < keyEntries.length; i++ ){
+    		ID[i] = StringUtils.strip( (String) evaluateMapping(className, keyEntries[i],
+    				doc, XPathConstants.STRING) );
+    		if( StringUtils.isEmpty(ID[i]) ){
+    			return null;
+    		}
+    	}
+    	// if this record's key has been referenced already, fill in the stand-in
+    	int item = resolve(index, className, ID);
+    	store.markLoaded(item);
+    	wmd.debug("IMID for "+className+" "+StringUtils.join(ID, ", ")+": "+store.getIdentifier(item));
+
+        for( MappingPlan.Entry entry : plan.getEntries() ){ // foreach property mapping
+        	MappingFileKey propKey = entry.getKey(); // ex: "symbol", "organism.name"
+        	String fieldName = entry.getFieldName();
+        	FieldDescriptor fd = entry.getFieldDescriptor();
+
+        	wmd.debug("Retrieving:["+propKey.getRawKey()+"]");
+        	wmd.debug("fieldname="+fieldName);
+
+	        if(fd.isAttribute()){
+
+	        	if(entry.isAssertion()){
+		        	NodeList resultNode = (NodeList) evaluateMapping(className, entry, doc,
+		        			XPathConstants.NODESET);
+
+		        	wmd.debug(String.valueOf(resultNode.getLength()));
+
+		        	String exists = resultNode.getLength() == 0 ? "false" : "true";
+	        		wmd.debug(fieldName+"="+exists);
+	        		store.setAttribute(item, fieldName, exists);
 
-	        Iterator prop2XpathExprIter = prop2XpathExpr.keySet().iterator();
-	        String ID = null;
-	        String castType = null;
-	        boolean assertIfExists;
-	        MappingFileKey propKey;
-	        boolean firstPass = true;
-	        while( prop2XpathExprIter.hasNext() ){ // foreach property mapping
-	        	if(!firstPass){ // Set PID first no matter what
-	        		propKey = (MappingFileKey) prop2XpathExprIter.next(); // ex: "symbol", "organism.name"
 	        	}else{
-	        		propKey = PIDKey;
+
+		        	String xPathValue = StringUtils.strip( (String) evaluateMapping(className,
+		        			entry, doc, XPathConstants.STRING) );
+		        	wmd.debug("xpathvalue:"+xPathValue);
+
+		        	// DataPath describes attribute
+			        if (!StringUtils.isEmpty(xPathValue)) {
+						wmd.debug("Setting attribute ["+fieldName+"] to ["+xPathValue+"]");
+						store.setAttribute(item, fieldName, xPathValue);
+					}else{
+						wmd.debug("ignoring attribute ["+fieldName+"], no value");
+					}
+
 	        	}
 
+	        }else{
+
+	        	ReferenceDescriptor rd = (ReferenceDescriptor) fd;
+	        	String refClassName = entry.getRefClassName();
+
+	        	if( rd.relationType() == FieldDescriptor.ONE_ONE_RELATION ||
+	        		rd.relationType() == FieldDescriptor.N_ONE_RELATION   )
+	        	{
+	        		String xPathValue;
+		        	int referencedItem;
+	        		if( entry.getKeyParts() == null ){
+	        			xPathValue = StringUtils.strip( (String) evaluateMapping(className,
+	        					entry, doc, XPathConstants.STRING) );
+	        			referencedItem = xPathValue.isEmpty() ? -1
+	        					: resolve(index, refClassName, xPathValue);
+	        		}else{
+	        			String[] refKey = evaluateKey(className, entry.getKeyParts(), doc);
+	        			xPathValue = StringUtils.join(refKey, ", ");
+	        			referencedItem = refKey == null ? -1
+	        					: resolve(index, refClassName, refKey);
+	        		}
+	        		if( referencedItem < 0 ){
+		        		wmd.debug("ID not defined, moving on...");
+		        		wmd.debug("=======================");
+		        		continue;
+		        	}
+
+		        	wmd.debug("Setting current "+className+"."+fd.getName()+" to: ("+refClassName+")["+xPathValue+"]" );
+		        	store.setReference(item, rd.getName(), referencedItem);
 
-	        	assertIfExists = false;
-	        	castType = null;
+		        	if( 		rd.relationType() == FieldDescriptor.ONE_ONE_RELATION ){
+				        		wmd.debug("1:1");
+		        		setRevRefIfExists(store, item, referencedItem, rd);
+		        	}else if(	rd.relationType() == FieldDescriptor.N_ONE_RELATION){
+				        		wmd.debug("N:1");
+		        		addToRevColIfExists(store, item, referencedItem, rd);
+		        	}
 
-	        	wmd.debug("Retrieving:["+propKey.getRawKey()+"]");
+	        	}else if( rd.isCollection() ){
+			        		wmd.debug("This is a collection");
+	        		CollectionDescriptor cd = (CollectionDescriptor) rd;
 
-	        	// Get casted type if exists ex: (Gene)/XPath/statement/here
+		        	// Get set of IDs referenced, one node list per key field
+		        	MappingPlan.Entry[] keyParts = entry.getKeyParts();
+		        	NodeList[] resultNodes;
+		        	if( keyParts == null ){
+		        		resultNodes = new NodeList[] {(NodeList) evaluateMapping(className,
+		        				entry, doc, XPathConstants.NODESET)};
+		        	}else{
+		        		resultNodes = new NodeList[keyParts.length];
+		        		for( int k = 0; k < keyParts.length; k++ ){
+		        			resultNodes[k] = (NodeList) evaluateMapping(className, keyParts[k],
+		        					doc, XPathConstants.NODESET);
+		        			if( resultNodes[k].getLength() != resultNodes[0].getLength() ){
+		        				throw new Exception(keyParts[k].getKey().getRawKey()+" returned "+
+		        						resultNodes[k].getLength()+" nodes, "+
+		        						keyParts[0].getKey().getRawKey()+" returned "+
+		        						resultNodes[0].getLength()+". Each key field of "+
+		        						refClassName+" needs one node per collection item.");
+		        			}
+		        		}
+		        	}
+			        for(int i = 0; i < resultNodes[0].getLength(); i++) {
+
+			        	String collectionID = StringUtils.strip(nodeText(resultNodes[0].item(i)));
+
+			        	int referencedItem = -1;
+			        	if( keyParts == null ){
+			        		if(!collectionID.isEmpty()){
+			        			referencedItem = resolve(index, refClassName, collectionID);
+			        		}
+			        	}else{
+			        		String[] refKey = new String[resultNodes.length];
+			        		for( int k = 0; k < refKey.length; k++ ){
+			        			refKey[k] = StringUtils.strip(nodeText(resultNodes[k].item(i)));
+			        			if( refKey[k].isEmpty() ){
+			        				refKey = null;
+			        				break;
+			        			}
+			        		}
+			        		if( refKey != null ){
+			        			collectionID = StringUtils.join(refKey, ", ");
+			        			referencedItem = resolve(index, refClassName, refKey);
+			        		}
+			        	}
+			        	if( referencedItem < 0 ){
+			        		wmd.debug("ID not defined, moving on...");
+			        		continue;
+			        	}
 
+		        		store.addToCollection(item, cd.getName(), referencedItem);
 
-	        	// The XPath object compiles the XPath expression
-	        	XPathExpression expr = prop2XpathExpr.get(propKey);
+			            wmd.debug(cd.getName()+":["+collectionID+"]");
 
-		        Matcher fNMatcher = strB4Dot.matcher(propKey.getDataPath());
-			    String fieldName;
-		        String suffix = ""; // after .
-		        if( fNMatcher.find() ){
-			        String prefix = fNMatcher.group(1);
-			        if(prefix.equalsIgnoreCase("if")){
-			        	fieldName = fNMatcher.group(2);
-			        	assertIfExists = true;
-			        }else{
-			        	fieldName = prefix;
-			        	suffix = fNMatcher.group(2);
-			        	wmd.debug("suffix:"+suffix);
+		        		if( 		cd.relationType() == FieldDescriptor.ONE_N_RELATION ){
+		        			setRevRefIfExists(store, item, referencedItem, cd);
+		        		}else if(	cd.relationType() == FieldDescriptor.M_N_RELATION   ){
+		        			// UNTESTED
+		        			addToRevColIfExists(store, item, referencedItem, rd);
+		        		}
 			        }
-		        }else{
-		        	fieldName = propKey.getDataPath();
-		        }
-	        	wmd.debug("fieldname="+fieldName);
+	        	}else{
+	        		throw new Exception(propKey.getDataPath()+" contains a '.', "+
+	        				"but is not a reference or collection");
+	        	}
+	        }
+	        wmd.debug("=======================");
+        }
+        return ID;
+    }
 
+    /**
+     * Evaluates the entries giving each field of a composite key.
+     * @return Key field values, null if any is missing
+     */
+    private String[] evaluateKey(String className, MappingPlan.Entry[] keyParts,
+    		Document doc) throws XPathExpressionException {
+    	String[] key = new String[keyParts.length];
+    	for( int i = 0; i < keyParts.length; i++ ){
+    		key[i] = StringUtils.strip( (String) evaluateMapping(className, keyParts[i],
+    				doc, XPathConstants.STRING) );
+    		if( StringUtils.isEmpty(key[i]) ){
+    			return null;
+    		}
+    	}
+    	return key;
+    }
 
-		        // '.' indicates join, aka reference or collection
+    /**
+     * If the first child is a text node, uses that instead of resolving
+     * whole node (and descendants) to text
+     */
+    private static String nodeText(Node resultNode) {
+    	Node possibleTextNode = resultNode.getFirstChild();
+    	if(possibleTextNode == null){
+    		possibleTextNode = resultNode;
+    	}
+    	if(possibleTextNode.getNodeType() == Node.TEXT_NODE){
+    		return possibleTextNode.getTextContent();
+    	}
+    	return resultNode.getTextContent();
+    }
 
-//		       	wmd.debug("This is an attribute");
+    /**
+     * Converts each class listed in class.list.file on a shared thread pool.
+     * Each class is converted into its own RefItemIndex, so the threads
+     * don't contend for one store.  The indexes are merged into
+     * storedRefItems in class list order, so an item referenced from
+     * several classes is still created and stored once.
+     * @throws Exception the first failure of any class
+     */
+    private void convertClassList() throws Exception {
+    	List<String[]> classList = readClassList(classListFilePath);
+    	openRejectsFile();
+    	openMetrics();
 
+    	for( String[] classEntry : classList ){
+    		progress.addTotalBytes(listDataFiles(new File(classEntry[1])));
+    	}
+    	wmd.log("Converting "+classList.size()+" classes on "+threads+" threads");
+    	ExecutorService pool = Executors.newFixedThreadPool(threads);
+    	List<Future<RefItemIndex>> results = new ArrayList<Future<RefItemIndex>>();
+    	try{
+    		for( final String[] classEntry : classList ){
+    			results.add(pool.submit(new Callable<RefItemIndex>() {
+    				public RefItemIndex call() throws Exception {
+    					RefItemIndex classIndex = new RefItemIndex(WormbaseAcedbConverter.this);
+    					int count = convertClassDir(classEntry[0], new File(classEntry[1]),
+    							classEntry[2], classIndex);
+    					wmd.log("Converted "+count+" "+classEntry[0]+" records");
+    					return classIndex;
+    				}
+    			}));
+    		}
 
-		        FieldDescriptor fd = classCD.getFieldDescriptorByName(fieldName);
-		        if( fd == null ){
-		        	throw new Exception(classCD.getName()+"."+fieldName+" not found in model");
-		        }
+    		// Merge in list order as each class finishes, so finished indexes can be dropped
+    		int merged = 0;
+    		for( int i = 0; i < results.size(); i++ ){
+    			RefItemIndex classIndex = waitFor(results.get(i));
+    			results.set(i, null);
+    			merged += storedRefItems.mergeFrom(classIndex);
+    		}
+    		wmd.log("Merged "+merged+" items shared between classes");
+    	}finally{
+    		pool.shutdownNow();
+    	}
+    }
 
-		        if(fd.isAttribute()){
+    /**
+     * Converts the files queued by process() when parallel.files is set.
+     * Each file is converted on its own thread into its own RefItemIndex.
+     * The indexes are then merged into storedRefItems in the order the
+     * files were handed to process(), so the merged items are the same
+     * as a sequential run would give, whichever file finishes first.
+     * @throws Exception the first failure of any file
+     */
+    private void convertPendingFiles() throws Exception {
+    	wmd.log("Converting "+pendingFiles.size()+" "+currentClass+" files on "+
+    			threads+" threads");
+    	ExecutorService pool = Executors.newFixedThreadPool(threads);
+    	List<Future<RefItemIndex>> results = new ArrayList<Future<RefItemIndex>>();
+    	try{
+    		for( final File file : pendingFiles ){
+    			results.add(pool.submit(new Callable<RefItemIndex>() {
+    				public RefItemIndex call() throws Exception {
+    					MappingPlan plan = new MappingPlan(classCD, dataMapping,
+    							WormbaseAcedbConverter.this);
+    					RefItemIndex fileIndex = new RefItemIndex(WormbaseAcedbConverter.this);
+    					Reader reader = new BufferedReader(new FileReader(file));
+    					try{
+    						int count = convertRecords(plan, reader, fileIndex, file.getPath());
+    						wmd.log("Converted "+count+" records from "+file);
+    					}finally{
+    						reader.close();
+    					}
+    					return fileIndex;
+    				}
+    			}));
+    		}
 
-		        	if(assertIfExists){
-			        	NodeList resultNode = (NodeList) expr.evaluate(doc, XPathConstants.NODESET);
+    		// Merge in file order as each file finishes, so finished indexes can be dropped
+    		int merged = 0;
+    		for( int i = 0; i < results.size(); i++ ){
+    			RefItemIndex fileIndex = waitFor(results.get(i));
+    			results.set(i, null);
+    			merged += storedRefItems.mergeFrom(fileIndex);
+    		}
+    		wmd.log("Merged "+merged+" items shared between files");
+    	}finally{
+    		pool.shutdownNow();
+    	}
+    	pendingFiles.clear();
+    }
 
-			        	wmd.debug(String.valueOf(resultNode.getLength()));
+    /**
+     * Converts the files queued by process() when only snapshot.dir is set,
+     * one after another into storedRefItems, as process() would have.
+     */
+    private void convertQueuedFiles() throws Exception {
+    	if( mappingPlan == null ){
+    		mappingPlan = new MappingPlan(classCD, dataMapping, this);
+    	}
+    	for( File file : pendingFiles ){
+    		wmd.log("Processing "+currentClass+" file: "+file);
+    		Reader reader = new BufferedReader(new FileReader(file));
+    		try{
+    			convertRecords(mappingPlan, reader, storedRefItems, file.getPath());
+    		}finally{
+    			reader.close();
+    		}
+    	}
+    	pendingFiles.clear();
+    }
 
-		        		if(resultNode.getLength() == 0){
-		        			wmd.debug(fieldName+"=false");
-		        			item.setAttribute(fieldName, "false");
-		        		}else{
-		        			wmd.debug(fieldName+"=true");
-		        			item.setAttribute(fieldName, "true");
-		        		}
+    /**
+     * Waits for a conversion task, rethrowing whatever made it fail.
+     */
+    private static <T> T waitFor(Future<T> result) throws Exception {
+    	try{
+    		return result.get();
+    	}catch( ExecutionException e ){
+    		if( e.getCause() instanceof Exception ){
+    			throw (Exception) e.getCause();
+    		}
+    		throw e;
+    	}
+    }
 
-		        	}else{
+    /**
+     * Converts every file in dataDir as records of className.
+     * @param index Where the class's items and their references are kept
+     * @return Number of records read
+     */
+    private int convertClassDir(String className, File dataDir, String mappingFile,
+    		RefItemIndex index) throws Exception {
+    	ClassDescriptor cd = model.getClassDescriptorByName(className);
+    	if( cd == null ){
+    		throw new Exception(className+" listed in "+classListFilePath+
+    				" not found in model");
+    	}
+    	DataMapper mapping = loadMappingFile(mappingFile);
+    	MappingPlan plan = new MappingPlan(cd, mapping, this);
 
-			        	String xPathValue = StringUtils.strip( expr.evaluate(doc) );
-			        	wmd.debug("xpathvalue:"+xPathValue);
-				        if(fieldName.equals(getClassPIDField(classCD.getSimpleName()))){
-				        	if(firstPass){
-				        		ID = xPathValue;
-						        // if this record's pID exists in the hash, kill the incumbent and take it's name
-						        if(itemHasBeenProcessed(currentClass, ID)){
-						        	String existingRecordsIMID = getRefItem(currentClass, ID).getIdentifier();
-						        	wmd.debug("found cached stand-in record, replacing "+
-						        			item.getIdentifier()+" with "+existingRecordsIMID);
-						        	item.setIdentifier(existingRecordsIMID);
-						        }
-					        	setRefItem(currentClass, ID, item);
-				        	}else{
-				        		continue;
-				        	}
-
-				        }
-
-			        	// DataPath describes attribute
-				        if (!StringUtils.isEmpty(xPathValue)) {
-							wmd.debug("Setting attribute ["+fieldName+"] to ["+xPathValue+"]");
-							item.setAttribute(fieldName, xPathValue);
-						}else{
-							wmd.debug("ignoring attribute ["+fieldName+"], no value");
-						}
+    	int count = 0;
+    	for( File file : listDataFiles(dataDir) ){
+    		wmd.log("Processing "+className+" file: "+file);
+    		Reader reader = new BufferedReader(new FileReader(file));
+    		try{
+    			count += convertRecords(plan, reader, index, file.getPath());
+    		}finally{
+    			reader.close();
+    		}
+    	}
+    	return count;
+    }
 
-		        	}
+    /**
+     * @return The regular, non-hidden files in dataDir, sorted
+     */
+    private List<File> listDataFiles(File dataDir) throws Exception {
+    	File[] files = dataDir.listFiles();
+    	if( files == null ){
+    		throw new Exception("Data directory "+dataDir+
+    				" is not a directory or can't be read");
+    	}
+    	Arrays.sort(files);
+    	List<File> dataFiles = new ArrayList<File>();
+    	for( File file : files ){
+    		if( file.isFile() && !file.isHidden() ){
+    			dataFiles.add(file);
+    		}
+    	}
+    	return dataFiles;
+    }
 
-		        }else{
+    /**
+     * Reads the class list file, one "class dataDir mappingFile" triple per
+     * line.  Blank lines and lines starting with # are skipped.
+     */
+    private List<String[]> readClassList(String path) throws Exception {
+    	List<String[]> classList = new ArrayList<String[]>();
+    	BufferedReader br = new BufferedReader(new FileReader(path));
+    	try{
+    		String line;
+    		int lineNo = 0;
+    		while( (line = br.readLine()) != null ){
+    			lineNo++;
+    			line = line.trim();
+    			if( line.length() == 0 || line.startsWith("#") ){
+    				continue;
+    			}
+    			String[] classEntry = line.split("\\s+");
+    			if( classEntry.length != 3 ){
+    				throw new Exception(path+":"+lineNo+" should be"+
+    						" \"class dataDir mappingFile\", found: "+line);
+    			}
+    			classList.add(classEntry);
+    		}
+    	}finally{
+    		br.close();
+    	}
+    	return classList;
+    }
 
-		        	ReferenceDescriptor rd = (ReferenceDescriptor) fd;
+    /**
+     * Stores every item in storedRefItems.  Called once, when the converter
+     * is closed, so items referenced from several files are stored once.
+     * Items are built from the staged rows as they are stored.
+     * @throws Exception
+     */
+    private void flushRefItems() throws Exception {
+    	wmd.debug("==== Flushing cached reference items ====");
+    	wmd.log(progress.report());
+    	StagingStore store = storedRefItems.getStore();
+    	wmd.debug("Collection arena: "+store.getArenaUsed()+" ids, "+
+    			store.getArenaAbandoned()+" in outgrown slots");
+    	logAttributePools(store);
+    	writeFlushCounts(store.getClassCounts());
+    	if( loadProfileFilePath != null ){
+    		LoadProfile loadProfile = store.profile(loadProfileTop);
+    		loadProfile.logReport(wmd);
+    		loadProfile.writeJson(loadProfileFilePath);
+    	}
+    	if( allocations != null ){
+    		// sizes peak here, before storing releases the columns
+    		wmd.log("Allocation by stage before flush:\n"+allocations.report());
+    	}
+    	long allocStart = allocStart();
+    	long flushStart = metricsStart();
+    	int count = store.storeAll();
+    	metricsEnd(flushSeconds, flushStart);
+    	allocEnd(ConversionStage.FLUSH, allocStart);
+    	if( allocations != null ){
+    		wmd.log("Allocation by stage, whole run:\n"+allocations.report());
+    	}
+    	wmd.log("Stored "+count+" items");
+    	if( valueSpillFile != null ){
+    		wmd.log("Spilled "+valueSpillFile.getValueCount()+" attribute values, "+
+    				(valueSpillFile.getValueBytes() / 1024)+" KB");
+    		valueSpillFile.close();
+    		valueSpillFile = null;
+    	}
+    }
 
-		        	String refClassName;
-        			if(propKey.getCastType() != null){
-        				refClassName = propKey.getCastType();
-        			}else{
-			        	refClassName = TypeUtil.unqualifiedName(rd.getReferencedClassName());
-        			}
+    /**
+     * Logs how many items of each class are about to be stored and, if
+     * flush.counts.file is set, writes them there as "class&lt;tab&gt;count"
+     * lines in the order the classes are stored.
+     */
+    private void writeFlushCounts(Map<String, Integer> counts) throws IOException {
+    	for( Map.Entry<String, Integer> count : counts.entrySet() ){
+    		wmd.log("Storing "+count.getValue()+" "+count.getKey()+" items");
+    	}
+    	if( flushCountsFilePath == null ){
+    		return;
+    	}
+    	Writer out = new BufferedWriter(new FileWriter(flushCountsFilePath));
+    	try{
+    		for( Map.Entry<String, Integer> count : counts.entrySet() ){
+    			out.write(count.getKey()+"\t"+count.getValue()+"\n");
+    		}
+    	}finally{
+    		out.close();
+    	}
+    }
 
+    /**
+     * Logs the attribute fields whose values were pooled and the memory
+     * that saved.
+     */
+    private void logAttributePools(StagingStore store) {
+    	long totalSaved = 0;
+    	for( AttributeValuePool pool : store.getAttributePools() ){
+    		if( pool.isRejected() || pool.getHits() == 0 ){
+    			continue;
+    		}
+    		wmd.log(String.format("Pooled %s.%s: %d values, %d repeats, ~%d KB saved",
+    				pool.getClassName(), pool.getFieldName(), pool.getPooledValues(),
+    				pool.getHits(), pool.getBytesSaved() / 1024));
+    		totalSaved += pool.getBytesSaved();
+    	}
+    	wmd.log("Attribute value pooling saved ~"+(totalSaved / 1024)+" KB");
+    }
 
-		        	if( rd.relationType() == FieldDescriptor.ONE_ONE_RELATION ||
-		        		rd.relationType() == FieldDescriptor.N_ONE_RELATION   )
-		        	{
-	//			        		wmd.debug("This is a reference");
+    private synchronized void openRejectsFile() throws Exception {
+    	if( rejectFilePath == null )
+    	{
+			wmd.debug("rejects.file property not set, rejected XML"+
+					" elements will be discarded");
+    	}else if( rejects == null ){
+    		wmd.log("XML rejects file set to:"+rejectFilePath);
+			rejects = new RejectsSink(new File(rejectFilePath)); // replaces file if exists
+    	}
+    }
 
-		        		String xPathValue = StringUtils.strip( expr.evaluate(doc) );
-			        	Item referencedItem;
-		        		if(!xPathValue.isEmpty()){
-	        				referencedItem = getRefItem(refClassName, xPathValue);
-			        	}else{
-			        		wmd.debug("ID not defined, moving on...");
-			        		wmd.debug("=======================");
-			        		continue;
-			        	}
+    /**
+     * Hands a record to the rejects file's writer thread, if there is a
+     * rejects file.
+     * @param source File the record was read from, may be null
+     * @param line Line the record ends at
+     */
+    private void writeReject(String source, int line, RejectsSink.Stage stage, String message,
+    		String xmlChunk) throws Exception {
+		if(rejects != null){
+			wmd.debug("### "+stage+" FAILED: ADDING RECORD TO REJECTS FILE ###");
+			rejects.add(source, line, stage, message, xmlChunk);
+		}
+		if( metrics != null ){
+			metrics.counter("intermine_load_rejects_total", "Records rejected", "source",
+					METRICS_SOURCE, "stage", stage.name().toLowerCase()).inc();
+		}
+    }
 
-			        	wmd.debug("Setting current "+currentClass+"."+fd.getName()+" to: ("+refClassName+")["+xPathValue+"]" );
-			        	item.setReference(rd.getName(), referencedItem.getIdentifier());
+    /**
+     * Finishes writing the rejects file and logs how many records went to it.
+     */
+    private void closeRejectsFile() throws Exception {
+    	if( rejects == null ){
+    		return;
+    	}
+    	rejects.close();
+    	StringBuilder counts = new StringBuilder();
+    	for( RejectsSink.Stage stage : RejectsSink.Stage.values() ){
+    		counts.append(counts.length() == 0 ? "" : ", ").append(
+    				stage.name().toLowerCase()).append(": ").append(rejects.getCount(stage));
+    	}
+    	wmd.log("Rejected records ("+counts+") written to "+rejects.getFile()+
+    			", index in "+rejects.getIndexFile());
+    }
 
-			        	if( 		rd.relationType() == FieldDescriptor.ONE_ONE_RELATION ){
-					        		wmd.debug("1:1");
-			        		setRevRefIfExists(item, referencedItem, rd);
-			        	}else if(	rd.relationType() == FieldDescriptor.N_ONE_RELATION){
-					        		wmd.debug("N:1");
-			        		addToRevColIfExists(item, referencedItem, rd);
-			        	}
+    /**
+     * Closes the rejects file when a conversion fails.  Its writer thread is
+     * a daemon, so the records it holds would be lost when the JVM exits.
+     * @param failure What the conversion fails with.  A failure to close the
+     * file is added to it rather than hiding it.
+     */
+    private void closeRejectsFile(Exception failure){
+    	try{
+    		closeRejectsFile();
+    	}catch( Exception e ){
+    		failure.addSuppressed(e);
+    	}
+    }
 
-		        	}else if( rd.isCollection() ){
-				        		wmd.debug("This is a collection");
-		        		CollectionDescriptor cd = (CollectionDescriptor) rd;
-
-		        		//if(cd.relationType() == FieldDescriptor.ONE_N_RELATION ){wmd.debug("1:N");}else if(cd.relationType() == FieldDescriptor.M_N_RELATION){wmd.debug("M:N");}
-
-			        	// Get set of IDs referenced
-				        NodeList resultNodes = (NodeList) expr.evaluate(doc,  XPathConstants.NODESET);
-				        String collectionIDs[] = new String[resultNodes.getLength()];
-				        for(int i = 0; i < resultNodes.getLength(); i++) {
-
-				        	// If the first child is a text node, uses that instead of resolving
-				        	//   whole node (and descendants) to text
-				        	Node resultNode = resultNodes.item(i);
-				        	Node possibleTextNode = resultNode.getFirstChild();
-				        	if(possibleTextNode == null){
-				        		possibleTextNode = resultNode;
-				        	}
-				        	String nodeText = "";
-				        	if(possibleTextNode.getNodeType() == Node.TEXT_NODE){
-				        		nodeText = possibleTextNode.getTextContent();
-				        	}else{
-				        		nodeText = resultNode.getTextContent();
-				        	}
-				        	//wmd.debug("ASDF::"+String.valueOf(resultNode.getNodeType())+"--"+Node.ELEMENT_NODE); // DELETE
-
-				        	collectionIDs[i] = StringUtils.strip(nodeText);
-
-				        	Item referencedItem;
-			        		if(!collectionIDs[i].isEmpty()){
-				        		referencedItem = getRefItem(refClassName, collectionIDs[i]);
-				        	}else{
-				        		wmd.debug("ID not defined, moving on...");
-				        		continue;
-				        	}
-
-
-			        		item.addToCollection(cd.getName(), referencedItem);
-
-				            wmd.debug(cd.getName()+":["+collectionIDs[i]+"]");
-
-			        		if( 		cd.relationType() == FieldDescriptor.ONE_N_RELATION ){
-			        			setRevRefIfExists(item, referencedItem, cd);
-			        		}else if(	cd.relationType() == FieldDescriptor.M_N_RELATION   ){
-	//				        			wmd.debug("M:N");
-			        			// UNTESTED
-			        			addToRevColIfExists(item, referencedItem, rd);
-			        		}
-				        }
-		        	}else{
-		        		throw new Exception(propKey.getDataPath()+" contains a '.', "+
-		        				"but is not a reference or collection");
-		        	}
-		        }
-        		firstPass = false;
-		        wmd.debug("=======================");
-	        }
+    /**
+     * Evaluates the XPath of a mapping file entry against the current record.
+     * When mapping.profile.file is set the time, result nodes and allocation
+     * of the evaluation are charged to the entry.
+     * @param className Class the mapping file loads
+     * @param entry Mapping file entry to evaluate
+     * @param doc Record being converted
+     * @param returnType XPathConstants.STRING or XPathConstants.NODESET
+     * @return String or NodeList depending on returnType
+     * @throws XPathExpressionException
+     */
+    private Object evaluateMapping(String className, MappingPlan.Entry entry,
+    		Document doc, QName returnType) throws XPathExpressionException {
+    	long allocStart = allocStart();
+    	try{
+    		if( profiler == null ){
+    			return entry.getExpression().evaluate(doc, returnType);
+    		}
+    		return profiler.evaluate(className, entry.getKey(), entry.getXPathQuery(),
+    				entry.getExpression(), doc, returnType);
+    	}finally{
+    		allocEnd(ConversionStage.EVALUATE, allocStart);
+    	}
+    }
 
-	        if( ID == null ){
-	        	throw new Exception(getClassPIDField(classCD.getSimpleName())+
-	        			" set as class ID but not defined. Record ending at line:"+fp.getCurrentLine());
-	        }
-	        wmd.debug("Storing "+currentClass+" with ID:"+ID);
-//	        store(item);
+    /**
+     * index.getOrCreate(), accounted to the resolve stage and recorded as a
+     * reference resolved event.
+     */
+    private int resolve(RefItemIndex index, String className, String pID) throws Exception {
+    	Object event = LoadEvents.beginReferenceResolved();
+    	long allocStart = allocStart();
+    	try{
+    		return index.getOrCreate(className, pID);
+    	}finally{
+    		allocEnd(ConversionStage.RESOLVE, allocStart);
+    		LoadEvents.referenceResolved(event, className, pID);
+    	}
+    }
 
-        	setRefItem(currentClass, ID, item);
+    private int resolve(RefItemIndex index, String className, String[] key) throws Exception {
+    	Object event = LoadEvents.beginReferenceResolved();
+    	long allocStart = allocStart();
+    	try{
+    		return index.getOrCreate(className, key);
+    	}finally{
+    		allocEnd(ConversionStage.RESOLVE, allocStart);
+    		if( event != null ){
+    			LoadEvents.referenceResolved(event, className, StringUtils.join(key, ", "));
+    		}
+    	}
+    }
 
-	        // TODO remove in final build
-//	        if(count == 100){
-//		        wmd.debug("STOP AFTER 100 RECORDS FOR TESTING");
-//		        break;
-//	        }
+    /**
+     * Starts the metrics registry when metrics.file is set.  Records read,
+     * rejects and parse and mapping latency are counted as records are
+     * converted, items stored as they are stored, and the reference index
+     * is read each time the file is written.
+     */
+    private synchronized void openMetrics(){
+    	if( metricsFilePath == null || metrics != null ){
+    		return;
     	}
+    	wmd.log("Writing metrics to "+metricsFilePath+" every "+metricsInterval+" seconds");
+    	metrics = LoadMetrics.open(metricsFilePath, metricsInterval);
+    	progress.watch(metrics, METRICS_SOURCE);
+    	String help = "Time taken by each stage, per record or per flush";
+    	parseSeconds = metrics.histogram("intermine_load_stage_seconds", help,
+    			"source", METRICS_SOURCE, "stage", "parse");
+    	mappingSeconds = metrics.histogram("intermine_load_stage_seconds", help,
+    			"source", METRICS_SOURCE, "stage", "mapping");
+    	flushSeconds = metrics.histogram("intermine_load_stage_seconds", help,
+    			"source", METRICS_SOURCE, "stage", "flush");
+    	// Counted by the index, items converted in parallel files or listed
+    	// classes are added as each file's or class's index is merged
+    	metrics.counter("intermine_load_references_total",
+    			"References resolved, found already staged or created as stand-ins",
+    			new LoadMetrics.Value() {
+    		public double get() {
+    			return storedRefItems.getFoundCount();
+    		}
+    	}, "source", METRICS_SOURCE, "result", "found");
+    	metrics.counter("intermine_load_references_total",
+    			"References resolved, found already staged or created as stand-ins",
+    			new LoadMetrics.Value() {
+    		public double get() {
+    			return storedRefItems.getCreatedCount();
+    		}
+    	}, "source", METRICS_SOURCE, "result", "created");
+    	metrics.gauge("intermine_load_staged_items", "Items in the converter's staging index",
+    			new LoadMetrics.Value() {
+    		public double get() {
+    			return storedRefItems.size();
+    		}
+    	}, "source", METRICS_SOURCE);
+    }
 
-    	wmd.debug("==== Flushing cached reference items ====");
-    	// Store all items in storedRefItems
-    	Iterator<Entry<String, Item>> keySetIter =
-    			storedRefItems.entrySet().iterator();
-    	while(keySetIter.hasNext()){
-    		Entry<String, Item> keySet = keySetIter.next();
-    		wmd.debug("Storing item:["+keySet.getKey()+"]");
-    		store(keySet.getValue());
+    /**
+     * Writes the metrics file a last time.
+     */
+    private void closeMetrics() throws IOException {
+    	if( metrics != null ){
+    		metrics.close();
+    		metrics = null;
+    	}
+    }
+
+    /**
+     * @return System.nanoTime(), 0 if metrics.file isn't set
+     */
+    private long metricsStart(){
+    	return metrics == null ? 0 : System.nanoTime();
+    }
+
+    private void metricsEnd(LoadMetrics.Histogram histogram, long start){
+    	if( metrics != null ){
+    		histogram.observeSince(start);
     	}
+    }
 
-		if(rejectFilePath != null)
-			rejectsFW.close();
+    /**
+     * @return this thread's allocated bytes, 0 if allocation isn't being
+     * accounted
+     */
+    private long allocStart(){
+    	return allocations == null ? 0 : allocations.start();
+    }
 
+    private void allocEnd(ConversionStage stage, long allocStart){
+    	if( allocations != null ){
+    		allocations.end(stage, allocStart);
+    	}
     }
 
     /**
      * Gets ID of referenced object if exists.  It it doesn't exist, creates it
      * and returns ID of newly created object.
-     * @param fieldName The reference or collection this object is referred to in
+     * @param className Class of the referenced object
      * @param pID Primary ID value of referenced object
      * @return InterMine item identifier for this object
      * @throws Exception
      */
-	public Item getRefItem(String className, String pID) throws Exception {
-//    	ReferenceDescriptor rd = classCD.getReferenceDescriptorByName(fieldName, true);
+	public String getRefItem(String className, String pID) throws Exception {
     	if( className == null ){
     		throw new Exception("getRefID className parameter is null");
     	}
@@ -471,35 +1035,8 @@ public class WormbaseAcedbConverter extends BioFileConverter
     		throw new Exception("getRefID pID parameter is null");
     	}
 
-		Item referencedItem;
-		if (storedRefItems.containsKey(className + ":" + pID)) {
-			referencedItem = storedRefItems.get(className + ":"
-					+ pID);
-		} else {
-			wmd.debug("new " + className + " object:" + pID);
-			referencedItem = createItem(className);
-			referencedItem.setAttribute(getClassPIDField(className), pID);
-			storedRefItems.put(className+":"+pID, referencedItem);
-		}
-		return referencedItem;
-	}
-
-	/**
-	 * Stores item in working buffer, overwriting any existing pairs.  Buffer
-	 * is flushed once all items are dealt with.
-	 * @param className
-	 * @param pID
-	 * @param item
-	 * @throws Exception
-	 */
-	public void setRefItem(String className, String pID, Item item) throws Exception{
-    	if( className == null ){
-    		throw new Exception("getRefID className parameter is null");
-    	}
-    	if( pID == null ){
-    		throw new Exception("getRefID pID parameter is null");
-    	}
-    	storedRefItems.put(className+":"+pID, item);
+		return storedRefItems.getStore().getIdentifier(
+				storedRefItems.getOrCreate(className, pID));
 	}
 
 	public boolean itemHasBeenProcessed(String className, String pID) throws Exception {
@@ -511,16 +1048,23 @@ public class WormbaseAcedbConverter extends BioFileConverter
     		throw new Exception("getRefID pID parameter is null");
     	}
 
-		Item referencedItem;
-		if (storedRefItems.containsKey(className + ":" + pID)) {
-			return true;
-		} else {
-			return false;
-		}
+		return storedRefItems.contains(className, pID);
 	}
 
-	// TODO configure two part keys
+	/**
+	 * @return The first of the class's key fields, the only one for single
+	 * field keys
+	 * @throws Exception if no key is configured for className
+	 */
 	public String getClassPIDField(String className) throws Exception{
+		return getClassKeyFields(className)[0];
+	}
+
+	/**
+	 * @return The class's key fields, in key file order
+	 * @throws Exception if no key is configured for className
+	 */
+	public String[] getClassKeyFields(String className) throws Exception{
 		if (keyMapping.containsKey(className)) {
 			return keyMapping.get(className);
 		}
@@ -531,6 +1075,14 @@ public class WormbaseAcedbConverter extends BioFileConverter
 				+ keyFilePath);
 	}
 
+	/**
+	 * @return true if the class's key has more than one field
+	 */
+	public boolean hasCompositeKey(String className){
+		String[] keyFields = keyMapping.get(className);
+		return keyFields != null && keyFields.length > 1;
+	}
+
 	/**
 	 * This method is automatically called if "mapping.file" property set
 	 * for source in project XML.
@@ -540,14 +1092,25 @@ public class WormbaseAcedbConverter extends BioFileConverter
 	 * @throws Exception
 	 */
     public void setMappingFile(String mappingFile) throws Exception{
-        dataMapping = new DataMapper();
+        mappingFilePath = mappingFile;
+        dataMapping = loadMappingFile(mappingFile);
+    }
+
+    private DataMapper loadMappingFile(String mappingFile) throws Exception{
+    	DataMapper mapping = new DataMapper();
     	try {
-			dataMapping.load(new FileReader(mappingFile));
+    		Reader reader = new FileReader(mappingFile);
+    		try {
+    			mapping.load(reader);
+    		} finally {
+    			reader.close();
+    		}
 		} catch (FileNotFoundException e) {
 			wmd.debug("ERROR: "+mappingFile+" not found");
 			throw e;
 		}
     	System.out.println("Processed mapping file: "+mappingFile);
+    	return mapping;
     }
 
     /**
@@ -565,13 +1128,21 @@ public class WormbaseAcedbConverter extends BioFileConverter
 	 * for all children of BioEntity.  Precedence granted to more
 	 * specific keys.
 	 *
+	 * A key may have several comma separated fields:
+	 * SOTerm.key = name, ontology
+	 * Items are then identified by all field values together.  A field
+	 * may be a reference, its value is the referenced item's ID.
+	 *
+	 * Other properties, ex: Protein.key_objectid, name keys used when the
+	 * items are integrated and are ignored here.
+	 *
      * @param keyFilePath
      * @throws Exception
      */
     public void setKeyFile(String keyFilePath) throws Exception{
     	System.out.println("keyFilePath");
     	this.keyFilePath = keyFilePath;
-        keyMapping = new HashMap<String, String>();
+        keyMapping = new HashMap<String, String[]>();
     	Properties keyFileProps = new Properties();
     	try{
 	    	keyFileProps.load(new FileReader(keyFilePath));
@@ -583,12 +1154,15 @@ public class WormbaseAcedbConverter extends BioFileConverter
     	Enumeration keyEnum = keyFileProps.keys();
     	while( keyEnum.hasMoreElements() ){
     		String key = (String) keyEnum.nextElement();
-    		int index = key.indexOf(".key");
-			if(index > 0){
-    			keyMapping.put( key.substring(0, index),
-    							keyFileProps.getProperty(key));
-
-    		}
+			if(key.endsWith(".key") && key.length() > ".key".length()){
+				String[] fields = StringUtils.split(keyFileProps.getProperty(key), ", \t");
+				if(fields.length == 0){
+					throw new Exception(key+" in "+keyFilePath+" has no fields");
+				}
+				keyMapping.put( key.substring(0, key.length() - ".key".length()), fields);
+			}else{
+				wmd.debug("Ignoring key file property: "+key);
+			}
     	}
     	System.out.println("Processed key file: ["+keyFilePath+"]");
     }
@@ -605,12 +1179,12 @@ public class WormbaseAcedbConverter extends BioFileConverter
     /**
      * Sets the reverse reference of referenced classes of 1:1 and N:1
      * relationships.
+     * @param store Store holding both items
      * @param currentItem The item whose fields are being processed.
      * @param referencedItem The item the currentItem's reference points to
      * @param rd Descriptor for currentItem's current reference being processed
-     * @param refPID The primary ID intended to be set for referencedItem
      */
-    public void setRevRefIfExists(Item currentItem, Item referencedItem,
+    public void setRevRefIfExists(StagingStore store, int currentItem, int referencedItem,
     		ReferenceDescriptor rd){
     	ReferenceDescriptor rrd = rd.getReverseReferenceDescriptor();
 		if(rrd == null){
@@ -620,11 +1194,11 @@ public class WormbaseAcedbConverter extends BioFileConverter
 //					"Setting (%s)%s.%s= current item",
 //					rd.getName(), rd.getReferencedClassName(),
 //					rrd.getName()));
-			referencedItem.setReference(rrd.getName(), currentItem);
+			store.setReference(referencedItem, rrd.getName(), currentItem);
 		}
     }
 
-    public void addToRevColIfExists(Item currentItem, Item referencedItem,
+    public void addToRevColIfExists(StagingStore store, int currentItem, int referencedItem,
     		ReferenceDescriptor rd){
     	CollectionDescriptor rcd = (CollectionDescriptor) rd.getReverseReferenceDescriptor();
 		if(rcd == null){
@@ -634,7 +1208,7 @@ public class WormbaseAcedbConverter extends BioFileConverter
 //					"Adding current item to (%s)%s.%s",
 //					rd.getName(), rd.getReferencedClassName(),
 //					rcd.getName()));
-			referencedItem.addToCollection(rcd.getName(), currentItem);
+			store.addToCollection(referencedItem, rcd.getName(), currentItem);
 		}
 
     }
@@ -645,10 +1219,457 @@ public class WormbaseAcedbConverter extends BioFileConverter
         classCD = model.getClassDescriptorByName(currentClass);
     }
 
+    /**
+     * This method is automatically called if "flush.counts.file" property
+     * set for source in project XML.
+     *
+     * Items are stored grouped by class.  Before storing them the number of
+     * items of each class is written to this file, one "class&lt;tab&gt;count"
+     * line per class in the order they will be stored, so loaders reading
+     * the items can size and batch by class.
+     * @param flushCountsFile
+     */
+    public void setFlushCountsFile(String flushCountsFile){
+    	flushCountsFilePath = flushCountsFile;
+    }
+
+    /**
+     * This method is automatically called if "allocation.report.interval"
+     * property set for source in project XML.
+     *
+     * Accounts the bytes allocated to each stage of conversion: reading,
+     * repair, parse, evaluate (XPath), resolve (references) and flush, from
+     * the JVM's per-thread counters.  Every this many seconds the figures are
+     * logged along with the estimated size of the staged items, and once
+     * more at the end of the run.
+     * @param seconds
+     */
+    public void setAllocationReportInterval(String seconds){
+    	long interval = Long.parseLong(seconds.trim());
+    	if( interval <= 0 ){
+    		allocations = null;
+    		return;
+    	}
+    	allocations = new StageAllocations<ConversionStage>(ConversionStage.class,
+    			interval * 1000);
+    	allocations.watch("staged items", new StageAllocations.Size() {
+    		public long entries() {
+    			return storedRefItems.size();
+    		}
+    		public long estimatedBytes() {
+    			return storedRefItems.getStore().estimateBytes();
+    		}
+    	});
+    	allocations.watch("reference index", new StageAllocations.Size() {
+    		public long entries() {
+    			return storedRefItems.size();
+    		}
+    		public long estimatedBytes() {
+    			return storedRefItems.estimateBytes();
+    		}
+    	});
+    }
+
+    /**
+     * This method is automatically called if "load.profile.file" property
+     * set for source in project XML.
+     *
+     * Before the items are stored, reports per class how many came from
+     * records and how many are stand-ins that were only referenced, a
+     * histogram of collection sizes per collection field and the items with
+     * the most references and collection entries pointing at them.  The
+     * report is logged and written to this path as JSON.
+     * @param loadProfileFile
+     */
+    public void setLoadProfileFile(String loadProfileFile){
+    	loadProfileFilePath = loadProfileFile;
+    }
+
+    /**
+     * This method is automatically called if "load.profile.top" property
+     * set for source in project XML.
+     * @param top Number of most referred to items in the load profile,
+     * defaults to 20
+     */
+    public void setLoadProfileTop(String top){
+    	loadProfileTop = Integer.parseInt(top.trim());
+    }
+
+    /**
+     * This method is automatically called if "jfr.events" property set for
+     * source in project XML.
+     *
+     * Emits Java Flight Recorder events as records are parsed, mapped,
+     * their references resolved and the items stored, for looking at
+     * individual slow records in a recording.  Costs nothing unless set.
+     * @param jfrEvents "true" to emit events
+     */
+    public void setJfrEvents(String jfrEvents){
+    	if( Boolean.parseBoolean(jfrEvents.trim()) && !LoadEvents.enable() ){
+    		wmd.log("jfr.events set but this JVM has no Flight Recorder, no events");
+    	}
+    }
+
+    /**
+     * This method is automatically called if "metrics.file" property set for
+     * source in project XML.
+     *
+     * Writes records read, items stored by class, rejects by stage,
+     * references found and created and stage latencies in the Prometheus
+     * text format to this file, for node_exporter's textfile collector.  The
+     * file is rewritten every metrics.interval seconds and when the
+     * converter is closed.
+     * @param metricsFile ex: /var/lib/node_exporter/textfile/acedb_gene.prom
+     */
+    public void setMetricsFile(String metricsFile){
+    	metricsFilePath = metricsFile;
+    }
+
+    /**
+     * This method is automatically called if "metrics.interval" property
+     * set for source in project XML.
+     * @param seconds Seconds between writes of metrics.file, defaults to 60
+     */
+    public void setMetricsInterval(String seconds){
+    	metricsInterval = Long.parseLong(seconds.trim());
+    	if( metricsInterval < 1 ){
+    		throw new IllegalArgumentException("metrics.interval must be at least 1, was: "+
+    				seconds);
+    	}
+    }
+
+    /**
+     * This method is automatically called if "progress.interval" property
+     * set for source in project XML.
+     *
+     * Every this many seconds logs how much of the input has been read,
+     * records converted and per second since the last report, and an ETA
+     * at that rate.  The input is the files of src.data.dir, or of the
+     * class list's directories.
+     * @param seconds Seconds between reports, defaults to 300, 0 for none
+     */
+    public void setProgressInterval(String seconds){
+    	progress = new LoadProgress(Long.parseLong(seconds.trim()) * 1000);
+    }
+
     public void setRejectsFile(String rejectsFile){
     	rejectFilePath = rejectsFile;
     }
 
+    /**
+     * This method is automatically called if "mapping.profile.file" property
+     * set for source in project XML.
+     *
+     * Turns on per mapping entry cost profiling.  A ranked table is logged
+     * when the converter is closed and written as JSON to this path.
+     * @param profileFile
+     */
+    public void setMappingProfileFile(String profileFile){
+    	profileFilePath = profileFile;
+    	profiler = new MappingProfiler();
+    	wmd.log("Mapping entry profile will be written to: "+profileFile);
+    }
+
+    /**
+     * This method is automatically called if "class.list.file" property
+     * set for source in project XML.
+     *
+     * Converts several classes in one run instead of the single
+     * source.class.  Each line of the file is a
+     *
+     * className dataDir mappingFile
+     *
+     * triple.  Every file in dataDir is converted with mappingFile.  The
+     * classes are converted concurrently when the converter is closed and
+     * share one reference index, so each (class, pID) is stored once.
+     * @param classListFile
+     */
+    public void setClassListFile(String classListFile){
+    	classListFilePath = classListFile;
+    }
+
+    /**
+     * This method is automatically called if "threads" property set for
+     * source in project XML.  Defaults to the number of processors.
+     * @param threadCount Number of conversion threads
+     */
+    public void setThreads(String threadCount){
+    	threads = Integer.parseInt(threadCount.trim());
+    	if( threads < 1 ){
+    		throw new IllegalArgumentException("threads must be at least 1, was: "+threadCount);
+    	}
+    }
+
+    /**
+     * This method is automatically called if "parallel.files" property set
+     * for source in project XML.
+     *
+     * If true the files of src.data.dir are not converted one at a time as
+     * they are handed to process().  They are queued and converted
+     * concurrently, on "threads" threads, when the converter is closed.
+     * @param parallelFiles "true" to convert files concurrently
+     */
+    public void setParallelFiles(String parallelFiles){
+    	this.parallelFiles = "true".equalsIgnoreCase(parallelFiles.trim());
+    }
+
+    /**
+     * This method is automatically called if "attribute.pool.sample"
+     * property set for source in project XML.
+     *
+     * Number of values of each attribute to look at before deciding whether
+     * the attribute repeats enough for its values to be pooled.  Defaults
+     * to 1000.
+     * @param sample
+     */
+    public void setAttributePoolSample(String sample){
+    	attributePoolSample = Integer.parseInt(sample.trim());
+    	if( attributePoolSample < 1 ){
+    		throw new IllegalArgumentException("attribute.pool.sample must be at least 1, was: "+sample);
+    	}
+    }
+
+    /**
+     * This method is automatically called if "attribute.pool.size" property
+     * set for source in project XML.
+     *
+     * Most distinct values pooled per attribute, defaults to 1024.  0 turns
+     * pooling off.
+     * @param size
+     */
+    public void setAttributePoolSize(String size){
+    	attributePoolSize = Integer.parseInt(size.trim());
+    }
+
+    /**
+     * This method is automatically called if "attribute.spill.threshold"
+     * property set for source in project XML.
+     *
+     * Attribute values of at least this many characters are kept in a
+     * memory-mapped spill file, not on the heap, until their items are
+     * stored.  0, the default, keeps every value on the heap.
+     * @param threshold
+     */
+    public void setAttributeSpillThreshold(String threshold){
+    	attributeSpillThreshold = Integer.parseInt(threshold.trim());
+    }
+
+    /**
+     * This method is automatically called if "attribute.spill.dir" property
+     * set for source in project XML.  Directory of the spill file, defaults
+     * to the temporary directory.
+     * @param dir
+     */
+    public void setAttributeSpillDir(String dir){
+    	attributeSpillDir = dir;
+    }
+
+    int getAttributeSpillThreshold() {
+    	return attributeSpillThreshold;
+    }
+
+    /**
+     * @return Spill file shared by all staging stores, created on first use
+     */
+    synchronized ValueSpillFile getValueSpillFile() throws IOException {
+    	if( valueSpillFile == null ){
+    		valueSpillFile = new ValueSpillFile(
+    				attributeSpillDir == null ? null : new File(attributeSpillDir));
+    		wmd.log("Spilling attribute values of "+attributeSpillThreshold+
+    				" or more characters to "+valueSpillFile.getFile());
+    	}
+    	return valueSpillFile;
+    }
+
+    int getAttributePoolSample() {
+    	return attributePoolSample;
+    }
+
+    int getAttributePoolSize() {
+    	return attributePoolSize;
+    }
+
+    /**
+     * Items may be created by several conversion threads at once.
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Item createItem(String className) {
+    	return super.createItem(className);
+    }
+
+    /**
+     * @return Number the next item of className gets, as createItem() does
+     */
+    synchronized int newItemNumber(String className) {
+    	return Integer.parseInt(newId(className));
+    }
+
+    /**
+     * @return Prefix of className's item identifiers, as createItem() uses
+     */
+    synchronized String itemClassAlias(String className) {
+    	return alias(className);
+    }
+
+    /**
+     * This method is automatically called if "snapshot.dir" property set
+     * for source in project XML.
+     *
+     * Keeps a snapshot of the stored items in this directory, named after a
+     * hash of the inputs: data files, mapping file, key file, class list,
+     * source.class, model and converter jar.  If a later run's inputs hash
+     * the same the snapshot is replayed instead of converting anything.
+     * @param snapshotDir
+     */
+    public void setSnapshotDir(String snapshotDir){
+    	snapshotDirPath = snapshotDir;
+    }
+
+    /**
+     * @return Hash of everything the stored items depend on
+     */
+    private String hashInputs() throws Exception {
+    	ItemSnapshot.Hasher hasher = new ItemSnapshot.Hasher();
+    	URL code = WormbaseAcedbConverter.class.getProtectionDomain().getCodeSource().getLocation();
+    	if( code != null && "file".equals(code.getProtocol()) && new File(code.toURI()).isFile() ){
+    		hasher.addFile("code", new File(code.toURI()));
+    	}
+    	hasher.add("model", model.toString());
+    	hasher.add("source.class", currentClass);
+    	if( keyFilePath != null ){
+    		hasher.addFile("key.file", new File(keyFilePath));
+    	}
+    	if( mappingFilePath != null ){
+    		hasher.addFile("mapping.file", new File(mappingFilePath));
+    	}
+    	if( classListFilePath != null ){
+    		hasher.addFile("class.list.file", new File(classListFilePath));
+    		for( String[] classEntry : readClassList(classListFilePath) ){
+    			hasher.add("class", classEntry[0]);
+    			for( File file : listDataFiles(new File(classEntry[1])) ){
+    				hasher.addFile("data", file);
+    			}
+    			hasher.addFile("mapping", new File(classEntry[2]));
+    		}
+    	}
+    	if( pendingFiles != null ){
+    		for( File file : pendingFiles ){
+    			hasher.addFile("data", file);
+    		}
+    	}
+    	return hasher.toHex();
+    }
+
+    /**
+     * Removes snapshots of earlier inputs of this source.
+     */
+    private void removeOldSnapshots(File current) {
+    	String prefix = current.getName().substring(0, current.getName().lastIndexOf('-') + 1);
+    	File[] files = current.getParentFile().listFiles();
+    	for( File file : files == null ? new File[0] : files ){
+    		if( file.getName().startsWith(prefix) && file.getName().endsWith(".snapshot")
+    				&& !file.equals(current) ){
+    			wmd.log("Removing old snapshot "+file);
+    			file.delete();
+    		}
+    	}
+    }
+
+    /**
+     * Records items in the snapshot, if one is being written, after the
+     * store hook has filled them in.
+     * {@inheritDoc}
+     */
+    @Override
+    public Integer store(Item item) throws ObjectStoreException {
+    	Integer id = super.store(item);
+    	if( metrics != null ){
+    		LoadMetrics.Counter stored = storedMetrics.get(item.getClassName());
+    		if( stored == null ){
+    			stored = metrics.counter("intermine_load_items_stored_total", "Items stored",
+    					"source", METRICS_SOURCE, "class", item.getClassName());
+    			storedMetrics.put(item.getClassName(), stored);
+    		}
+    		stored.inc();
+    	}
+    	ItemSnapshot.Writer writer = snapshotWriter;
+    	if( writer != null ){
+    		try{
+    			writer.write(item);
+    		}catch( IOException e ){
+    			wmd.log("Could not write snapshot, giving up on it: "+e);
+    			writer.abandon();
+    			snapshotWriter = null;
+    		}
+    	}
+    	return id;
+    }
+
+    /**
+     * Converts the classes in class.list.file if set, then stores every
+     * converted and referenced item.  With snapshot.dir set, replays the
+     * snapshot instead if the inputs have not changed.
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws Exception {
+    	File snapshot = null;
+    	if( snapshotDirPath != null ){
+    		snapshot = new File(snapshotDirPath, (classListFilePath != null ? "classes" :
+    			currentClass)+"-"+hashInputs()+".snapshot");
+    		if( snapshot.isFile() ){
+    			wmd.log("Inputs unchanged, replaying "+snapshot);
+    			int count = ItemSnapshot.replay(snapshot, getItemWriter());
+    			wmd.log("Replayed "+count+" items");
+    			if( rejectFilePath != null ){
+    				// Never opened, so the rejects of the run that wrote the snapshot are kept
+    				wmd.log("Rejects of the run that wrote the snapshot are in "+rejectFilePath);
+    			}
+    			super.close();
+    			closeMetrics();
+    			return;
+    		}
+    		new File(snapshotDirPath).mkdirs();
+    		snapshotWriter = new ItemSnapshot.Writer(snapshot);
+    	}
+
+    	try{
+    		if( classListFilePath != null ){
+    			convertClassList();
+    		}
+    		if( pendingFiles != null && !pendingFiles.isEmpty() ){
+    			openRejectsFile();
+    			if( parallelFiles ){
+    				convertPendingFiles();
+    			}else{
+    				convertQueuedFiles();
+    			}
+    		}
+    		flushRefItems();
+    		if( snapshotWriter != null ){
+    			int count = snapshotWriter.commit();
+    			snapshotWriter = null;
+    			wmd.log("Wrote snapshot of "+count+" items to "+snapshot);
+    			removeOldSnapshots(snapshot);
+    		}
+    	}catch( Exception e ){
+    		if( snapshotWriter != null ){
+    			snapshotWriter.abandon();
+    			snapshotWriter = null;
+    		}
+    		closeRejectsFile(e);
+    		throw e;
+    	}
+		closeRejectsFile();
+    	super.close();
+		closeMetrics();
+    	if( profiler != null ){
+    		profiler.logReport(wmd);
+    		profiler.writeJson(profileFilePath);
+    	}
+    }
+
     public void setDebug(String debug){
     	if(debug.equalsIgnoreCase("true")){
     		wmd.on();
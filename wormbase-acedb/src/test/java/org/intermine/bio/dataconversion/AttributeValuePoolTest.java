@@ -0,0 +1,72 @@
+package org.intermine.bio.dataconversion;
+
+import junit.framework.TestCase;
+
+public class AttributeValuePoolTest extends TestCase
+{
+    public AttributeValuePoolTest(String arg) {
+        super(arg);
+    }
+
+    public void testLowCardinalityValuesArePooled() throws Exception {
+        AttributeValuePool pool = new AttributeValuePool("Gene", "species", 20, 16);
+        String first = new String("Caenorhabditis elegans");
+        assertSame(first, pool.canonicalize(first));
+        for (int i = 0; i < 100; i++) {
+            assertSame(first, pool.canonicalize(new String("Caenorhabditis elegans")));
+        }
+        assertFalse(pool.isRejected());
+        assertEquals(1, pool.getPooledValues());
+        assertEquals(100, pool.getHits());
+        assertEquals(100 * AttributeValuePool.stringBytes(first), pool.getBytesSaved());
+    }
+
+    public void testPoolingContinuesPastSample() throws Exception {
+        AttributeValuePool pool = new AttributeValuePool("Gene", "status", 100, 1000);
+        String[] statuses = {"Live", "Dead", "Suppressed"};
+        for (int i = 0; i < 1000; i++) {
+            pool.canonicalize(new String(statuses[i % 3]));
+        }
+        assertFalse(pool.isRejected());
+        assertEquals(3, pool.getPooledValues());
+        assertEquals(997, pool.getHits());
+        String first = pool.canonicalize("Live");
+        assertSame(first, pool.canonicalize(new String("Live")));
+        // new values are still pooled after the sample, past sampleSize of them
+        for (int i = 0; i < 150; i++) {
+            pool.canonicalize("Status" + i);
+        }
+        assertFalse(pool.isRejected());
+        assertEquals(153, pool.getPooledValues());
+        String later = pool.canonicalize(new String("Status149"));
+        assertSame(later, pool.canonicalize(new String("Status149")));
+    }
+
+    public void testTooManyDistinctInSampleIsRejected() throws Exception {
+        AttributeValuePool pool = new AttributeValuePool("Gene", "method", 100, 1000);
+        for (int i = 0; i < 100; i++) {
+            // 11 distinct values in 100
+            pool.canonicalize("method" + (i % 11));
+        }
+        assertTrue(pool.isRejected());
+    }
+
+    public void testHighCardinalityFieldIsRejected() throws Exception {
+        AttributeValuePool pool = new AttributeValuePool("Gene", "primaryIdentifier", 20, 1000);
+        for (int i = 0; i < 20; i++) {
+            pool.canonicalize("WBGene" + i);
+        }
+        assertTrue(pool.isRejected());
+        String value = new String("WBGene1");
+        assertSame(value, pool.canonicalize(value));
+        assertEquals(0, pool.getPooledValues());
+    }
+
+    public void testPoolIsBounded() throws Exception {
+        AttributeValuePool pool = new AttributeValuePool("Gene", "method", 1000, 4);
+        for (int i = 0; i < 5; i++) {
+            pool.canonicalize("method" + i);
+        }
+        assertTrue(pool.isRejected());
+    }
+}
@@ -0,0 +1,63 @@
+package org.intermine.bio.dataconversion;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class CompositeKeyIndexTest extends TestCase
+{
+    public CompositeKeyIndexTest(String arg) {
+        super(arg);
+    }
+
+    public void testSingleAndCompositeKeys() throws Exception {
+        CompositeKeyIndex<String> index = new CompositeKeyIndex<String>();
+        index.put("Gene", "WBGene1", "gene");
+        index.put("SOTerm", new String[] {"gene", "SO"}, "term");
+
+        assertEquals("gene", index.get("Gene", "WBGene1"));
+        assertEquals("gene", index.get("Gene", new String[] {"WBGene1"}));
+        assertEquals("term", index.get("SOTerm", new String[] {"gene", "SO"}));
+        assertNull(index.get("SOTerm", new String[] {"SO", "gene"}));
+        assertNull(index.get("SOTerm", "gene"));
+        assertNull(index.get("Protein", "WBGene1"));
+        assertEquals(2, index.size());
+    }
+
+    public void testPutCopiesKey() throws Exception {
+        CompositeKeyIndex<String> index = new CompositeKeyIndex<String>();
+        String[] key = new String[] {"a", "b"};
+        index.put("SOTerm", key, "term");
+        key[1] = "c";
+        assertEquals("term", index.get("SOTerm", new String[] {"a", "b"}));
+        assertNull(index.get("SOTerm", key));
+    }
+
+    public void testReplaceAndGrow() throws Exception {
+        CompositeKeyIndex<Integer> index = new CompositeKeyIndex<Integer>();
+        for (int i = 0; i < 10000; i++) {
+            assertNull(index.put("Gene", new String[] {"g" + i, "s" + (i % 7)}, i));
+        }
+        assertEquals(Integer.valueOf(5), index.put("Gene", new String[] {"g5", "s5"}, -5));
+        assertEquals(10000, index.size());
+        for (int i = 0; i < 10000; i++) {
+            int expected = i == 5 ? -5 : i;
+            assertEquals(Integer.valueOf(expected),
+                    index.get("Gene", new String[] {"g" + i, "s" + (i % 7)}));
+        }
+
+        final List<String> visited = new ArrayList<String>();
+        index.visit(new CompositeKeyIndex.Visitor<Integer>() {
+            public void visit(String className, String[] key, Integer value) {
+                if (value < 3) {
+                    visited.add(className + ":" + key[0] + "," + key[1] + "=" + value);
+                }
+            }
+        });
+        Collections.sort(visited);
+        assertEquals("[Gene:g0,s0=0, Gene:g1,s1=1, Gene:g2,s2=2, Gene:g5,s5=-5]",
+                visited.toString());
+    }
+}
@@ -0,0 +1,106 @@
+package org.intermine.bio.dataconversion;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.dataconversion.ItemWriter;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Reference;
+import org.intermine.model.fulldata.ReferenceList;
+import org.intermine.xml.full.Item;
+import org.intermine.xml.full.ItemFactory;
+
+public class ItemSnapshotTest extends TestCase
+{
+    public ItemSnapshotTest(String arg) {
+        super(arg);
+    }
+
+    public void testWriteAndReplay() throws Exception {
+        File file = File.createTempFile("ItemSnapshotTest", ".snapshot");
+        file.delete();
+        try {
+            ItemFactory itemFactory = new ItemFactory();
+            Item gene = itemFactory.makeItem("1_1", "Gene", "");
+            gene.setAttribute("primaryIdentifier", "WBGene00000001");
+            gene.setAttribute("symbol", "aap-1");
+            gene.setReference("organism", "2_1");
+            gene.setCollection("dataSets", Arrays.asList("3_1", "3_2"));
+            Item organism = itemFactory.makeItem("2_1", "Organism", "");
+            organism.setAttribute("taxonId", "6239");
+
+            ItemSnapshot.Writer writer = new ItemSnapshot.Writer(file);
+            writer.write(gene);
+            writer.write(organism);
+            assertFalse(file.exists());
+            assertEquals(2, writer.commit());
+
+            ListItemWriter stored = new ListItemWriter();
+            assertEquals(2, ItemSnapshot.replay(file, stored));
+            assertEquals(2, stored.items.size());
+
+            org.intermine.model.fulldata.Item replayed = stored.items.get(0);
+            assertEquals("1_1", replayed.getIdentifier());
+            assertEquals("Gene", replayed.getClassName());
+            assertEquals("", replayed.getImplementations());
+            assertEquals(2, replayed.getAttributes().size());
+            Reference organismRef = replayed.getReferences().iterator().next();
+            assertEquals("organism", organismRef.getName());
+            assertEquals("2_1", organismRef.getRefId());
+            ReferenceList dataSets = replayed.getCollections().iterator().next();
+            assertEquals("3_1 3_2", dataSets.getRefIds());
+
+            Attribute taxonId = stored.items.get(1).getAttributes().iterator().next();
+            assertEquals("taxonId", taxonId.getName());
+            assertEquals("6239", taxonId.getValue());
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testHasherCoversContent() throws Exception {
+        String a = new ItemSnapshot.Hasher().add("source.class", "Gene").toHex();
+        String b = new ItemSnapshot.Hasher().add("source.class", "Gene").toHex();
+        String c = new ItemSnapshot.Hasher().add("source.class", "Genes").toHex();
+        String d = new ItemSnapshot.Hasher().add("source.clas", "sGene").toHex();
+        assertEquals(a, b);
+        assertFalse(a.equals(c));
+        assertFalse(a.equals(d));
+    }
+
+    private static class ListItemWriter implements ItemWriter
+    {
+        private List<org.intermine.model.fulldata.Item> items =
+            new ArrayList<org.intermine.model.fulldata.Item>();
+
+        public Integer store(org.intermine.model.fulldata.Item item) {
+            items.add(item);
+            return items.size();
+        }
+
+        public void store(ReferenceList refList, Integer itemId) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void store(Reference ref, Integer itemId) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void store(Attribute att, Integer itemId) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void storeAll(Collection<org.intermine.model.fulldata.Item> all) {
+            items.addAll(all);
+        }
+
+        public void close() {
+            // nothing to close
+        }
+    }
+}
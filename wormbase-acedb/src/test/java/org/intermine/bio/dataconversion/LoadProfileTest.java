@@ -0,0 +1,35 @@
+package org.intermine.bio.dataconversion;
+
+import junit.framework.TestCase;
+
+public class LoadProfileTest extends TestCase
+{
+    public LoadProfileTest(String arg) {
+        super(arg);
+    }
+
+    public void testHistogram() throws Exception {
+        LoadProfile profile = new LoadProfile();
+        for (int size : new int[] {0, 1, 2, 3, 4, 7, 8, 1000}) {
+            profile.addCollectionSize("Gene", "rnais", size);
+        }
+        LoadProfile.Histogram histogram = profile.getCollection("Gene.rnais");
+        assertEquals(8, histogram.getItems());
+        assertEquals(1025, histogram.getEntries());
+        assertEquals(1000, histogram.getMax());
+        assertNull(profile.getCollection("Gene.strains"));
+
+        assertEquals("0", LoadProfile.Histogram.label(0));
+        assertEquals("1", LoadProfile.Histogram.label(1));
+        assertEquals("2-3", LoadProfile.Histogram.label(2));
+        assertEquals("512-1023", LoadProfile.Histogram.label(10));
+    }
+
+    public void testClassCounts() throws Exception {
+        LoadProfile profile = new LoadProfile();
+        profile.addClass("Gene", 10, 3);
+        assertEquals(10, profile.getLoaded("Gene"));
+        assertEquals(3, profile.getStandIns("Gene"));
+        assertEquals(0, profile.getStandIns("Strain"));
+    }
+}
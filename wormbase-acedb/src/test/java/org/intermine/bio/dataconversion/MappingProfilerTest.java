@@ -0,0 +1,94 @@
+package org.intermine.bio.dataconversion;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathFactory;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+public class MappingProfilerTest extends TestCase
+{
+    private Document doc;
+
+    public MappingProfilerTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(
+                new InputSource(new StringReader("<Gene><Name>aap-1</Name><Name>aap-2</Name></Gene>")));
+    }
+
+    private void evaluate(MappingProfiler profiler, String key, String xpath) throws Exception {
+        XPathExpression expr = XPathFactory.newInstance().newXPath().compile(xpath);
+        profiler.evaluate("Gene", new MappingFileKey(key), xpath, expr, doc,
+                XPathConstants.NODESET);
+    }
+
+    private static MappingProfiler.EntryStats entry(List<MappingProfiler.EntryStats> entries,
+            String key) {
+        for (MappingProfiler.EntryStats entry : entries) {
+            if (entry.getRawKey().equals(key)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    public void testRankedMostExpensiveFirst() throws Exception {
+        MappingProfiler profiler = new MappingProfiler();
+        for (String key : new String[] {"symbol", "primaryIdentifier", "organism", "alleles"}) {
+            evaluate(profiler, key, "/Gene/Name");
+        }
+        evaluate(profiler, "symbol", "/Gene/Name");
+        List<MappingProfiler.EntryStats> entries = profiler.getRankedEntries();
+        assertEquals(4, entries.size());
+        assertEquals(2, entry(entries, "symbol").getCalls());
+        assertEquals(4, entry(entries, "symbol").nodes.get()); // two names, twice
+
+        // Times set rather than measured, so the ranking doesn't depend on them
+        entry(entries, "organism").nanos.set(3000);
+        entry(entries, "symbol").nanos.set(2000);
+        entry(entries, "alleles").nanos.set(1000);
+        entry(entries, "primaryIdentifier").nanos.set(1000);
+
+        entries = profiler.getRankedEntries();
+        assertEquals("organism", entries.get(0).getRawKey());
+        assertEquals("symbol", entries.get(1).getRawKey());
+        // Equal cost, by key
+        assertEquals("alleles", entries.get(2).getRawKey());
+        assertEquals("primaryIdentifier", entries.get(3).getRawKey());
+
+        File json = File.createTempFile("MappingProfilerTest", ".json");
+        try {
+            profiler.writeJson(json.getPath());
+            String written = FileUtils.readFileToString(json);
+            int organism = written.indexOf("\"key\": \"organism\"");
+            int symbol = written.indexOf("\"key\": \"symbol\"");
+            int alleleKey = written.indexOf("\"key\": \"alleles\"");
+            assertTrue(written, organism > 0 && organism < symbol && symbol < alleleKey);
+            assertTrue(written, written.contains("\"xpath\": \"/Gene/Name\""));
+        } finally {
+            json.delete();
+        }
+    }
+
+    public void testJsonString() throws Exception {
+        assertEquals("null", MappingProfiler.jsonString(null));
+        assertEquals("\"\"", MappingProfiler.jsonString(""));
+        assertEquals("\"Gene[@name=\\\"x\\\"]\"", MappingProfiler.jsonString("Gene[@name=\"x\"]"));
+        assertEquals("\"a\\\\b\"", MappingProfiler.jsonString("a\\b"));
+        assertEquals("\"a\\nb\\rc\\td\"", MappingProfiler.jsonString("a\nb\rc\td"));
+        assertEquals("\"a\\u0001b\\u001f\"", MappingProfiler.jsonString("a\u0001b\u001f"));
+        assertEquals("\"\u00e9 ~\"", MappingProfiler.jsonString("\u00e9 ~"));
+    }
+}
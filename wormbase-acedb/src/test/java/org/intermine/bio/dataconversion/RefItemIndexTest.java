@@ -0,0 +1,114 @@
+package org.intermine.bio.dataconversion;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.intermine.xml.full.Item;
+
+public class RefItemIndexTest extends TestCase
+{
+    private StagingTestModel.ListItemWriter writer;
+    private WormbaseAcedbConverter converter;
+
+    public RefItemIndexTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        writer = new StagingTestModel.ListItemWriter();
+        converter = StagingTestModel.converter(writer);
+    }
+
+    public void testStandInIsReused() throws Exception {
+        RefItemIndex index = new RefItemIndex(converter);
+        assertEquals(-1, index.get("Gene", "WBGene1"));
+
+        // Referenced first, its record turns up later
+        int standIn = index.getOrCreate("Gene", "WBGene1");
+        int allele = index.getOrCreate("Allele", "e1");
+        index.getStore().setReference(allele, "gene", standIn);
+        int loaded = index.getOrCreate("Gene", "WBGene1");
+        assertEquals(standIn, loaded);
+        assertEquals(loaded, index.get("Gene", new String[] {"WBGene1"}));
+        assertTrue(index.contains("Gene", "WBGene1"));
+        index.getStore().setAttribute(loaded, "symbol", "aap-1");
+
+        assertEquals(2, index.size());
+        assertEquals(2, index.getCreatedCount());
+        assertEquals(1, index.getFoundCount());
+
+        assertEquals(2, index.getStore().storeAll());
+        Item gene = writer.get(index.getStore().getIdentifier(loaded));
+        assertEquals("WBGene1", gene.getAttribute("primaryIdentifier").getValue());
+        assertEquals("aap-1", gene.getAttribute("symbol").getValue());
+        assertEquals(gene.getIdentifier(), writer.get(index.getStore().getIdentifier(allele))
+                .getReference("gene").getRefId());
+    }
+
+    public void testCompositeKeyResolvesReference() throws Exception {
+        RefItemIndex index = new RefItemIndex(converter);
+        int synonym = index.getOrCreate("Synonym", new String[] {"WBGene1", "aap-1"});
+        int gene = index.get("Gene", "WBGene1");
+        assertTrue(gene >= 0);
+        assertEquals(synonym, index.getOrCreate("Synonym", new String[] {"WBGene1", "aap-1"}));
+        assertTrue(synonym != index.getOrCreate("Synonym", new String[] {"WBGene1", "aap-2"}));
+        assertEquals(-1, index.get("Synonym", new String[] {"aap-1", "WBGene1"}));
+
+        index.getStore().storeAll();
+        Item stored = writer.get(index.getStore().getIdentifier(synonym));
+        assertEquals("aap-1", stored.getAttribute("value").getValue());
+        String geneId = index.getStore().getIdentifier(gene);
+        assertEquals(geneId, stored.getReference("subject").getRefId());
+        // The reverse collection is filled in for each new synonym
+        assertEquals(2, writer.get(geneId).getCollection("synonyms").getRefIds().size());
+        assertEquals(stored.getIdentifier(),
+                writer.get(geneId).getCollection("synonyms").getRefIds().get(0));
+    }
+
+    public void testWrongKeyLength() throws Exception {
+        RefItemIndex index = new RefItemIndex(converter);
+        try {
+            index.getOrCreate("Synonym", "aap-1");
+            fail("Synonym has a two field key");
+        } catch (Exception e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("subject, value"));
+        }
+        try {
+            index.getOrCreate("Organism", new String[] {"a", "b"});
+            fail("Organism has a one field key");
+        } catch (Exception e) {
+            // expected
+        }
+    }
+
+    public void testMergeFrom() throws Exception {
+        RefItemIndex first = new RefItemIndex(converter);
+        int gene = first.getOrCreate("Gene", "WBGene1");
+        first.getStore().setAttribute(gene, "symbol", "aap-1");
+        int oldAllele = first.getOrCreate("Allele", "e1");
+        first.getStore().addToCollection(gene, "alleles", oldAllele);
+
+        RefItemIndex second = new RefItemIndex(converter);
+        int laterGene = second.getOrCreate("Gene", "WBGene1");
+        int organism = second.getOrCreate("Organism", "Caenorhabditis elegans");
+        second.getStore().setReference(laterGene, "organism", organism);
+        int newAllele = second.getOrCreate("Allele", "e2");
+        second.getStore().addToCollection(laterGene, "alleles", newAllele);
+
+        assertEquals(1, first.mergeFrom(second));
+        assertEquals(4, first.size());
+        assertEquals(gene, first.get("Gene", "WBGene1"));
+        assertEquals(5, first.getCreatedCount());
+
+        assertEquals(4, first.getStore().storeAll());
+        StagingStore store = first.getStore();
+        Item stored = writer.get(store.getIdentifier(gene));
+        assertEquals("aap-1", stored.getAttribute("symbol").getValue());
+        assertEquals(store.getIdentifier(first.get("Organism", "Caenorhabditis elegans")),
+                stored.getReference("organism").getRefId());
+        assertEquals(Arrays.asList(store.getIdentifier(oldAllele),
+                store.getIdentifier(first.get("Allele", "e2"))),
+                stored.getCollection("alleles").getRefIds());
+    }
+}
@@ -0,0 +1,148 @@
+package org.intermine.bio.dataconversion;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+public class RejectsSinkTest extends TestCase
+{
+    public RejectsSinkTest(String arg) {
+        super(arg);
+    }
+
+    public void testIndexPointsAtRecords() throws Exception {
+        File file = File.createTempFile("RejectsSinkTest", ".xml");
+        RejectsSink rejects = new RejectsSink(file);
+        try {
+            rejects.add("gene.xml", 12, RejectsSink.Stage.REPAIR, "Element type \"bad\"",
+                    "<Gene>WBGene1<bad</Gene>");
+            rejects.add(null, 20, RejectsSink.Stage.KEY, "no\tkey\nfound", "<Gene></Gene>");
+            rejects.close();
+
+            assertEquals(1, rejects.getCount(RejectsSink.Stage.REPAIR));
+            assertEquals(1, rejects.getCount(RejectsSink.Stage.KEY));
+            assertEquals(0, rejects.getCount(RejectsSink.Stage.PARSE));
+
+            BufferedReader index = new BufferedReader(new FileReader(rejects.getIndexFile()));
+            String[] first = index.readLine().split("\t", -1);
+            String[] second = index.readLine().split("\t", -1);
+            assertNull(index.readLine());
+            index.close();
+
+            assertEquals("gene.xml", first[2]);
+            assertEquals("12", first[3]);
+            assertEquals("repair", first[4]);
+            assertEquals("", second[2]);
+            assertEquals("key", second[4]);
+            assertEquals("no key found", second[5]);
+
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            byte[] record = new byte[Integer.parseInt(second[1])];
+            raf.seek(Long.parseLong(second[0]));
+            raf.readFully(record);
+            raf.close();
+            assertEquals("<Gene></Gene>", new String(record, "UTF-8"));
+        } finally {
+            file.delete();
+            rejects.getIndexFile().delete();
+        }
+    }
+
+    public void testGzip() throws Exception {
+        File file = File.createTempFile("RejectsSinkTest", ".xml.gz");
+        RejectsSink rejects = new RejectsSink(file);
+        try {
+            rejects.add("gene.xml", 3, RejectsSink.Stage.PARSE, null, "<Gene>");
+            rejects.close();
+            try {
+                rejects.add("gene.xml", 4, RejectsSink.Stage.PARSE, null, "<Gene>");
+                fail("expected an IOException");
+            } catch (java.io.IOException e) {
+                // closed
+            }
+
+            InputStream in = new GZIPInputStream(new FileInputStream(file));
+            byte[] buffer = new byte[64];
+            int read = in.read(buffer);
+            in.close();
+            assertEquals("<Gene>\n\n", new String(buffer, 0, read, "UTF-8"));
+        } finally {
+            file.delete();
+            rejects.getIndexFile().delete();
+        }
+    }
+
+    public void testConverterFailureWritesRejects() throws Exception {
+        File mappingFile = File.createTempFile("RejectsSinkTest", ".properties");
+        File dataFile = File.createTempFile("RejectsSinkTest", ".xml");
+        File file = File.createTempFile("RejectsSinkTest", ".xml");
+        File indexFile = new File(file.getPath() + ".index");
+        try {
+            // A number can't be read as a collection's nodes
+            FileUtils.writeStringToFile(mappingFile, "primaryIdentifier = /Gene/text()[1]\n"
+                    + "alleles = count(/Gene/Allele)\n");
+            String records = "<Gene>WBGene1<bad</Gene>\n\n<Gene>WBGene2</Gene>\n";
+            FileUtils.writeStringToFile(dataFile, records);
+
+            // Converted in process()
+            WormbaseAcedbConverter converter = failingConverter(mappingFile, file);
+            try {
+                converter.process(new StringReader(records));
+                fail("the second record can't be mapped");
+            } catch (Exception e) {
+                // expected, close() isn't called
+            }
+            assertRejected(file, indexFile);
+
+            // Queued and converted in close()
+            converter = failingConverter(mappingFile, file);
+            converter.setParallelFiles("true");
+            converter.setCurrentFile(dataFile);
+            converter.process(new StringReader(records));
+            try {
+                converter.close();
+                fail("the second record can't be mapped");
+            } catch (Exception e) {
+                // expected
+            }
+            assertRejected(file, indexFile);
+        } finally {
+            mappingFile.delete();
+            dataFile.delete();
+            file.delete();
+            indexFile.delete();
+        }
+    }
+
+    private static WormbaseAcedbConverter failingConverter(File mappingFile, File rejectsFile)
+        throws Exception {
+        WormbaseAcedbConverter converter =
+            StagingTestModel.converter(new StagingTestModel.ListItemWriter());
+        converter.setMappingFile(mappingFile.getPath());
+        converter.setSourceClass("Gene");
+        converter.setRejectsFile(rejectsFile.getPath());
+        return converter;
+    }
+
+    /**
+     * Checks the broken record and the one that failed mapping are both in
+     * the rejects file.
+     */
+    private static void assertRejected(File file, File indexFile) throws Exception {
+        List<String> index = FileUtils.readLines(indexFile);
+        assertEquals(2, index.size());
+        assertEquals("repair", index.get(0).split("\t", -1)[4]);
+        assertEquals("mapping", index.get(1).split("\t", -1)[4]);
+        assertTrue(FileUtils.readFileToString(file).contains("<Gene>WBGene2</Gene>"));
+    }
+}
@@ -0,0 +1,177 @@
+package org.intermine.bio.dataconversion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.xml.full.Item;
+
+public class StagingStoreTest extends TestCase
+{
+    private StagingTestModel.ListItemWriter writer;
+    private WormbaseAcedbConverter converter;
+
+    public StagingStoreTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        writer = new StagingTestModel.ListItemWriter();
+        converter = StagingTestModel.converter(writer);
+    }
+
+    public void testAttributesAndReferences() throws Exception {
+        StagingStore store = new StagingStore(converter);
+        int gene = store.createRow("Gene");
+        int organism = store.createRow("Organism");
+        store.setAttribute(gene, "primaryIdentifier", "WBGene1");
+        store.setAttribute(gene, "symbol", "aap-1");
+        store.setAttribute(gene, "symbol", "aap-2"); // later value wins
+        store.setReference(gene, "organism", organism);
+        store.setAttribute(organism, "name", "Caenorhabditis elegans");
+
+        assertEquals(2, store.size());
+        assertEquals("Gene", store.getClassName(gene));
+        assertEquals(2, store.storeAll());
+
+        Item stored = writer.get(store.getIdentifier(gene));
+        assertEquals("Gene", stored.getClassName());
+        assertEquals("WBGene1", stored.getAttribute("primaryIdentifier").getValue());
+        assertEquals("aap-2", stored.getAttribute("symbol").getValue());
+        assertEquals(store.getIdentifier(organism), stored.getReference("organism").getRefId());
+        assertTrue(stored.getCollections().isEmpty());
+
+        stored = writer.get(store.getIdentifier(organism));
+        assertEquals("Caenorhabditis elegans", stored.getAttribute("name").getValue());
+        assertTrue(stored.getReferences().isEmpty());
+    }
+
+    public void testUnknownFieldIsRejected() throws Exception {
+        StagingStore store = new StagingStore(converter);
+        int gene = store.createRow("Gene");
+        try {
+            store.setAttribute(gene, "organism", "6239");
+            fail("organism is a reference");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            store.createRow("Protein");
+            fail("Protein is not in the model");
+        } catch (Exception e) {
+            // expected
+        }
+    }
+
+    public void testCollectionsKeepOrderAndStoreRepeatsOnce() throws Exception {
+        StagingStore store = new StagingStore(converter);
+        int gene = store.createRow("Gene");
+        int other = store.createRow("Gene");
+        List<String> expected = new ArrayList<String>();
+        // Interleaved, so both collections outgrow their arena slots
+        for (int i = 0; i < 40; i++) {
+            int allele = store.createRow("Allele");
+            store.addToCollection(gene, "alleles", allele);
+            store.addToCollection(other, "alleles", allele);
+            expected.add(store.getIdentifier(allele));
+        }
+        int firstAllele = 2;
+        long used = store.getArenaUsed();
+        store.addToCollection(gene, "alleles", firstAllele);
+        store.addToCollection(gene, "alleles", 20);
+        assertTrue(store.getArenaAbandoned() > 0);
+        assertEquals(used, store.getArenaUsed()); // 42 fits the slot of 64
+
+        store.storeAll();
+        assertEquals(expected, writer.get(store.getIdentifier(gene))
+                .getCollection("alleles").getRefIds());
+        assertEquals(expected, writer.get(store.getIdentifier(other))
+                .getCollection("alleles").getRefIds());
+    }
+
+    public void testProfileCountsRepeatsOnce() throws Exception {
+        StagingStore store = new StagingStore(converter);
+        int gene = store.createRow("Gene");
+        int allele = store.createRow("Allele");
+        int other = store.createRow("Allele");
+        store.addToCollection(gene, "alleles", allele);
+        store.addToCollection(gene, "alleles", other);
+        store.addToCollection(gene, "alleles", allele); // ex: a second record merged in
+
+        LoadProfile profile = store.profile(2);
+        LoadProfile.Histogram alleles = profile.getCollection("Gene.alleles");
+        assertEquals(1, alleles.getItems());
+        assertEquals(2, alleles.getEntries());
+        assertEquals(2, alleles.getMax());
+        assertEquals(2, profile.getTargets().size());
+        for (LoadProfile.Target target : profile.getTargets()) {
+            assertEquals(1, target.getInbound());
+        }
+    }
+
+    public void testStoresClassesByNameAndRowsByKey() throws Exception {
+        StagingStore store = new StagingStore(converter);
+        for (String id : new String[] {"WBGene3", "WBGene1", "WBGene2"}) {
+            store.setAttribute(store.createRow("Gene"), "primaryIdentifier", id);
+        }
+        int allele = store.createRow("Allele");
+        store.setAttribute(allele, "primaryIdentifier", "e1");
+
+        assertEquals(Arrays.asList("Allele", "Gene"),
+                new ArrayList<String>(store.getClassCounts().keySet()));
+        assertEquals(3, store.getClassCounts().get("Gene").intValue());
+        assertEquals(4, store.storeAll());
+        List<String> stored = new ArrayList<String>();
+        for (Item item : writer.getItems("Allele")) {
+            stored.add(item.getAttribute("primaryIdentifier").getValue());
+        }
+        for (Item item : writer.getItems("Gene")) {
+            stored.add(item.getAttribute("primaryIdentifier").getValue());
+        }
+        assertEquals(Arrays.asList("e1", "WBGene1", "WBGene2", "WBGene3"), stored);
+    }
+
+    public void testMergeRows() throws Exception {
+        StagingStore into = new StagingStore(converter);
+        int gene = into.createRow("Gene");
+        into.setAttribute(gene, "primaryIdentifier", "WBGene1");
+        into.setAttribute(gene, "symbol", "old");
+        int oldAllele = into.createRow("Allele");
+        into.addToCollection(gene, "alleles", oldAllele);
+
+        StagingStore from = new StagingStore(converter);
+        int fromGene = from.createRow("Gene");
+        from.setAttribute(fromGene, "symbol", "new");
+        int organism = from.createRow("Organism");
+        from.setReference(fromGene, "organism", organism);
+        int newAllele = from.createRow("Allele");
+        from.addToCollection(fromGene, "alleles", newAllele);
+
+        int intoOrganism = into.createRow("Organism");
+        int intoNewAllele = into.createRow("Allele");
+        into.mergeRows(from, new int[] {gene, intoOrganism, intoNewAllele});
+        into.storeAll();
+
+        Item stored = writer.get(into.getIdentifier(gene));
+        assertEquals("WBGene1", stored.getAttribute("primaryIdentifier").getValue());
+        assertEquals("new", stored.getAttribute("symbol").getValue());
+        assertEquals(into.getIdentifier(intoOrganism), stored.getReference("organism").getRefId());
+        assertEquals(Arrays.asList(into.getIdentifier(oldAllele), into.getIdentifier(intoNewAllele)),
+                stored.getCollection("alleles").getRefIds());
+    }
+
+    public void testMergeRejectsOtherClass() throws Exception {
+        StagingStore into = new StagingStore(converter);
+        int organism = into.createRow("Organism");
+        StagingStore from = new StagingStore(converter);
+        from.createRow("Gene");
+        try {
+            into.mergeRows(from, new int[] {organism});
+            fail("a Gene row can't be merged into an Organism row");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.intermine.bio.dataconversion;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.intermine.dataconversion.ItemWriter;
+import org.intermine.metadata.InterMineModelParser;
+import org.intermine.metadata.Model;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Reference;
+import org.intermine.model.fulldata.ReferenceList;
+import org.intermine.xml.full.Item;
+import org.intermine.xml.full.ItemHelper;
+
+/**
+ * A few classes of the genomic model and their keys, enough to stage items
+ * without the full model.  Synonym has a composite key that includes a
+ * reference.
+ */
+class StagingTestModel
+{
+    static final String MODEL =
+        "<model name=\"staging\" package=\"org.intermine.model.bio\">"
+        + "<class name=\"Gene\" is-interface=\"true\">"
+        + "<attribute name=\"primaryIdentifier\" type=\"java.lang.String\"/>"
+        + "<attribute name=\"symbol\" type=\"java.lang.String\"/>"
+        + "<reference name=\"organism\" referenced-type=\"Organism\"/>"
+        + "<collection name=\"alleles\" referenced-type=\"Allele\" reverse-reference=\"gene\"/>"
+        + "<collection name=\"synonyms\" referenced-type=\"Synonym\" reverse-reference=\"subject\"/>"
+        + "</class>"
+        + "<class name=\"Allele\" is-interface=\"true\">"
+        + "<attribute name=\"primaryIdentifier\" type=\"java.lang.String\"/>"
+        + "<reference name=\"gene\" referenced-type=\"Gene\" reverse-reference=\"alleles\"/>"
+        + "</class>"
+        + "<class name=\"Synonym\" is-interface=\"true\">"
+        + "<attribute name=\"value\" type=\"java.lang.String\"/>"
+        + "<reference name=\"subject\" referenced-type=\"Gene\" reverse-reference=\"synonyms\"/>"
+        + "</class>"
+        + "<class name=\"Organism\" is-interface=\"true\">"
+        + "<attribute name=\"name\" type=\"java.lang.String\"/>"
+        + "</class>"
+        // Created by BioFileConverter
+        + "<class name=\"Ontology\" is-interface=\"true\">"
+        + "<attribute name=\"name\" type=\"java.lang.String\"/>"
+        + "<attribute name=\"url\" type=\"java.lang.String\"/>"
+        + "</class>"
+        + "<class name=\"DataSource\" is-interface=\"true\">"
+        + "<attribute name=\"name\" type=\"java.lang.String\"/>"
+        + "</class>"
+        + "<class name=\"DataSet\" is-interface=\"true\">"
+        + "<attribute name=\"name\" type=\"java.lang.String\"/>"
+        + "<reference name=\"dataSource\" referenced-type=\"DataSource\"/>"
+        + "</class>"
+        + "</model>";
+
+    static final String KEYS =
+        "Gene.key = primaryIdentifier\n"
+        + "Allele.key = primaryIdentifier\n"
+        + "Synonym.key = subject, value\n"
+        + "Organism.key = name\n";
+
+    private StagingTestModel() {
+    }
+
+    static Model model() throws Exception {
+        return new InterMineModelParser().process(new StringReader(MODEL));
+    }
+
+    /**
+     * @return converter over the model with its key file set
+     */
+    static WormbaseAcedbConverter converter(ItemWriter writer) throws Exception {
+        WormbaseAcedbConverter converter = new WormbaseAcedbConverter(writer, model());
+        converter.setKeyFile(keyFile().getPath());
+        return converter;
+    }
+
+    // Written once, snapshots hash the key file's name
+    private static File keyFile = null;
+
+    private static synchronized File keyFile() throws Exception {
+        if (keyFile == null) {
+            File file = File.createTempFile("StagingTestModel", ".properties");
+            file.deleteOnExit();
+            Writer out = new FileWriter(file);
+            try {
+                out.write(KEYS);
+            } finally {
+                out.close();
+            }
+            keyFile = file;
+        }
+        return keyFile;
+    }
+
+    /**
+     * Keeps the items stored, in the order they were stored.
+     */
+    static class ListItemWriter implements ItemWriter
+    {
+        final List<Item> items = new ArrayList<Item>();
+
+        /**
+         * @return the stored item with this identifier, null if none
+         */
+        Item get(String identifier) {
+            for (Item item : items) {
+                if (item.getIdentifier().equals(identifier)) {
+                    return item;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return the stored items of this class, in the order they were stored
+         */
+        List<Item> getItems(String className) {
+            List<Item> ofClass = new ArrayList<Item>();
+            for (Item item : items) {
+                if (item.getClassName().equals(className)) {
+                    ofClass.add(item);
+                }
+            }
+            return ofClass;
+        }
+
+        public Integer store(org.intermine.model.fulldata.Item item) {
+            items.add(ItemHelper.convert(item));
+            return items.size();
+        }
+
+        public void store(ReferenceList refList, Integer itemId) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void store(Reference ref, Integer itemId) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void store(Attribute att, Integer itemId) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void storeAll(Collection<org.intermine.model.fulldata.Item> all) {
+            for (org.intermine.model.fulldata.Item item : all) {
+                store(item);
+            }
+        }
+
+        public void close() {
+            // nothing to close
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.intermine.bio.dataconversion;
+
+import junit.framework.TestCase;
+
+public class ValueSpillFileTest extends TestCase
+{
+    public ValueSpillFileTest(String arg) {
+        super(arg);
+    }
+
+    public void testAppendAndRead() throws Exception {
+        ValueSpillFile spill = new ValueSpillFile(null);
+        try {
+            StringBuilder remark = new StringBuilder();
+            for (int i = 0; i < 1000; i++) {
+                remark.append("Remark line ").append(i).append(" \u00e9\u03b1\n");
+            }
+            long first = spill.append(remark.toString());
+            long empty = spill.append("");
+            long last = spill.append("Abstract");
+
+            assertEquals("Abstract", spill.read(last));
+            assertEquals("", spill.read(empty));
+            assertEquals(remark.toString(), spill.read(first));
+            assertEquals(3, spill.getValueCount());
+            assertTrue(spill.getFile().exists());
+        } finally {
+            spill.close();
+        }
+        assertFalse(spill.getFile().exists());
+    }
+}
@@ -1,8 +1,16 @@
 package org.intermine.bio.dataconversion;
 
 import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.Reader;
 import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.io.IOUtils;
@@ -44,4 +52,165 @@ public class WormbaseAcedbConverterTest extends ItemsTestCase
 
         assertEquals(expected, itemWriter.getItems());
     }
+
+    public void testParallelFilesMatchSequential() throws Exception {
+        // Both files have records for WBGene1 and refer to allele e1
+        File dir = createTempDir();
+        File mappingFile = File.createTempFile("WormbaseAcedbConverterTest", ".properties");
+        try {
+            write(new File(dir, "a.xml"),
+                    "<Gene>WBGene1<Symbol>aap-1</Symbol><Allele>e1</Allele></Gene>\n\n"
+                    + "<Gene>WBGene2<Allele>e2</Allele></Gene>\n");
+            write(new File(dir, "b.xml"),
+                    "<Gene>WBGene1<Symbol>aap-2</Symbol><Allele>e3</Allele></Gene>\n\n"
+                    + "<Gene>WBGene3<Symbol>aap-3</Symbol><Allele>e1</Allele></Gene>\n");
+            write(mappingFile,
+                    "primaryIdentifier = /Gene/text()[1]\n"
+                    + "symbol = /Gene/Symbol/text()[1]\n"
+                    + "alleles.primaryIdentifier = /Gene/Allele/text()\n");
+
+            List<String> sequential = convertGenes(dir, mappingFile, false);
+            assertEquals(sequential, convertGenes(dir, mappingFile, true));
+            assertEquals(6, sequential.size());
+            assertTrue(sequential.toString(),
+                    sequential.contains("Gene WBGene1 [alleles=>[e1, e3], symbol=aap-2]"));
+        } finally {
+            delete(dir);
+            mappingFile.delete();
+        }
+    }
+
+    public void testSnapshotReplayKeepsRejects() throws Exception {
+        File dir = createTempDir();
+        File snapshotDir = createTempDir();
+        File mappingFile = File.createTempFile("WormbaseAcedbConverterTest", ".properties");
+        File rejectsFile = File.createTempFile("WormbaseAcedbConverterTest", ".xml");
+        File rejectsIndex = new File(rejectsFile.getPath() + ".index");
+        try {
+            write(new File(dir, "a.xml"),
+                    "<Gene>WBGene1</Gene>\n\n<Gene><Symbol>aap-1</Symbol></Gene>\n");
+            write(new File(dir, "b.xml"), "<Gene>WBGene2</Gene>\n");
+            write(mappingFile,
+                    "primaryIdentifier = /Gene/text()[1]\n"
+                    + "symbol = /Gene/Symbol/text()[1]\n");
+
+            // Converted and snapshotted, then replayed
+            for (int run = 0; run < 2; run++) {
+                StagingTestModel.ListItemWriter writer = new StagingTestModel.ListItemWriter();
+                WormbaseAcedbConverter converter = geneConverter(writer, mappingFile);
+                converter.setSnapshotDir(snapshotDir.getPath());
+                converter.setRejectsFile(rejectsFile.getPath());
+                processFiles(converter, dir);
+
+                assertEquals(2, writer.getItems("Gene").size());
+                assertEquals(1, snapshotDir.listFiles().length);
+                List<String> rejected = IOUtils.readLines(new FileReader(rejectsIndex));
+                assertEquals("run " + run, 1, rejected.size());
+                assertTrue(rejected.get(0), rejected.get(0).contains("\tkey\t"));
+            }
+        } finally {
+            delete(dir);
+            delete(snapshotDir);
+            mappingFile.delete();
+            rejectsFile.delete();
+            rejectsIndex.delete();
+        }
+    }
+
+    /**
+     * Converts a.xml and b.xml in dir as Gene records.
+     * @return the Gene and Allele items stored, one line each, with
+     * references given as the referenced item's primaryIdentifier
+     */
+    private List<String> convertGenes(File dir, File mappingFile, boolean parallel)
+        throws Exception {
+        StagingTestModel.ListItemWriter writer = new StagingTestModel.ListItemWriter();
+        WormbaseAcedbConverter converter = geneConverter(writer, mappingFile);
+        if (parallel) {
+            converter.setParallelFiles("true");
+            converter.setThreads("2");
+        }
+        processFiles(converter, dir);
+
+        Map<String, String> keys = new HashMap<String, String>();
+        List<org.intermine.xml.full.Item> items = new ArrayList<org.intermine.xml.full.Item>();
+        for (String className : new String[] {"Gene", "Allele"}) {
+            for (org.intermine.xml.full.Item item : writer.getItems(className)) {
+                keys.put(item.getIdentifier(), item.getAttribute("primaryIdentifier").getValue());
+                items.add(item);
+            }
+        }
+        List<String> lines = new ArrayList<String>();
+        for (org.intermine.xml.full.Item item : items) {
+            List<String> fields = new ArrayList<String>();
+            for (org.intermine.xml.full.Attribute attribute : item.getAttributes()) {
+                if (!attribute.getName().equals("primaryIdentifier")) {
+                    fields.add(attribute.getName() + "=" + attribute.getValue());
+                }
+            }
+            for (org.intermine.xml.full.Reference reference : item.getReferences()) {
+                fields.add(reference.getName() + "->" + keys.get(reference.getRefId()));
+            }
+            for (org.intermine.xml.full.ReferenceList collection : item.getCollections()) {
+                List<String> refs = new ArrayList<String>();
+                for (String refId : collection.getRefIds()) {
+                    refs.add(keys.get(refId));
+                }
+                fields.add(collection.getName() + "=>" + refs);
+            }
+            Collections.sort(fields);
+            lines.add(item.getClassName() + " " + keys.get(item.getIdentifier()) + " " + fields);
+        }
+        Collections.sort(lines);
+        return lines;
+    }
+
+    private static WormbaseAcedbConverter geneConverter(StagingTestModel.ListItemWriter writer,
+            File mappingFile) throws Exception {
+        WormbaseAcedbConverter converter = StagingTestModel.converter(writer);
+        converter.setMappingFile(mappingFile.getPath());
+        converter.setSourceClass("Gene");
+        return converter;
+    }
+
+    /**
+     * Hands a.xml and b.xml in dir to the converter, then closes it.
+     */
+    private static void processFiles(WormbaseAcedbConverter converter, File dir)
+        throws Exception {
+        for (String name : new String[] {"a.xml", "b.xml"}) {
+            File file = new File(dir, name);
+            converter.setCurrentFile(file);
+            Reader reader = new FileReader(file);
+            try {
+                converter.process(reader);
+            } finally {
+                reader.close();
+            }
+        }
+        converter.close();
+    }
+
+    private static File createTempDir() throws Exception {
+        File dir = File.createTempFile("WormbaseAcedbConverterTest", "");
+        dir.delete();
+        dir.mkdir();
+        return dir;
+    }
+
+    private static void delete(File dir) {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private static void write(File file, String content) throws Exception {
+        Writer out = new FileWriter(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
 }